@@ -0,0 +1,72 @@
+/*
+ * The DetectionBenchmark measures ReadShots.detectGradualTransition over
+ * synthetic distance series of long videos with many transitions.
+ * 
+ * @author Divya Kamath
+ */
+
+package benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectionBenchmark {
+
+    @Param({ "200000", "2000000" })
+    public int frames;
+
+    // Frames between two shot boundaries
+    @Param({ "50", "500" })
+    public int spacing;
+
+    @Param({ "2" })
+    public int gtTor;
+
+    private int[] frameDistance;
+    private Object readShots;
+    private PrintStream console;
+
+    @Setup(Level.Trial)
+    public void setUpSeries() {
+        frameDistance = SyntheticData.distanceSeries(frames, spacing);
+        // ReadShots prints every shot, keep that out of the benchmark output
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpReadShots() {
+        readShots = Detector.newReadShots(frameDistance, 0, gtTor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public Object detectGradualTransition() {
+        Detector.detectGradualTransition(readShots);
+        return readShots;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The Detector gives the benchmarks access to the detection code.
+ * 
+ * The application classes live in the default package, which cannot be
+ * imported from the named package JMH requires, so they are reached through
+ * method handles looked up once by class name.
+ * 
+ * @author Divya Kamath
+ */
+
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+final class Detector {
+    private static final MethodHandle CALCULATE_PIXEL_VALUES = findStatic("CalculateUtil", "calculatePixelValues",
+            MethodType.methodType(void.class, BufferedImage.class, int[][].class, int.class));
+    private static final MethodHandle CALCULATE_MANHATTAN_DISTANCE = findStatic("CalculateUtil",
+            "calculateManhattanDistance", MethodType.methodType(int[].class, int[][].class));
+    private static final MethodHandle CALCULATE_AVG_SD = findStatic("CalculateUtil", "calculateAvgSD",
+            MethodType.methodType(void.class, int[].class, double[].class));
+    private static final MethodHandle NEW_READ_SHOTS = findConstructor("ReadShots",
+            MethodType.methodType(void.class, int[].class, int.class, int.class));
+    private static final MethodHandle SET_VERBOSE = findVirtual("ReadShots", "setVerbose",
+            MethodType.methodType(void.class, boolean.class));
+    private static final MethodHandle SET_THRESHOLD = findVirtual("ReadShots", "setThreshold",
+            MethodType.methodType(void.class));
+    private static final MethodHandle DETECT_GRADUAL_TRANSITION = findVirtual("ReadShots",
+            "detectGradualTransition", MethodType.methodType(void.class));
+
+    private Detector() {
+    }
+
+    static void calculatePixelValues(BufferedImage image, int[][] intensityMatrix, int imageCount) {
+        try {
+            CALCULATE_PIXEL_VALUES.invoke(image, intensityMatrix, imageCount);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static int[] calculateManhattanDistance(int[][] matrix) {
+        try {
+            return (int[]) CALCULATE_MANHATTAN_DISTANCE.invoke(matrix);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void calculateAvgSD(int[] distance, double[] avgSD) {
+        try {
+            CALCULATE_AVG_SD.invoke(distance, avgSD);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * newReadShots method creates a quiet ReadShots over the given distances
+     * with its thresholds already set.
+     */
+    static Object newReadShots(int[] frameDistance, int startFrame, int gtTor) {
+        try {
+            Object readShots = NEW_READ_SHOTS.invoke(frameDistance, startFrame, gtTor);
+            SET_VERBOSE.invoke(readShots, false);
+            SET_THRESHOLD.invoke(readShots);
+            return readShots;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void detectGradualTransition(Object readShots) {
+        try {
+            DETECT_GRADUAL_TRANSITION.invoke(readShots);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandles.Lookup lookupIn(String className) throws ReflectiveOperationException {
+        return MethodHandles.privateLookupIn(Class.forName(className), MethodHandles.lookup());
+    }
+
+    private static MethodHandle findStatic(String className, String name, MethodType type) {
+        try {
+            return lookupIn(className).findStatic(Class.forName(className), name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle findConstructor(String className, MethodType type) {
+        try {
+            return lookupIn(className).findConstructor(Class.forName(className), type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle findVirtual(String className, String name, MethodType type) {
+        try {
+            return lookupIn(className).findVirtual(Class.forName(className), name, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The DistanceBenchmark measures CalculateUtil.calculateManhattanDistance and
+ * CalculateUtil.calculateAvgSD over the histograms and distances of short
+ * and feature length videos. The Manhattan distance is measured with the
+ * SimdKernels and, in a fork started with -Dvideoshot.simd=false, with the
+ * scalar loop.
+ * 
+ * @author Divya Kamath
+ */
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DistanceBenchmark {
+
+    // 4000 frames is the default App range, 200000 frames a feature film
+    @Param({ "4000", "200000" })
+    public int frames;
+
+    private int[][] intensityMatrix;
+    private int[] frameDistance;
+
+    @Setup
+    public void setUp() {
+        intensityMatrix = SyntheticData.intensityMatrix(frames);
+        frameDistance = Detector.calculateManhattanDistance(intensityMatrix);
+    }
+
+    @Benchmark
+    public int[] calculateManhattanDistance() {
+        return Detector.calculateManhattanDistance(intensityMatrix);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Dvideoshot.simd=false" })
+    public int[] calculateManhattanDistanceScalar() {
+        return Detector.calculateManhattanDistance(intensityMatrix);
+    }
+
+    @Benchmark
+    public double[] calculateAvgSD() {
+        double[] avgSD = new double[2];
+        Detector.calculateAvgSD(frameDistance, avgSD);
+        return avgSD;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The HistogramBenchmark measures CalculateUtil.calculatePixelValues on
+ * synthetic frames of several resolutions and BufferedImage types, with the
+ * SimdKernels and, in a fork started with -Dvideoshot.simd=false, with the
+ * scalar kernels.
+ * 
+ * @author Divya Kamath
+ */
+
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class HistogramBenchmark {
+
+    @Param({ "640x360", "1920x1080", "3840x2160" })
+    public String resolution;
+
+    @Param({ "TYPE_3BYTE_BGR", "TYPE_4BYTE_ABGR", "TYPE_INT_RGB", "TYPE_INT_BGR", "TYPE_BYTE_GRAY" })
+    public String imageType;
+
+    private BufferedImage image;
+    private int[][] intensityMatrix;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        String[] size = resolution.split("x");
+        int type = BufferedImage.class.getField(imageType).getInt(null);
+        image = SyntheticData.frame(Integer.parseInt(size[0]), Integer.parseInt(size[1]), type);
+        intensityMatrix = new int[2][26];
+    }
+
+    @Benchmark
+    public int[][] calculatePixelValues() {
+        Detector.calculatePixelValues(image, intensityMatrix, 1);
+        return intensityMatrix;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = { "--add-modules=jdk.incubator.vector", "-Dvideoshot.simd=false" })
+    public int[][] calculatePixelValuesScalar() {
+        Detector.calculatePixelValues(image, intensityMatrix, 1);
+        return intensityMatrix;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The SyntheticData builds the frames and distance series the benchmarks
+ * run on, so no video file is needed.
+ * 
+ * @author Divya Kamath
+ */
+
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.SplittableRandom;
+
+final class SyntheticData {
+    private static final long SEED = 42;
+
+    private SyntheticData() {
+    }
+
+    /**
+     * frame method returns an image of the given size and BufferedImage type
+     * filled with random pixels.
+     */
+    static BufferedImage frame(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        SplittableRandom random = new SplittableRandom(SEED);
+        if (image.getRaster().getDataBuffer() instanceof DataBufferByte) {
+            byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) random.nextInt(256);
+            }
+        } else {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int i = 0; i < data.length; i++) {
+                data[i] = random.nextInt();
+            }
+        }
+        return image;
+    }
+
+    /**
+     * intensityMatrix method returns histogram rows for the given number of
+     * frames, laid out like the ReadFrames intensityMatrix (row 0 and column
+     * 0 unused), with every row adding up to the pixel count of a 1080p frame.
+     */
+    static int[][] intensityMatrix(int frames) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int[][] matrix = new int[frames + 1][26];
+        int pixels = 1920 * 1080;
+        for (int i = 1; i <= frames; i++) {
+            int left = pixels;
+            for (int j = 1; j < 25; j++) {
+                int bin = random.nextInt(left / 8 + 1);
+                matrix[i][j] = bin;
+                left -= bin;
+            }
+            matrix[i][25] = left;
+        }
+        return matrix;
+    }
+
+    /**
+     * distanceSeries method returns the frame distances of a long video: noisy
+     * stable footage with a cut or a gradual transition every spacing frames
+     * and short sub-threshold bursts in between. The series ends on stable
+     * footage.
+     */
+    static int[] distanceSeries(int frames, int spacing) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int[] distance = new int[frames];
+        for (int i = 0; i < frames; i++) {
+            distance[i] = 800 + random.nextInt(400);
+        }
+        for (int start = spacing; start < frames - spacing; start += spacing) {
+            if (random.nextBoolean()) {
+                distance[start] = 200000 + random.nextInt(50000);
+            } else {
+                int length = 5 + random.nextInt(30);
+                for (int i = start; i < start + length; i++) {
+                    distance[i] = 2600 + random.nextInt(1500);
+                }
+            }
+            int burst = start + spacing / 2;
+            for (int i = burst; i < burst + 1 + random.nextInt(3); i++) {
+                distance[i] = 2600 + random.nextInt(800);
+            }
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The AccuracyReport compares the shot boundaries found by a fast analysis
+ * mode with the boundaries found at full resolution.
+ * 
+ * Running its main method analyses one video in every fast mode and prints
+ * the time taken and the precision and recall of each mode, so a
+ * speed/accuracy point can be picked per workload. The coarse-to-fine modes
+ * are meant to find the same boundaries as the full analysis, so they are
+ * also checked: the exit status is 1 if any of them finds a boundary more
+ * or less than the full analysis, within the tolerance.
+ * 
+ * @author Divya Kamath
+ */
+
+import java.util.List;
+
+public class AccuracyReport {
+    private final int matched;
+    private final int referenceCount;
+    private final int detectedCount;
+
+    /**
+     * constructor
+     * 
+     * pre: none
+     * 
+     * post: sets up the report counts.
+     */
+
+    AccuracyReport(int matched, int referenceCount, int detectedCount) {
+        this.matched = matched;
+        this.referenceCount = referenceCount;
+        this.detectedCount = detectedCount;
+    }
+
+    /**
+     * compare method matches every detected boundary with at most one reference
+     * boundary whose start frame is within tolerance frames of it.
+     * 
+     * pre: both lists hold {start, end} boundaries sorted by start frame.
+     * 
+     * post: returns the report of the comparison.
+     */
+    public static AccuracyReport compare(List<int[]> reference, List<int[]> detected, int tolerance) {
+        int matched = 0;
+        int r = 0;
+        for (int[] boundary : detected) {
+            while (r < reference.size() && reference.get(r)[0] < boundary[0] - tolerance) {
+                r++;
+            }
+            if (r < reference.size() && reference.get(r)[0] <= boundary[0] + tolerance) {
+                matched++;
+                r++;
+            }
+        }
+        return new AccuracyReport(matched, reference.size(), detected.size());
+    }
+
+    /**
+     * precision method returns the share of detected boundaries that match a
+     * reference boundary.
+     * 
+     * pre: none
+     * 
+     * post: returns the precision, 1 when nothing was detected.
+     */
+    public double precision() {
+        return detectedCount == 0 ? 1 : (double) matched / detectedCount;
+    }
+
+    /**
+     * matchesAll method tells if every boundary of both sides was matched.
+     * 
+     * pre: none
+     * 
+     * post: returns true if precision and recall are both 1.
+     */
+    public boolean matchesAll() {
+        return matched == referenceCount && matched == detectedCount;
+    }
+
+    /**
+     * recall method returns the share of reference boundaries that were
+     * detected.
+     * 
+     * pre: none
+     * 
+     * post: returns the recall, 1 when there are no reference boundaries.
+     */
+    public double recall() {
+        return referenceCount == 0 ? 1 : (double) matched / referenceCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("matched %d of %d (detected %d) precision %.3f recall %.3f", matched, referenceCount,
+                detectedCount, precision(), recall());
+    }
+
+    /**
+     * main method analyses a video at full resolution and in each fast mode
+     * and prints how long every mode took and how its boundaries compare.
+     * 
+     * pre: args are the video path, start frame, end frame and gtTor,
+     * followed by any of the options --tolerance n, the frames a boundary may
+     * be off by (default 2), and --window n, the window of the coarse-to-fine
+     * modes (default ReadFrames.DEFAULT_WINDOW).
+     * 
+     * post: prints one line per mode. The exit status is 1 if a
+     * coarse-to-fine mode does not match the full analysis.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4 || args.length % 2 != 0) {
+            System.err.println("usage: AccuracyReport video startFrame endFrame gtTor [--tolerance n] [--window n]");
+            System.exit(2);
+        }
+        String videoPath = args[0];
+        int startFrame = Integer.parseInt(args[1]);
+        int endFrame = Integer.parseInt(args[2]);
+        int gtTor = Integer.parseInt(args[3]);
+        int tolerance = 2;
+        int window = ReadFrames.DEFAULT_WINDOW;
+        for (int i = 4; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--tolerance":
+                    tolerance = Integer.parseInt(value);
+                    break;
+                case "--window":
+                    window = Math.max(0, Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        FrameIndex frameIndex = FrameIndex.load(videoPath);
+
+        long time = System.nanoTime();
+        List<int[]> reference = analyse(new ReadFrames(startFrame, endFrame, videoPath), frameIndex, startFrame,
+                gtTor);
+        System.out.printf("full resolution: %d ms, %d boundaries%n", (System.nanoTime() - time) / 1000000,
+                reference.size());
+
+        int[][] sizes = { { 640, 360 }, { 320, 180 }, { 160, 90 } };
+        for (int[] size : sizes) {
+            ReadFrames readFrames = new ReadFrames(startFrame, endFrame, videoPath);
+            readFrames.setAnalysisSize(size[0], size[1]);
+            time = System.nanoTime();
+            List<int[]> detected = analyse(readFrames, frameIndex, startFrame, gtTor);
+            System.out.printf("%dx%d: %d ms, %s%n", size[0], size[1], (System.nanoTime() - time) / 1000000,
+                    compare(reference, detected, tolerance));
+        }
+        int[] steps = { 2, 4, 8 };
+        for (int step : steps) {
+            ReadFrames readFrames = new ReadFrames(startFrame, endFrame, videoPath);
+            readFrames.setPixelStep(step);
+            time = System.nanoTime();
+            List<int[]> detected = analyse(readFrames, frameIndex, startFrame, gtTor);
+            System.out.printf("pixel step %d: %d ms, %s%n", step, (System.nanoTime() - time) / 1000000,
+                    compare(reference, detected, tolerance));
+        }
+        int[] coarseSteps = { 4, 8, ReadFrames.KEYFRAMES, ReadFrames.PACKETS };
+        String[] coarseNames = { "4", "8", "keyframes", "packets" };
+        boolean matching = true;
+        for (int i = 0; i < coarseSteps.length; i++) {
+            ReadFrames readFrames = new ReadFrames(startFrame, endFrame, videoPath);
+            readFrames.setCoarseToFine(coarseSteps[i], window);
+            time = System.nanoTime();
+            List<int[]> detected = analyse(readFrames, frameIndex, startFrame, gtTor);
+            AccuracyReport report = compare(reference, detected, tolerance);
+            System.out.printf("coarse %s: %d ms, %s%s%n", coarseNames[i], (System.nanoTime() - time) / 1000000,
+                    report, report.matchesAll() ? "" : " MISMATCH");
+            matching &= report.matchesAll();
+        }
+        if (!matching) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * analyse method runs ReadFrames and ReadShots and returns the boundaries
+     * sorted by start frame.
+     * 
+     * pre: readFrames is configured for the mode to analyse.
+     * 
+     * post: returns the detected boundaries.
+     */
+    private static List<int[]> analyse(ReadFrames readFrames, FrameIndex frameIndex, int startFrame, int gtTor) {
+        readFrames.setFrameIndex(frameIndex);
+        readFrames.grabFrames();
+        ReadShots readShots = new ReadShots(readFrames.getFeatures(), startFrame, gtTor);
+        readShots.setThreshold();
+        readShots.detectCuts();
+        readShots.detectGradualTransition();
+        return readShots.getShotIndex().boundaries();
+    }
+}
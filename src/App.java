@@ -6,6 +6,7 @@
  * @author Divya Kamath
  */
 
+import java.io.File;
 import javax.swing.SwingUtilities;
 
 public class App {
@@ -15,26 +16,66 @@ public class App {
         int endFrame = 5000;
         int gtTor = 2;
         String videoPath = "src/video.mpeg";
+        String cacheStoragePath = "src/cache/";
+        String videoClipStoragePath = "src/videos/";
+        String videoFormat = ".avi";
+        // Disk space the exported clips may take, 1 GB unless the
+        // videoshot.clipCacheBudget property gives another number of bytes
+        long clipCacheBudget = Long.getLong("videoshot.clipCacheBudget", 1L << 30);
 
-        // Displays progress bar
-        Thread progressBarThread = new Thread(new ProgressBar());
-        progressBarThread.start();
+        // Displays progress bar, driven by the frames actually read and the
+        // detection. The same metrics are recorded as JFR events when a
+        // flight recording is running
+        ProgressBar progressBar = new ProgressBar();
+        JfrProgressListener jfrProgressListener = new JfrProgressListener();
+        ProgressListener progressListener = ProgressListener.both(progressBar, jfrProgressListener);
+
+        // Loads the frame index saved next to the video, building it on the
+        // first run, so frames can be reached without decoding from frame 0
+        FrameIndex frameIndex = FrameIndex.load(videoPath);
 
         // Reads the frames of the video in the video path starting
         // from startFrame to endFrame and calculates the frame distances
         ReadFrames readFrames = new ReadFrames(startFrame, endFrame, videoPath);
-        readFrames.grabFrames();
+        readFrames.setFrameIndex(frameIndex);
+        readFrames.setProgressListener(progressListener);
+        // Decodes on this thread while the other processors calculate the
+        // histograms, which also reports the depth of the decode queue
+        int pipelineWorkers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        readFrames.setPipeline(pipelineWorkers, 2 * pipelineWorkers + 2);
+        // Keeps the frames that start a shot while they are decoded, so
+        // MainFrame does not decode the video again to show the shots. They
+        // are written next to the cached histograms for the later runs
+        ThumbnailStore thumbnailStore = ThumbnailStore.open(new File(cacheStoragePath), videoPath, 1024);
+        readFrames.setThumbnailStore(thumbnailStore);
+        // Cached histograms of earlier runs are reused, so only frames that
+        // were never analysed are decoded
+        try (HistogramCache histogramCache = HistogramCache.open(new File(cacheStoragePath), videoPath,
+                readFrames.histogramParameters(), frameIndex.frameCount())) {
+            readFrames.setHistogramCache(histogramCache);
+            readFrames.grabFrames();
+        }
+        thumbnailStore.flush();
 
         // ReadShots identifies cuts and gradual transitions
-        ReadShots readShots = new ReadShots(startFrame, gtTor);
+        ReadShots readShots = new ReadShots(readFrames.getFeatures(), startFrame, gtTor);
+        readShots.setProgressListener(progressListener);
         readShots.setThreshold();
         readShots.detectCuts();
         readShots.detectGradualTransition();
+        progressBar.close();
+
+        // Produces the clips of the exported shots when they are first asked
+        // for and keeps the recently used ones on disk
+        ClipCache clipCache = new ClipCache(videoPath, frameIndex, new File(videoClipStoragePath), videoFormat,
+                clipCacheBudget);
+        clipCache.setProgressListener(jfrProgressListener);
 
         // Displays all the shots
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
-                MainFrame app = new MainFrame(videoPath, startFrame, endFrame);
+                MainFrame app = new MainFrame(videoPath, frameIndex, readShots.getShotIndex(),
+                        thumbnailStore, clipCache, jfrProgressListener);
                 app.setVisible(true);
             }
         });
@@ -0,0 +1,390 @@
+/*
+ * The BatchAnalyzer detects the shots of many videos without opening any
+ * window.
+ *
+ * The videos are listed in a manifest file or found in a directory and are
+ * analysed on a fixed number of worker threads, one video per thread. The
+ * shots of every video are written to a JSON lines or CSV file as soon as
+ * its analysis completes, and the shots can be exported to one clip each.
+ *
+ * @author Divya Kamath
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+public class BatchAnalyzer {
+    private static final String[] VIDEO_EXTENSIONS = { ".mpeg", ".mpg", ".mp4", ".m4v", ".mov", ".mkv", ".avi",
+            ".webm", ".wmv", ".flv", ".ts" };
+    // Format of the clips written by --export
+    private static final String EXPORT_FORMAT = ".mp4";
+
+    private final List<ShotAnalysis> analyses;
+    private final int threads;
+    private final PrintWriter output;
+    private final boolean csv;
+    private final AtomicInteger completed;
+    private final AtomicInteger failed;
+    private File exportDirectory;
+
+    /**
+     * constructor
+     *
+     * pre: analyses are not run yet, threads is at least 1.
+     *
+     * post: sets up the batch. Results are written to output as JSON lines, or
+     * as CSV rows when csv is true.
+     */
+
+    BatchAnalyzer(List<ShotAnalysis> analyses, int threads, PrintWriter output, boolean csv) {
+        this.analyses = analyses;
+        this.threads = threads;
+        this.output = output;
+        this.csv = csv;
+        completed = new AtomicInteger();
+        failed = new AtomicInteger();
+    }
+
+    /**
+     * setExportDirectory method exports the shots of every video, once it is
+     * analysed, to a directory named after the video in exportDirectory.
+     *
+     * pre: none
+     *
+     * post: run exports the clips when exportDirectory is not null.
+     */
+    public void setExportDirectory(File exportDirectory) {
+        this.exportDirectory = exportDirectory;
+    }
+
+    /**
+     * run method analyses every video on the worker threads and waits until
+     * all of them are done. A video that fails is reported and skipped.
+     *
+     * pre: none
+     *
+     * post: one result per video is written to the output.
+     */
+    public void run() throws InterruptedException {
+        if (csv) {
+            output.println("video,shot,start,end");
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (ShotAnalysis analysis : analyses) {
+            executor.execute(() -> analyse(analysis));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        output.flush();
+    }
+
+    /**
+     * analyse method runs one analysis and writes its result.
+     *
+     * pre: analysis is not run yet.
+     *
+     * post: the shots or the error of the video are written to the output,
+     * and the clips of the shots are exported when exportDirectory is set.
+     */
+    private void analyse(ShotAnalysis analysis) {
+        try {
+            analysis.run();
+            write(analysis);
+            if (exportDirectory != null) {
+                String name = new File(analysis.getVideoFile()).getName();
+                int extension = name.lastIndexOf('.');
+                if (extension > 0) {
+                    name = name.substring(0, extension);
+                }
+                analysis.exportClips(new File(exportDirectory, name), EXPORT_FORMAT);
+            }
+            System.err.printf("[%d/%d] %s: %d shots%n", completed.incrementAndGet(), analyses.size(),
+                    analysis.getVideoFile(), analysis.getBoundaries().size() + 1);
+        } catch (Exception e) {
+            failed.incrementAndGet();
+            System.err.printf("[%d/%d] %s: %s%n", completed.incrementAndGet(), analyses.size(),
+                    analysis.getVideoFile(), e);
+            if (!csv) {
+                synchronized (output) {
+                    output.println("{\"video\":" + ShotAnalysis.quote(analysis.getVideoFile()) + ",\"error\":"
+                            + ShotAnalysis.quote(String.valueOf(e.getMessage())) + "}");
+                    output.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * write method writes the shots of an analysis, one JSON line per video or
+     * one CSV row per shot.
+     *
+     * pre: analysis has run.
+     *
+     * post: the result is written and flushed, so a long batch can be
+     * followed while it runs.
+     */
+    private void write(ShotAnalysis analysis) {
+        synchronized (output) {
+            if (csv) {
+                String video = csvField(analysis.getVideoFile());
+                List<int[]> shots = analysis.getShots();
+                for (int i = 0; i < shots.size(); i++) {
+                    output.println(video + "," + i + "," + shots.get(i)[0] + "," + shots.get(i)[1]);
+                }
+            } else {
+                output.println(analysis.toJson());
+            }
+            output.flush();
+        }
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * main method runs a batch from the command line.
+     *
+     * pre: args are a manifest file or a directory of videos, followed by any
+     * of the options --out file (.csv for CSV, JSON lines otherwise, default
+     * shots.jsonl), --threads n (default the number of processors), --start n
+     * (default 0), --end n (default the end of each video), --gtTor n (default
+     * 2), --cache directory, --spill directory, which keeps the features of
+     * every video in a memory mapped file there, --coarse n, --coarse
+     * keyframes or --coarse packets, which only decodes every frame around
+     * the changes between every n-th frame or the keyframes, or around the
+     * candidates of a PacketPrescreen, and --window n (default 8), the frames
+     * decoded on each side of such a change, and --export directory, which
+     * writes the shots of every video to one clip each, in a subdirectory
+     * named after the video, --parallel n (default 1), which decodes n
+     * segments of every video at the same time, and --pipeline
+     * workers:buffers, which calculates the histograms on workers threads
+     * while the video is decoded, with up to buffers decoded frames waiting,
+     * and --stream n, which detects the shots with a StreamingShotDetector
+     * over the last n distances (0 for all) while the video is decoded and
+     * prints every boundary as soon as it is confirmed, and --gray true,
+     * which decodes the luma plane only. Every manifest line holds a
+     * video path, optionally followed by its own start frame, end frame and
+     * gtTor. Blank lines and lines starting with # are ignored.
+     *
+     * post: the shots of every video are written to the output file and the
+     * exit status is 1 if any video failed.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println("usage: BatchAnalyzer <manifest|directory> [--out file] [--threads n] "
+                    + "[--start n] [--end n] [--gtTor n] [--cache directory] "
+                    + "[--spill directory] [--coarse n|keyframes|packets] [--window n] "
+                    + "[--export directory] [--parallel n] [--pipeline workers:buffers] "
+                    + "[--stream n] [--gray true|false]");
+            System.exit(2);
+        }
+        String outputFile = "shots.jsonl";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int startFrame = 0;
+        int endFrame = ShotAnalysis.END_OF_VIDEO;
+        int gtTor = 2;
+        File cacheDirectory = null;
+        File spillDirectory = null;
+        int coarseStep = ShotAnalysis.FULL_ANALYSIS;
+        int coarseWindow = ReadFrames.DEFAULT_WINDOW;
+        File exportDirectory = null;
+        int segments = 1;
+        int pipelineWorkers = 0;
+        int pipelineBuffers = 0;
+        int streamWindow = ShotAnalysis.NO_STREAM;
+        boolean grayscale = false;
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--out":
+                    outputFile = value;
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--start":
+                    startFrame = Integer.parseInt(value);
+                    break;
+                case "--end":
+                    endFrame = Integer.parseInt(value);
+                    break;
+                case "--gtTor":
+                    gtTor = Integer.parseInt(value);
+                    break;
+                case "--cache":
+                    cacheDirectory = new File(value);
+                    break;
+                case "--spill":
+                    spillDirectory = new File(value);
+                    break;
+                case "--coarse":
+                    if (value.equals("keyframes")) {
+                        coarseStep = ReadFrames.KEYFRAMES;
+                    } else if (value.equals("packets")) {
+                        coarseStep = ReadFrames.PACKETS;
+                    } else {
+                        coarseStep = Math.max(2, Integer.parseInt(value));
+                    }
+                    break;
+                case "--window":
+                    coarseWindow = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "--export":
+                    exportDirectory = new File(value);
+                    break;
+                case "--parallel":
+                    segments = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--pipeline":
+                    String[] pipeline = value.split(":");
+                    pipelineWorkers = Math.max(1, Integer.parseInt(pipeline[0]));
+                    pipelineBuffers = Math.max(1, Integer.parseInt(pipeline[pipeline.length - 1]));
+                    break;
+                case "--stream":
+                    streamWindow = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "--gray":
+                    grayscale = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        File source = new File(args[0]);
+        List<ShotAnalysis> analyses = source.isDirectory() ? findVideos(source, startFrame, endFrame, gtTor)
+                : readManifest(source, startFrame, endFrame, gtTor);
+        // the metrics of every video are recorded when the batch runs with
+        // -XX:StartFlightRecording
+        JfrProgressListener jfrProgressListener = new JfrProgressListener();
+        for (ShotAnalysis analysis : analyses) {
+            analysis.setCacheDirectory(cacheDirectory);
+            analysis.setSpillDirectory(spillDirectory);
+            analysis.setCoarseToFine(coarseStep, coarseWindow);
+            analysis.setParallel(segments);
+            analysis.setPipeline(pipelineWorkers, pipelineBuffers);
+            analysis.setGrayscale(grayscale);
+            if (streamWindow != ShotAnalysis.NO_STREAM) {
+                analysis.setStreaming(streamWindow);
+                analysis.setShotListener(new BoundaryPrinter(analysis.getVideoFile()));
+            }
+            analysis.setProgressListener(jfrProgressListener);
+        }
+
+        long time = System.nanoTime();
+        BatchAnalyzer batchAnalyzer;
+        try (PrintWriter output = new PrintWriter(Files.newBufferedWriter(Path.of(outputFile),
+                StandardCharsets.UTF_8))) {
+            batchAnalyzer = new BatchAnalyzer(analyses, threads, output,
+                    outputFile.toLowerCase(Locale.ROOT).endsWith(".csv"));
+            batchAnalyzer.setExportDirectory(exportDirectory);
+            batchAnalyzer.run();
+        }
+        System.err.printf("analysed %d videos on %d threads in %d s, %d failed%n", analyses.size(), threads,
+                (System.nanoTime() - time) / 1000000000L, batchAnalyzer.getFailed());
+        System.exit(batchAnalyzer.getFailed() == 0 ? 0 : 1);
+    }
+
+    /**
+     * readManifest method reads the videos listed in a manifest file. Relative
+     * paths are resolved against the directory of the manifest.
+     *
+     * pre: manifest is readable.
+     *
+     * post: returns one analysis per listed video.
+     */
+    static List<ShotAnalysis> readManifest(File manifest, int startFrame, int endFrame, int gtTor)
+            throws IOException {
+        List<ShotAnalysis> analyses = new ArrayList<>();
+        File directory = manifest.getAbsoluteFile().getParentFile();
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            File video = new File(fields[0]);
+            if (!video.isAbsolute()) {
+                video = new File(directory, fields[0]);
+            }
+            analyses.add(new ShotAnalysis(video.getPath(),
+                    fields.length > 1 ? Integer.parseInt(fields[1]) : startFrame,
+                    fields.length > 2 ? Integer.parseInt(fields[2]) : endFrame,
+                    fields.length > 3 ? Integer.parseInt(fields[3]) : gtTor));
+        }
+        return analyses;
+    }
+
+    /**
+     * findVideos method finds the video files in a directory and its
+     * subdirectories.
+     *
+     * pre: directory is readable.
+     *
+     * post: returns one analysis per video, in path order.
+     */
+    static List<ShotAnalysis> findVideos(File directory, int startFrame, int endFrame, int gtTor)
+            throws IOException {
+        List<ShotAnalysis> analyses = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.filter(Files::isRegularFile).filter(BatchAnalyzer::isVideo).sorted()
+                    .forEach(path -> analyses.add(new ShotAnalysis(path.toString(), startFrame, endFrame, gtTor)));
+        }
+        return analyses;
+    }
+
+    private static boolean isVideo(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : VIDEO_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * BoundaryPrinter implements a ShotListener for a video analysed in
+     * streaming mode.
+     * 
+     * pre: none
+     * 
+     * post: every boundary is printed to standard error as soon as it is
+     * confirmed, while the result is only written once the video is done.
+     */
+    private static class BoundaryPrinter implements ShotListener {
+        private final String videoFile;
+
+        BoundaryPrinter(String videoFile) {
+            this.videoFile = videoFile;
+        }
+
+        public void cutDetected(int cutStart, int cutEnd) {
+            System.err.printf("%s: cut %d-%d%n", videoFile, cutStart, cutEnd);
+        }
+
+        public void gradualTransitionDetected(int transitionStart, int transitionEnd) {
+            System.err.printf("%s: gradual transition %d-%d%n", videoFile, transitionStart, transitionEnd);
+        }
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -11,6 +11,7 @@
  */
 
 import java.awt.image.BufferedImage;
+import org.bytedeco.javacv.Frame;
 
 public class CalculateUtil {
 
@@ -26,49 +27,30 @@ public class CalculateUtil {
      */
 
     public static void calculatePixelValues(BufferedImage image, int[][] intensityMatrix, int imageCount) {
-        int intensityColumnCount = 26;
-        int[] pixel;
-        int[] intensityBins = new int[intensityColumnCount];
-        int height = image.getHeight();
-        int width = image.getWidth();
-        for (int i = 0; i < intensityColumnCount; i++) {
-            intensityBins[i] = 0;
-        }
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                pixel = image.getRaster().getPixel(x, y, new int[3]);
-                calculateIntensity(pixel, intensityBins);
-            }
-        }
-        for (int i = 1; i < intensityColumnCount; i++) {
-            intensityMatrix[imageCount][i] = intensityBins[i];
-        }
+        IntensityHistogram.histogram(image, intensityMatrix[imageCount]);
     }
 
     /**
-     * calculateIntensity is called by calculatePixelValues method to calculate the
-     * intensity value using the formula I = 0.299R + 0.587G + 0.114B
+     * calculatePixelValues calculates the intensity value of each pixel of a
+     * grabbed frame straight from its native image buffer, without converting
+     * it to a BufferedImage first
      * 
-     * pre: RGB value of a pixel.
+     * pre: frame, intensityMatrix and imageCount should be instantiated and passed
+     * as parameters
      * 
-     * post: intenisty value of the selected pixel is added to the respective
-     * intensity bin.
+     * post: intensityMatrix is populated with intensity values of the frame
      */
-    private static void calculateIntensity(int[] pixel, int[] intensityBins) {
-        double intensityDouble = (0.299 * pixel[0]) + (0.587 * pixel[1]) + (0.114 * pixel[2]);
-        int intensity = (int) Math.floor(intensityDouble);
-        intensity = (int) Math.floor(intensity / 10);
-        if (intensity >= 24) {
-            intensityBins[25] += 1;
-        } else {
-            intensityBins[intensity + 1] += 1;
-        }
+
+    public static void calculatePixelValues(Frame frame, int[][] intensityMatrix, int imageCount) {
+        IntensityHistogram.histogram(frame, intensityMatrix[imageCount]);
     }
 
     /**
      * calculateManhattanDistance method calculates the Manhattan distance between
      * two frames using its inetensity values.
      * Formaula used :SD = summation of all values from 1 to 25 | Hi(j) - Hi+1(j)|
+     * When SimdSupport.ENABLED is true the rows are compared with SimdKernels,
+     * which gives the same distances
      * 
      * pre: initialise matrix that is passed as a parameter
      * 
@@ -77,6 +59,12 @@ public class CalculateUtil {
 
     public static int[] calculateManhattanDistance(int[][] matrix) {
         int[] framDistance = new int[matrix.length - 2];
+        if (SimdSupport.ENABLED) {
+            for (int i = 1; i < matrix.length - 1; i++) {
+                framDistance[i - 1] = SimdKernels.manhattanDistance(matrix[i], matrix[i + 1], matrix[i].length);
+            }
+            return framDistance;
+        }
         for (int i = 1; i < matrix.length - 1; i++) {
             double distance = 0.0;
             for (int j = 1; j < matrix[i].length; j++) {
@@ -88,6 +76,59 @@ public class CalculateUtil {
         return framDistance;
     }
 
+    /**
+     * calculateManhattanDistance method calculates the Manhattan distance between
+     * the intensity values of two single frames, for callers that do not keep a
+     * whole intensityMatrix.
+     * 
+     * pre: both rows hold intensity values in columns 1 to 25
+     * 
+     * post: frame distance between the two frames.
+     */
+
+    public static int calculateManhattanDistance(int[] previous, int[] current) {
+        if (SimdSupport.ENABLED) {
+            return SimdKernels.manhattanDistance(previous, current, previous.length);
+        }
+        int distance = 0;
+        for (int j = 1; j < previous.length; j++) {
+            distance += Math.abs(previous[j] - current[j]);
+        }
+        return distance;
+    }
+
+    /**
+     * calculateManhattanDistance method calculates the Manhattan distance
+     * between every pair of adjacent frames of a FeatureStore into its
+     * distances. The histograms are walked one bin column at a time, which
+     * reads the store sequentially. The distances are the same as those of
+     * calculateManhattanDistance on an intensityMatrix with the same rows
+     * 
+     * pre: the histograms of the store are populated
+     * 
+     * post: the distances of the store are calculated.
+     */
+
+    public static void calculateManhattanDistance(FeatureStore features) {
+        int count = features.distanceCount();
+        for (int i = 0; i < count; i++) {
+            features.setDistance(i, 0);
+        }
+        for (int bin = 1; bin <= FeatureStore.BINS && count > 0; bin++) {
+            if (SimdSupport.ENABLED) {
+                SimdKernels.addDistances(features.data(), features.columnOffset(bin), features.distanceOffset(),
+                        count);
+                continue;
+            }
+            int next = features.get(0, bin);
+            for (int i = 0; i < count; i++) {
+                int value = next;
+                next = features.get(i + 1, bin);
+                features.setDistance(i, features.distance(i) + Math.abs(value - next));
+            }
+        }
+    }
+
     /**
      * calculateAvgSD method is responsible to calculate the average and Standard
      * Deviation of frame distances
@@ -98,16 +139,30 @@ public class CalculateUtil {
      * post: populates the avgSD array with average and SD value.
      */
     public static void calculateAvgSD(int[] distance, double[] avgSD) {
+        calculateAvgSD(FeatureStore.ofDistances(distance), avgSD);
+    }
+
+    /**
+     * calculateAvgSD method calculates the average and Standard Deviation of the
+     * frame distances of a FeatureStore
+     * 
+     * pre: the distances of the store are calculated and avgSD array is
+     * initialised before passing as parameters
+     * 
+     * post: populates the avgSD array with average and SD value.
+     */
+    public static void calculateAvgSD(FeatureStore features, double[] avgSD) {
+        int count = features.distanceCount();
         // Calculate the average of each feature
-        for (int i = 0; i < distance.length; i++) {
-            avgSD[0] += distance[i];
+        for (int i = 0; i < count; i++) {
+            avgSD[0] += features.distance(i);
         }
-        avgSD[0] /= distance.length;
+        avgSD[0] /= count;
         // Calculate Standard Deviation
-        for (int i = 0; i < distance.length; i++) {
-            avgSD[1] += Math.pow(distance[i] - avgSD[0], 2);
+        for (int i = 0; i < count; i++) {
+            avgSD[1] += Math.pow(features.distance(i) - avgSD[0], 2);
         }
-        avgSD[1] /= (double) (distance.length);// -1
+        avgSD[1] /= (double) (count);// -1
         avgSD[1] = Math.sqrt(avgSD[1]);
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * The ClipCache produces the clip of a shot the first time it is asked for
+ * and keeps it on disk for later requests.
+ *
+ * Clips are named after a fingerprint of the video and the frames of the
+ * shot, so they are reused across runs. The clips missing from a request
+ * for several shots are exported together in a single pass over the video. When the clips take more space than
+ * the disk budget, the least recently used clips are deleted, and produced
+ * again if they are asked for later.
+ *
+ * @author Divya Kamath
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+public class ClipCache {
+    // Prefix of clips that are still being written
+    private static final String PARTIAL = "~";
+
+    private final ClipExporter clipExporter;
+    private final File clipDirectory;
+    private final String videoFormat;
+    private final String fingerprint;
+    private final long budget;
+    // Size of every clip on disk, from least to most recently used
+    private final LinkedHashMap<File, Long> clips;
+    // Export of every clip being produced, shared by all clips of one pass
+    private final Map<File, FutureTask<Void>> exporting;
+    private long size;
+
+    /**
+     * constructor
+     *
+     * pre: videoFile is a readable video, frameIndex may be null.
+     *
+     * post: sets up the cache with the clips already in clipDirectory, deleting
+     * the least recently used ones if they take more than budget bytes.
+     */
+
+    ClipCache(String videoFile, FrameIndex frameIndex, File clipDirectory, String videoFormat, long budget)
+            throws IOException {
+        this.clipDirectory = clipDirectory;
+        this.videoFormat = videoFormat;
+        this.budget = budget;
+        clipExporter = new ClipExporter(videoFile, frameIndex, clipDirectory, videoFormat);
+        clipExporter.setStreamCopy(true);
+        fingerprint = HistogramCache.fingerprint(videoFile);
+        clips = new LinkedHashMap<>(16, 0.75f, true);
+        exporting = new ConcurrentHashMap<>();
+
+        clipDirectory.mkdirs();
+        File[] files = clipDirectory.listFiles();
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                if (file.getName().startsWith(PARTIAL)) {
+                    file.delete();
+                } else if (file.isFile() && file.getName().endsWith(videoFormat)) {
+                    clips.put(file, file.length());
+                    size += file.length();
+                }
+            }
+        }
+        evict(List.of());
+    }
+
+    /**
+     * setProgressListener method sets the listener told how long every clip
+     * took to produce.
+     *
+     * pre: none
+     *
+     * post: produced clips are reported to progressListener.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        clipExporter.setProgressListener(progressListener);
+    }
+
+    /**
+     * setListener method sets the listener told about every clip the cache
+     * produces. The ids it is given count the clips of one pass.
+     *
+     * pre: none
+     *
+     * post: listener is called after each produced clip, it may be null.
+     */
+    public void setListener(ClipListener listener) {
+        clipExporter.setListener(listener);
+    }
+
+    /**
+     * get method returns the clip of a shot, producing it if it is not cached.
+     *
+     * pre: shot holds the first frame and the end frame of the shot.
+     *
+     * post: returns the clip, which is now the most recently used.
+     */
+    public File get(int[] shot) throws IOException, InterruptedException {
+        return get(List.of(shot)).get(0);
+    }
+
+    /**
+     * get method returns the clips of several shots, producing the ones that
+     * are not cached in a single pass over the video. A clip asked for by
+     * several threads at once is only produced once.
+     *
+     * pre: shots hold the first frame and the end frame of every shot, sorted
+     * by first frame.
+     *
+     * post: returns the clip of every shot, which are now the most recently
+     * used.
+     */
+    public List<File> get(List<int[]> shots) throws IOException, InterruptedException {
+        List<File> result = new ArrayList<>(shots.size());
+        List<int[]> missingShots = new ArrayList<>();
+        List<File> missingClips = new ArrayList<>();
+        List<FutureTask<Void>> running = new ArrayList<>();
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            produce(missingShots, missingClips);
+            return null;
+        });
+        for (int[] shot : shots) {
+            File clip = new File(clipDirectory, fingerprint + "-" + shot[0] + "-" + shot[1] + videoFormat);
+            result.add(clip);
+            synchronized (this) {
+                if (clips.get(clip) != null && clip.isFile()) {
+                    clip.setLastModified(System.currentTimeMillis());
+                    continue;
+                }
+            }
+            FutureTask<Void> other = exporting.putIfAbsent(clip, task);
+            if (other != null) {
+                running.add(other);
+            } else {
+                missingShots.add(shot);
+                missingClips.add(clip);
+            }
+        }
+
+        if (!missingShots.isEmpty()) {
+            running.add(task);
+            try {
+                task.run();
+            } finally {
+                for (File clip : missingClips) {
+                    exporting.remove(clip);
+                }
+            }
+        }
+        try {
+            for (FutureTask<Void> export : running) {
+                export.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * produce method exports the clips of the shots under a partial name and
+     * moves each in place once they are complete, so a clip is never played
+     * half written.
+     *
+     * pre: the clips are not cached.
+     *
+     * post: the clips are cached and the cache is within its budget.
+     */
+    private void produce(List<int[]> shots, List<File> produced) throws IOException, InterruptedException {
+        List<File> partials = new ArrayList<>(produced.size());
+        for (File clip : produced) {
+            partials.add(new File(clipDirectory, PARTIAL + clip.getName()));
+        }
+        try {
+            clipExporter.export(shots, partials);
+            for (int i = 0; i < produced.size(); i++) {
+                Files.move(partials.get(i).toPath(), produced.get(i).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            for (File partial : partials) {
+                partial.delete();
+            }
+        }
+        synchronized (this) {
+            for (File clip : produced) {
+                Long previous = clips.put(clip, clip.length());
+                size += clip.length() - (previous == null ? 0 : previous);
+            }
+            evict(produced);
+        }
+    }
+
+    /**
+     * evict method deletes the least recently used clips until the cache is
+     * within its budget. The clips just produced are kept even if they alone
+     * are larger than the budget.
+     *
+     * pre: none
+     *
+     * post: the cached clips take at most budget bytes, apart from keep.
+     */
+    private synchronized void evict(Collection<File> keep) {
+        Iterator<Map.Entry<File, Long>> iterator = clips.entrySet().iterator();
+        while (size > budget && iterator.hasNext()) {
+            Map.Entry<File, Long> entry = iterator.next();
+            if (keep.contains(entry.getKey())) {
+                continue;
+            }
+            entry.getKey().delete();
+            size -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    public String getVideoFormat() {
+        return videoFormat;
+    }
+
+    /**
+     * size method returns the space taken by the cached clips.
+     *
+     * pre: none
+     *
+     * post: returns the size in bytes.
+     */
+    public synchronized long size() {
+        return size;
+    }
+}
@@ -0,0 +1,568 @@
+/*
+ * The ClipExporter cuts a video into one clip per shot.
+ *
+ * The shots are split into a few groups of neighbouring shots and every
+ * group is exported by one worker with its own grabber, so the video is
+ * read once in total and no more than the given number of encoders run at
+ * a time. When every shot starts on a keyframe the packets can be copied
+ * into the clips without decoding or encoding anything.
+ *
+ * @author Divya Kamath
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+public class ClipExporter {
+    private final String videoFile;
+    private final FrameIndex frameIndex;
+    private final File clipDirectory;
+    private final String videoFormat;
+    private int workers;
+    private boolean streamCopy;
+    private ClipListener listener;
+    private ProgressListener progressListener;
+
+    /**
+     * constructor
+     *
+     * pre: videoFile is a readable video. frameIndex may be null, then workers
+     * find their first shot by decoding from frame 0 and stream copy is not
+     * available.
+     *
+     * post: sets up the exporter. Clips are written to clipDirectory, named by
+     * the shot number followed by videoFormat.
+     */
+
+    ClipExporter(String videoFile, FrameIndex frameIndex, File clipDirectory, String videoFormat) {
+        this.videoFile = videoFile;
+        this.frameIndex = frameIndex;
+        this.clipDirectory = clipDirectory;
+        this.videoFormat = videoFormat;
+        workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * setWorkers method sets how many clips are encoded at the same time.
+     *
+     * pre: workers is at least 1.
+     *
+     * post: export uses at most workers threads and grabbers.
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * setStreamCopy method asks for the packets of the video to be copied into
+     * the clips instead of being decoded and encoded again. It is only done
+     * when canStreamCopy is true for the exported shots, since a clip copied
+     * from any other frame could not be decoded.
+     *
+     * pre: none
+     *
+     * post: export copies packets when it can.
+     */
+    public void setStreamCopy(boolean streamCopy) {
+        this.streamCopy = streamCopy;
+    }
+
+    /**
+     * setListener method sets the listener told about every exported clip.
+     *
+     * pre: none
+     *
+     * post: listener is called after each clip, it may be null.
+     */
+    public void setListener(ClipListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * setProgressListener method sets the listener told how long every clip
+     * took to write and how many clips of an export are done.
+     *
+     * pre: none
+     *
+     * post: progressListener is called after each clip, it may be null.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * clipFile method returns the file the clip of shot number id is written
+     * to.
+     *
+     * pre: none
+     *
+     * post: returns the clip file.
+     */
+    public File clipFile(int id) {
+        return new File(clipDirectory, id + videoFormat);
+    }
+
+    /**
+     * canStreamCopy method tells if every shot starts on a keyframe, so its
+     * clip can be copied from the packets of the video.
+     *
+     * pre: none
+     *
+     * post: returns true if the shots can be stream copied.
+     */
+    public static boolean canStreamCopy(FrameIndex frameIndex, List<int[]> shots) {
+        if (frameIndex == null) {
+            return false;
+        }
+        for (int[] shot : shots) {
+            if (shot[0] >= frameIndex.frameCount() || !frameIndex.isKeyFrame(shot[0])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * export method writes the clip of every shot, shot number i from frame
+     * shots[i][0] up to frame shots[i][1], and waits until all of them are
+     * written.
+     *
+     * pre: shots hold {first frame, end frame} ranges sorted by first frame.
+     *
+     * post: clipFile(i) holds the clip of shot i.
+     */
+    public void export(List<int[]> shots) throws IOException, InterruptedException {
+        List<File> clips = new ArrayList<>(shots.size());
+        for (int id = 0; id < shots.size(); id++) {
+            clips.add(clipFile(id));
+        }
+        export(shots, clips);
+    }
+
+    /**
+     * export method writes the clip of every shot to the file at the same
+     * position in clips, in a single pass over the video, and waits until all
+     * of them are written. The listener is told the position of every clip.
+     *
+     * pre: shots hold {first frame, end frame} ranges sorted by first frame,
+     * clips holds one file per shot.
+     *
+     * post: clips.get(i) holds the clip of shots.get(i).
+     */
+    public void export(List<int[]> shots, List<File> clips) throws IOException, InterruptedException {
+        if (shots.isEmpty()) {
+            return;
+        }
+        for (File clip : clips) {
+            clip.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        if (streamCopy && canStreamCopy(frameIndex, shots)) {
+            try {
+                exportGroups(shots, clips, true);
+                return;
+            } catch (IOException e) {
+                // the clip format cannot hold the packets of this video
+                e.printStackTrace();
+            }
+        }
+        exportGroups(shots, clips, false);
+    }
+
+    /**
+     * exportClip method writes the clip of a single shot, from frame shot[0] up
+     * to frame shot[1], to the given file. The listener is not told about it.
+     *
+     * pre: clip has the extension of a video format.
+     *
+     * post: clip holds the clip of the shot.
+     */
+    public void exportClip(int[] shot, File clip) throws IOException {
+        List<int[]> shots = List.of(shot);
+        List<File> clips = List.of(clip);
+        if (streamCopy && canStreamCopy(frameIndex, shots)) {
+            try {
+                exportGroup(shots, clips, 0, 1, true, null);
+                return;
+            } catch (IOException e) {
+                // the clip format cannot hold the packets of this video
+                e.printStackTrace();
+            }
+        }
+        exportGroup(shots, clips, 0, 1, false, null);
+    }
+
+    /**
+     * exportGroups method splits the shots into one group of neighbouring
+     * shots per worker and exports the groups at the same time.
+     *
+     * pre: shots is not empty.
+     *
+     * post: the clips of all shots are written.
+     */
+    private void exportGroups(List<int[]> shots, List<File> clips, boolean copy)
+            throws IOException, InterruptedException {
+        AtomicInteger done = new AtomicInteger();
+        // every group gets about the same number of frames
+        int groups = Math.min(workers, shots.size());
+        long firstFrame = shots.get(0)[0];
+        long frames = Math.max(1, shots.get(shots.size() - 1)[1] - firstFrame);
+        ExecutorService executor = Executors.newFixedThreadPool(groups);
+        List<Future<Void>> futures = new ArrayList<>();
+        int from = 0;
+        for (int g = 1; g <= groups && from < shots.size(); g++) {
+            long limit = firstFrame + frames * g / groups;
+            int to = from + 1;
+            while (to < shots.size() && (g == groups || shots.get(to)[0] < limit)) {
+                to++;
+            }
+            int groupFrom = from;
+            int groupTo = to;
+            futures.add(executor.submit(() -> {
+                exportGroup(shots, clips, groupFrom, groupTo, copy, done);
+                return null;
+            }));
+            from = to;
+        }
+        executor.shutdown();
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            // the other groups must not write their clips any more once this
+            // returns
+            executor.shutdownNow();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * exportGroup method writes the clips of shots from to to (exclusive) with
+     * one grabber. clips holds the file of every shot and done counts the
+     * clips of the export, it is null for a single clip.
+     *
+     * pre: the shots are sorted by first frame.
+     *
+     * post: the clips of the shots are written.
+     */
+    private void exportGroup(List<int[]> shots, List<File> clips, int from, int to, boolean copy,
+            AtomicInteger done) throws IOException {
+        try (FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoFile)) {
+            frameGrabber.start();
+            if (copy) {
+                copyShots(frameGrabber, shots, clips, from, to, done);
+            } else {
+                encodeShots(frameGrabber, shots, clips, from, to, done);
+            }
+        }
+    }
+
+    /**
+     * encodeShots method decodes the frames of the shots once and encodes each
+     * frame into the clip of its shot. Audio is put in the clip whose time
+     * range holds it. Since audio and video are interleaved loosely, the clips
+     * before and after the current one are kept open for audio that comes
+     * late or early.
+     *
+     * pre: frameGrabber is started.
+     *
+     * post: the clips of the shots are written.
+     */
+    private void encodeShots(FFmpegFrameGrabber frameGrabber, List<int[]> shots, List<File> clips, int from,
+            int to, AtomicInteger done) throws IOException {
+        FFmpegFrameRecorder previous = null;
+        FFmpegFrameRecorder next = null;
+        int frame = seek(frameGrabber, shots.get(from)[0]);
+        int videoBitrate = videoBitrate(frameGrabber);
+        // time spent on the frames of the previous clip
+        long previousNanos = 0;
+        long previousEnd = 0;
+        try {
+            for (int id = from; id < to; id++) {
+                long time = System.nanoTime();
+                int[] shot = shots.get(id);
+                long clipStart = timeOf(frameGrabber, shot[0]);
+                long clipEnd = timeOf(frameGrabber, shot[1]);
+                FFmpegFrameRecorder recorder = next != null ? next
+                        : startRecorder(frameGrabber, clips.get(id), videoBitrate);
+                next = null;
+                while (frame < shot[1]) {
+                    Frame tempFrame = frameGrabber.grab();
+                    if (tempFrame == null) {
+                        break;
+                    }
+                    if (tempFrame.image != null) {
+                        if (frame >= shot[0]) {
+                            recorder.record(tempFrame);
+                        }
+                        frame++;
+                    } else if (tempFrame.samples != null) {
+                        if (tempFrame.timestamp < clipStart) {
+                            // the shots may not be neighbours, then the audio
+                            // between them is left out
+                            if (previous != null && tempFrame.timestamp < previousEnd) {
+                                previous.record(tempFrame);
+                            }
+                        } else if (tempFrame.timestamp < clipEnd) {
+                            recorder.record(tempFrame);
+                        } else if (id + 1 < to
+                                && tempFrame.timestamp >= timeOf(frameGrabber, shots.get(id + 1)[0])) {
+                            if (next == null) {
+                                next = startRecorder(frameGrabber, clips.get(id + 1), videoBitrate);
+                            }
+                            next.record(tempFrame);
+                        }
+                    }
+                }
+                long nanos = System.nanoTime() - time;
+                if (previous != null) {
+                    finish(previous, shots, clips, id - 1, done, previousNanos);
+                }
+                previous = recorder;
+                previousNanos = nanos;
+                previousEnd = clipEnd;
+            }
+            finish(previous, shots, clips, to - 1, done, previousNanos);
+            previous = null;
+        } finally {
+            if (previous != null) {
+                previous.close();
+            }
+            if (next != null) {
+                next.close();
+            }
+        }
+    }
+
+    /**
+     * copyShots method copies the packets of the shots into their clips
+     * without decoding them. A clip starts at the keyframe of its first frame
+     * and the timestamps of each clip are moved to start from 0.
+     *
+     * pre: frameGrabber is started and every shot starts on a keyframe.
+     *
+     * post: the clips of the shots are written.
+     */
+    private void copyShots(FFmpegFrameGrabber frameGrabber, List<int[]> shots, List<File> clips, int from,
+            int to, AtomicInteger done) throws IOException {
+        AVFormatContext formatContext = frameGrabber.getFormatContext();
+        int videoStream = FrameIndex.videoStreamOf(formatContext);
+        int first = shots.get(from)[0];
+        if (first > 0) {
+            // demuxers may land after the keyframe asked for, so the seek goes
+            // to the keyframe before it and the packets up to the shot are skipped
+            long seekPts = frameIndex.ptsOf(frameIndex.keyFrameAtOrBefore(first - 1));
+            avformat.av_seek_frame(formatContext, videoStream, seekPts, avformat.AVSEEK_FLAG_BACKWARD);
+        }
+
+        long[] offset = new long[formatContext.nb_streams()];
+        long[] lastDts = new long[formatContext.nb_streams()];
+        FFmpegFrameRecorder recorder = null;
+        long started = 0;
+        int id = from;
+        try {
+            AVPacket packet = frameGrabber.grabPacket();
+            while (packet != null) {
+                int stream = packet.stream_index();
+                if (stream == videoStream) {
+                    long pts = packet.pts() != avutil.AV_NOPTS_VALUE ? packet.pts() : packet.dts();
+                    boolean keyFrame = (packet.flags() & avcodec.AV_PKT_FLAG_KEY) != 0;
+                    if (recorder != null && pts >= copyEnd(shots, id) && (keyFrame || id + 1 == shots.size())) {
+                        finish(recorder, shots, clips, id, done, System.nanoTime() - started);
+                        recorder = null;
+                        if (++id == to) {
+                            break;
+                        }
+                    }
+                    if (recorder == null && keyFrame && pts >= frameIndex.ptsOf(shots.get(id)[0])) {
+                        recorder = new FFmpegFrameRecorder(clips.get(id), frameGrabber.getImageWidth(),
+                                frameGrabber.getImageHeight(), frameGrabber.getAudioChannels());
+                        recorder.setFrameRate(frameGrabber.getFrameRate());
+                        recorder.setSampleRate(frameGrabber.getSampleRate());
+                        recorder.start(formatContext);
+                        started = System.nanoTime();
+                        Arrays.fill(offset, avutil.AV_NOPTS_VALUE);
+                        Arrays.fill(lastDts, avutil.AV_NOPTS_VALUE);
+                    }
+                }
+                if (recorder != null) {
+                    if (offset[stream] == avutil.AV_NOPTS_VALUE) {
+                        offset[stream] = packet.dts() != avutil.AV_NOPTS_VALUE ? packet.dts() : packet.pts();
+                    }
+                    if (packet.pts() != avutil.AV_NOPTS_VALUE) {
+                        packet.pts(packet.pts() - offset[stream]);
+                    }
+                    if (packet.dts() != avutil.AV_NOPTS_VALUE) {
+                        // muxers refuse a dts that does not increase, which MPEG
+                        // program streams sometimes have
+                        long dts = packet.dts() - offset[stream];
+                        if (lastDts[stream] != avutil.AV_NOPTS_VALUE && dts <= lastDts[stream]) {
+                            dts = lastDts[stream] + Math.max(packet.duration(), 1);
+                        }
+                        if (packet.pts() != avutil.AV_NOPTS_VALUE && packet.pts() < dts) {
+                            packet.pts(dts);
+                        }
+                        packet.dts(dts);
+                        lastDts[stream] = dts;
+                    }
+                    recorder.recordPacket(packet);
+                }
+                avcodec.av_packet_unref(packet);
+                packet = frameGrabber.grabPacket();
+            }
+            if (recorder != null) {
+                finish(recorder, shots, clips, id, done, System.nanoTime() - started);
+                recorder = null;
+            }
+        } finally {
+            if (recorder != null) {
+                recorder.close();
+            }
+        }
+    }
+
+    /**
+     * copyEnd method returns the pts at which the copied clip of shot number id
+     * ends, which is the keyframe the next shot starts on, or the frame after
+     * its end frame when the next shot is not its neighbour.
+     *
+     * pre: frameIndex is set.
+     *
+     * post: returns the pts, Long.MAX_VALUE if the clip runs to the end of the
+     * video.
+     */
+    private long copyEnd(List<int[]> shots, int id) {
+        int end = shots.get(id)[1];
+        if (id + 1 < shots.size()) {
+            end = Math.min(shots.get(id + 1)[0], end + 1);
+        }
+        return end < frameIndex.frameCount() ? frameIndex.ptsOf(end) : Long.MAX_VALUE;
+    }
+
+    /**
+     * startRecorder method starts a recorder that encodes a clip with the size,
+     * frame rate and audio format of the video at the given video bitrate.
+     *
+     * pre: frameGrabber is started.
+     *
+     * post: returns the started recorder.
+     */
+    private static FFmpegFrameRecorder startRecorder(FFmpegFrameGrabber frameGrabber, File clip, int videoBitrate)
+            throws IOException {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(clip, frameGrabber.getImageWidth(),
+                frameGrabber.getImageHeight(), frameGrabber.getAudioChannels());
+        recorder.setFrameRate(frameGrabber.getFrameRate());
+        recorder.setSampleRate(frameGrabber.getSampleRate());
+        if (videoBitrate > 0) {
+            recorder.setVideoBitrate(videoBitrate);
+        }
+        if (frameGrabber.getAudioBitrate() > 0) {
+            recorder.setAudioBitrate(frameGrabber.getAudioBitrate());
+        }
+        recorder.start();
+        return recorder;
+    }
+
+    /**
+     * videoBitrate method returns the bitrate to encode the clips with. MPEG
+     * streams often report their maximum bitrate, so the average bitrate of
+     * the whole file is used when it is lower.
+     *
+     * pre: frameGrabber is started.
+     *
+     * post: returns the bitrate in bits per second, 0 if it is not known.
+     */
+    private int videoBitrate(FFmpegFrameGrabber frameGrabber) {
+        long bitrate = frameGrabber.getVideoBitrate();
+        long length = frameGrabber.getLengthInTime();
+        if (length > 0) {
+            long average = new File(videoFile).length() * 8 * 1000000L / length;
+            bitrate = bitrate > 0 ? Math.min(bitrate, average) : average;
+        }
+        return (int) Math.min(bitrate, Integer.MAX_VALUE);
+    }
+
+    /**
+     * finish method completes a clip and reports it to the listener when done
+     * counts the clips of an export. The progressListener is told the clip
+     * took nanos plus the time to complete the file.
+     *
+     * pre: recorder is started.
+     *
+     * post: the clip file is complete and the recorder released.
+     */
+    private void finish(FFmpegFrameRecorder recorder, List<int[]> shots, List<File> clips, int id,
+            AtomicInteger done, long nanos) throws IOException {
+        long time = System.nanoTime();
+        recorder.close();
+        nanos += System.nanoTime() - time;
+        int exported = done == null ? 1 : done.incrementAndGet();
+        if (progressListener != null) {
+            progressListener.clipExported(shots.get(id)[1] - shots.get(id)[0], nanos);
+            progressListener.progress(ProgressListener.EXPORT, exported, clips.size());
+        }
+        if (listener != null && done != null) {
+            listener.clipExported(id, clips.get(id), exported, clips.size());
+        }
+    }
+
+    /**
+     * seek method moves a started frameGrabber to the keyframe at or before a
+     * frame. The frames from there are decoded by the caller, so the audio
+     * played with them is not lost.
+     *
+     * pre: frameGrabber is started at frame 0.
+     *
+     * post: returns the number of the next frame grabbed.
+     */
+    private int seek(FFmpegFrameGrabber frameGrabber, int frame) throws IOException {
+        if (frameIndex == null) {
+            return 0;
+        }
+        int keyFrame = frameIndex.keyFrameAtOrBefore(frame);
+        if (keyFrame > 0) {
+            frameGrabber.setVideoTimestamp(frameIndex.timestampOf(keyFrame));
+        }
+        return keyFrame;
+    }
+
+    /**
+     * timeOf method returns the timestamp of a frame on the clock of the frames
+     * grabbed by frameGrabber, which counts from the start of the stream.
+     *
+     * pre: frameGrabber is started.
+     *
+     * post: returns the timestamp in microseconds.
+     */
+    private long timeOf(FFmpegFrameGrabber frameGrabber, int frame) {
+        long startTime = frameGrabber.getFormatContext().start_time();
+        if (startTime == avutil.AV_NOPTS_VALUE) {
+            startTime = 0;
+        }
+        if (frameIndex != null) {
+            return startTime + frameIndex.timestampOf(frame);
+        }
+        return startTime + (long) (frame * 1000000L / frameGrabber.getFrameRate());
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * The ClipListener is told about the progress of a ClipExporter, every
+ * time the clip of a shot is written.
+ * 
+ * @author Divya Kamath
+ */
+
+import java.io.File;
+
+public interface ClipListener {
+
+    /**
+     * clipExported is called when the clip of a shot is complete. It is called
+     * from the export worker threads.
+     * 
+     * pre: none
+     * 
+     * post: clip is the file of shot number id, done of total clips of the
+     * export are complete.
+     */
+    void clipExported(int id, File clip, int done, int total);
+}
@@ -0,0 +1,317 @@
+/*
+ * The FeatureStore holds the features of every frame of a video, its
+ * intensity histogram and its distance to the next frame, outside the Java
+ * heap.
+ *
+ * The values are laid out column by column in one flat buffer: bin 1 of all
+ * frames, then bin 2 of all frames and so on, followed by the distances. A
+ * feature film or a day long recording takes the same few heap objects as a
+ * short clip. The buffer is a direct buffer, or a memory mapped file when a
+ * spill directory is given, so the operating system can page the features
+ * of very long videos out to disk.
+ *
+ * The accessors read and write single values at absolute positions, so
+ * threads working on different frames can share a store.
+ *
+ * @author Divya Kamath
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+public class FeatureStore {
+    // Histogram bins kept for every frame, column 0 of a histogram row is
+    // unused and not stored
+    public static final int BINS = IntensityHistogram.COLUMNS - 1;
+
+    private final int frames;
+    private final File spillDirectory;
+    // All columns, null when the store only wraps distances
+    private final ByteBuffer data;
+    private final IntBuffer[] columns;
+    private final IntBuffer distances;
+    private LongBuffer prefixSums;
+
+    /**
+     * constructor
+     *
+     * pre: frames is not negative.
+     *
+     * post: allocates a zeroed direct buffer for the histograms and distances
+     * of frames frames.
+     */
+
+    FeatureStore(int frames) {
+        this(frames, ByteBuffer.allocateDirect(bytesFor(frames)), null);
+    }
+
+    private FeatureStore(int frames, ByteBuffer data, File spillDirectory) {
+        this.frames = frames;
+        this.spillDirectory = spillDirectory;
+        this.data = data.order(ByteOrder.nativeOrder());
+        columns = new IntBuffer[BINS];
+        for (int bin = 1; bin <= BINS; bin++) {
+            columns[bin - 1] = column(columnOffset(bin));
+        }
+        distances = column(distanceOffset());
+    }
+
+    private FeatureStore(int[] distance) {
+        frames = distance.length + 1;
+        spillDirectory = null;
+        data = null;
+        columns = new IntBuffer[0];
+        distances = IntBuffer.wrap(distance);
+    }
+
+    /**
+     * spill method creates a store backed by a memory mapped file in
+     * directory. The file is deleted straight away where the operating system
+     * allows it, and otherwise when the JVM exits.
+     *
+     * pre: directory can be created or written to.
+     *
+     * post: returns the zeroed store for frames frames.
+     */
+    public static FeatureStore spill(int frames, File directory) throws IOException {
+        return new FeatureStore(frames, map(directory, bytesFor(frames)), directory);
+    }
+
+    /**
+     * ofDistances method wraps frame distances that were calculated elsewhere,
+     * so ReadShots can detect shots on them. The store has no histograms.
+     *
+     * pre: distance[i] is the distance between frame i and frame i + 1.
+     *
+     * post: returns a store reading and writing distance.
+     */
+    public static FeatureStore ofDistances(int[] distance) {
+        return new FeatureStore(distance);
+    }
+
+    public int frames() {
+        return frames;
+    }
+
+    /**
+     * distanceCount method returns the number of distances, one less than
+     * the number of frames.
+     *
+     * pre: none
+     *
+     * post: returns the number of adjacent frame pairs.
+     */
+    public int distanceCount() {
+        return Math.max(frames - 1, 0);
+    }
+
+    /**
+     * get method returns one histogram bin of a frame.
+     *
+     * pre: frame is below frames() and bin is between 1 and BINS.
+     *
+     * post: returns the pixel count of the bin.
+     */
+    public int get(int frame, int bin) {
+        return columns[bin - 1].get(frame);
+    }
+
+    /**
+     * setRow method stores the histogram of a frame.
+     *
+     * pre: frame is below frames() and row holds IntensityHistogram.COLUMNS
+     * values.
+     *
+     * post: bins 1 to BINS of row are stored for the frame.
+     */
+    public void setRow(int frame, int[] row) {
+        for (int bin = 1; bin <= BINS; bin++) {
+            columns[bin - 1].put(frame, row[bin]);
+        }
+    }
+
+    /**
+     * getRow method copies the histogram of a frame into row.
+     *
+     * pre: frame is below frames() and row has IntensityHistogram.COLUMNS
+     * entries.
+     *
+     * post: row[0] is 0 and row[1] to row[BINS] hold the stored bins.
+     */
+    public void getRow(int frame, int[] row) {
+        row[0] = 0;
+        for (int bin = 1; bin <= BINS; bin++) {
+            row[bin] = columns[bin - 1].get(frame);
+        }
+    }
+
+    /**
+     * isEmpty method tells if no pixel of a frame is counted, because the
+     * frame was not decoded yet or lies past the end of the video.
+     *
+     * pre: frame is below frames().
+     *
+     * post: returns true if every bin of the frame is 0.
+     */
+    public boolean isEmpty(int frame) {
+        for (IntBuffer column : columns) {
+            if (column.get(frame) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int distance(int i) {
+        return distances.get(i);
+    }
+
+    public void setDistance(int i, int distance) {
+        distances.put(i, distance);
+    }
+
+    /**
+     * distances method copies the distances onto the heap.
+     *
+     * pre: none
+     *
+     * post: returns a new array of distanceCount() distances.
+     */
+    public int[] distances() {
+        int[] copy = new int[distanceCount()];
+        distances.get(0, copy);
+        return copy;
+    }
+
+    /**
+     * calculatePrefixSums method sums the distances so that the sum of any
+     * range of them is the difference of two entries. The sums are kept next
+     * to the distances, off the heap as well.
+     *
+     * pre: the distances are calculated.
+     *
+     * post: distanceSum can be called.
+     */
+    public void calculatePrefixSums() {
+        int count = distanceCount();
+        if (prefixSums == null) {
+            prefixSums = allocateSums(count + 1);
+        }
+        long sum = 0;
+        prefixSums.put(0, 0);
+        for (int i = 0; i < count; i++) {
+            sum += distances.get(i);
+            prefixSums.put(i + 1, sum);
+        }
+    }
+
+    /**
+     * distanceSum method returns the sum of the distances from "from" to "to"
+     * (exclusive).
+     *
+     * pre: calculatePrefixSums has run since the distances last changed.
+     *
+     * post: returns the sum, which cannot overflow.
+     */
+    public long distanceSum(int from, int to) {
+        return prefixSums.get(to) - prefixSums.get(from);
+    }
+
+    /**
+     * data method returns the buffer holding the columns, for the kernels
+     * that read them whole.
+     *
+     * pre: the store was not created by ofDistances.
+     *
+     * post: returns the buffer in native byte order.
+     */
+    ByteBuffer data() {
+        return data;
+    }
+
+    /**
+     * columnOffset method returns the byte offset of the first frame of a
+     * bin in data().
+     *
+     * pre: bin is between 1 and BINS.
+     *
+     * post: returns the offset.
+     */
+    int columnOffset(int bin) {
+        return (bin - 1) * frames * Integer.BYTES;
+    }
+
+    /**
+     * distanceOffset method returns the byte offset of the first distance in
+     * data().
+     *
+     * pre: none
+     *
+     * post: returns the offset.
+     */
+    int distanceOffset() {
+        return BINS * frames * Integer.BYTES;
+    }
+
+    private IntBuffer column(int offset) {
+        return data.slice(offset, frames * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private LongBuffer allocateSums(int count) {
+        int bytes = count * Long.BYTES;
+        if (data == null) {
+            return LongBuffer.allocate(count);
+        }
+        if (spillDirectory != null) {
+            try {
+                return map(spillDirectory, bytes).asLongBuffer();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    /**
+     * bytesFor method returns the size of the columns of frames frames.
+     *
+     * pre: frames is not negative.
+     *
+     * post: returns the size, or throws IllegalArgumentException if it does
+     * not fit in one buffer.
+     */
+    private static int bytesFor(int frames) {
+        long bytes = (long) (BINS + 1) * frames * Integer.BYTES;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many frames for one feature store: " + frames);
+        }
+        return (int) bytes;
+    }
+
+    /**
+     * map method maps a new zeroed file of the given size in directory.
+     *
+     * pre: directory can be created or written to.
+     *
+     * post: returns the mapping in native byte order, it stays valid after
+     * the file is closed and deleted.
+     */
+    private static ByteBuffer map(File directory, int bytes) throws IOException {
+        directory.mkdirs();
+        File file = File.createTempFile("features", ".bin", directory);
+        try (RandomAccessFile spillFile = new RandomAccessFile(file, "rw");
+                FileChannel channel = spillFile.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/*
+ * The FrameIndex maps every frame number of a video to its presentation
+ * timestamp, keyframe flag, picture type and the byte offset and size of
+ * its packet.
+ *
+ * It is built once by reading the packets of the video stream without
+ * decoding them and is saved next to the video, so later runs can load it
+ * and seek straight to any frame instead of decoding from frame 0. The
+ * picture types come from the parser of the codec, which only reads the
+ * headers of the packets.
+ *
+ * @author Divya Kamath
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParserContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.avformat.AVStream;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FrameGrabber.Exception;
+
+public class FrameIndex {
+    private static final int MAGIC = 0x46494458; // "FIDX"
+    private static final int VERSION = 3;
+    private static final String EXTENSION = ".idx";
+
+    private final long[] pts;
+    private final boolean[] keyFrame;
+    // Frame numbers of the keyframes in ascending order
+    private final int[] keyFrames;
+    private final byte[] pictureType;
+    private final long[] position;
+    private final int[] size;
+    private final int timeBaseNum;
+    private final int timeBaseDen;
+    private final long startTime;
+
+    /**
+     * constructor
+     *
+     * pre: all arrays have one entry per frame in presentation order.
+     *
+     * post: sets up the index.
+     */
+
+    FrameIndex(long[] pts, boolean[] keyFrame, byte[] pictureType, long[] position, int[] size, int timeBaseNum,
+            int timeBaseDen, long startTime) {
+        this.pts = pts;
+        this.keyFrame = keyFrame;
+        int count = 0;
+        for (boolean key : keyFrame) {
+            if (key) {
+                count++;
+            }
+        }
+        keyFrames = new int[count];
+        count = 0;
+        for (int i = 0; i < keyFrame.length; i++) {
+            if (keyFrame[i]) {
+                keyFrames[count++] = i;
+            }
+        }
+        this.pictureType = pictureType;
+        this.position = position;
+        this.size = size;
+        this.timeBaseNum = timeBaseNum;
+        this.timeBaseDen = timeBaseDen;
+        this.startTime = startTime;
+    }
+
+    /**
+     * load method returns the index of videoFile. The index saved next to the
+     * video is used when it is still valid for the video, otherwise the index
+     * is built and saved.
+     *
+     * pre: videoFile is a readable video.
+     *
+     * post: returns the frame index of the video.
+     */
+    public static FrameIndex load(String videoFile) throws Exception {
+        File video = new File(videoFile);
+        File indexFile = new File(videoFile + EXTENSION);
+        if (indexFile.isFile() && indexFile.lastModified() >= video.lastModified()) {
+            try {
+                FrameIndex index = read(indexFile, video);
+                if (index != null) {
+                    return index;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        FrameIndex index = build(videoFile);
+        try {
+            index.write(indexFile, video);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return index;
+    }
+
+    /**
+     * build method reads every packet of the first video stream without
+     * decoding it and records its timestamp, keyframe flag, picture type,
+     * offset and size. The packets come in decoding order, so they are sorted
+     * by timestamp to get the frame numbers.
+     *
+     * pre: videoFile is a readable video.
+     *
+     * post: returns the frame index of the video.
+     */
+    public static FrameIndex build(String videoFile) throws Exception {
+        try (FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoFile)) {
+            frameGrabber.start();
+            AVFormatContext formatContext = frameGrabber.getFormatContext();
+            int videoStream = videoStreamOf(formatContext);
+            AVRational timeBase = formatContext.streams(videoStream).time_base();
+            long startTime = formatContext.start_time() == avutil.AV_NOPTS_VALUE ? 0 : formatContext.start_time();
+            AVCodecParameters codecParameters = formatContext.streams(videoStream).codecpar();
+            AVCodecParserContext parser = avcodec.av_parser_init(codecParameters.codec_id());
+            AVCodecContext codecContext = null;
+            if (parser != null) {
+                // the parser reads the sequence headers of codecs like H.264
+                // from the extradata of the context
+                codecContext = avcodec.avcodec_alloc_context3(null);
+                avcodec.avcodec_parameters_to_context(codecContext, codecParameters);
+                parser.flags(parser.flags() | AVCodecParserContext.PARSER_FLAG_COMPLETE_FRAMES);
+            }
+            PointerPointer<BytePointer> parsed = new PointerPointer<>(1);
+            IntPointer parsedSize = new IntPointer(1);
+
+            int count = 0;
+            long[][] packets = new long[1024][];
+            long lastPts = avutil.AV_NOPTS_VALUE;
+            try {
+                AVPacket packet = frameGrabber.grabPacket();
+                while (packet != null) {
+                    if (packet.stream_index() == videoStream) {
+                        long packetPts = packet.pts();
+                        if (packetPts == avutil.AV_NOPTS_VALUE) {
+                            // MPEG program streams leave out the pts of many packets, and
+                            // their dts is the pts of the frame before, so the frame has to
+                            // come after the last one
+                            long nextPts = lastPts == avutil.AV_NOPTS_VALUE ? 0
+                                    : lastPts + Math.max(packet.duration(), 1);
+                            packetPts = packet.dts() == avutil.AV_NOPTS_VALUE ? nextPts
+                                    : Math.max(packet.dts(), nextPts);
+                        }
+                        lastPts = packetPts;
+                        if (count == packets.length) {
+                            packets = Arrays.copyOf(packets, count * 2);
+                        }
+                        int type = avutil.AV_PICTURE_TYPE_NONE;
+                        if (parser != null) {
+                            avcodec.av_parser_parse2(parser, codecContext, parsed, parsedSize, packet.data(),
+                                    packet.size(), packet.pts(), packet.dts(), packet.pos());
+                            type = parser.pict_type();
+                        }
+                        packets[count++] = new long[] { packetPts, packet.flags() & avcodec.AV_PKT_FLAG_KEY,
+                                packet.pos(), packet.size(), type };
+                    }
+                    avcodec.av_packet_unref(packet);
+                    packet = frameGrabber.grabPacket();
+                }
+            } finally {
+                if (parser != null) {
+                    avcodec.av_parser_close(parser);
+                    avcodec.avcodec_free_context(codecContext);
+                }
+            }
+
+            packets = Arrays.copyOf(packets, count);
+            Arrays.sort(packets, (a, b) -> Long.compare(a[0], b[0]));
+            long[] pts = new long[count];
+            boolean[] keyFrame = new boolean[count];
+            byte[] pictureType = new byte[count];
+            long[] position = new long[count];
+            int[] size = new int[count];
+            for (int i = 0; i < count; i++) {
+                pts[i] = packets[i][0];
+                keyFrame[i] = packets[i][1] != 0;
+                position[i] = packets[i][2];
+                size[i] = (int) packets[i][3];
+                pictureType[i] = (byte) packets[i][4];
+            }
+            return new FrameIndex(pts, keyFrame, pictureType, position, size, timeBase.num(), timeBase.den(),
+                    startTime);
+        }
+    }
+
+    /**
+     * frameCount method returns the number of frames in the index.
+     *
+     * pre: none
+     *
+     * post: returns the frame count.
+     */
+    public int frameCount() {
+        return pts.length;
+    }
+
+    /**
+     * ptsOf method returns the presentation timestamp of a frame in the time
+     * base of the video stream, as found in its packet.
+     *
+     * pre: frame is between 0 and frameCount - 1.
+     *
+     * post: returns the pts of the frame.
+     */
+    public long ptsOf(int frame) {
+        return pts[frame];
+    }
+
+    /**
+     * isKeyFrame method tells if the packet of a frame is a keyframe.
+     *
+     * pre: frame is between 0 and frameCount - 1.
+     *
+     * post: returns true for keyframes.
+     */
+    public boolean isKeyFrame(int frame) {
+        return keyFrame[frame];
+    }
+
+    /**
+     * pictureTypeOf method returns the picture type of a frame as found by the
+     * parser of the codec, avutil.AV_PICTURE_TYPE_I, _P, _B and so on.
+     *
+     * pre: frame is between 0 and frameCount - 1.
+     *
+     * post: returns the picture type, avutil.AV_PICTURE_TYPE_NONE if the codec
+     * has no parser or the parser does not report it.
+     */
+    public int pictureTypeOf(int frame) {
+        return pictureType[frame];
+    }
+
+    /**
+     * positionOf method returns the byte offset of the packet of a frame in the
+     * video file, or -1 if the container does not report it.
+     *
+     * pre: frame is between 0 and frameCount - 1.
+     *
+     * post: returns the packet offset.
+     */
+    public long positionOf(int frame) {
+        return position[frame];
+    }
+
+    /**
+     * sizeOf method returns the size in bytes of the packet of a frame.
+     *
+     * pre: frame is between 0 and frameCount - 1.
+     *
+     * post: returns the packet size.
+     */
+    public int sizeOf(int frame) {
+        return size[frame];
+    }
+
+    /**
+     * timestampOf method returns the timestamp of a frame in microseconds from
+     * the start of the video, as expected by FFmpegFrameGrabber.setTimestamp.
+     * Frames past the end map to the end of the last frame.
+     *
+     * pre: frame is not negative.
+     *
+     * post: returns the timestamp of the frame.
+     */
+    public long timestampOf(int frame) {
+        if (pts.length == 0) {
+            return 0;
+        }
+        long framePts = frame < pts.length ? pts[frame]
+                : pts[pts.length - 1] + (long) (frame - pts.length + 1) * averageDuration();
+        return framePts * 1000000L * timeBaseNum / timeBaseDen - startTime;
+    }
+
+    /**
+     * secondsOf method returns the time of a frame in seconds from the start of
+     * the video. Unlike frame / frameRate it follows the real timestamps, so it
+     * does not drift on 29.97 fps or variable frame rate videos.
+     *
+     * pre: frame is not negative.
+     *
+     * post: returns the time of the frame in seconds.
+     */
+    public double secondsOf(int frame) {
+        return timestampOf(frame) / 1000000.0;
+    }
+
+    /**
+     * keyFrameAtOrBefore method returns the closest keyframe at or before a
+     * frame, which is where decoding has to start to reach the frame. It is a
+     * binary search over the keyframes, so its time does not grow with the
+     * length of the GOPs.
+     *
+     * pre: frame is not negative.
+     *
+     * post: returns the frame number of the keyframe, 0 if there is none.
+     */
+    public int keyFrameAtOrBefore(int frame) {
+        int i = Arrays.binarySearch(keyFrames, Math.min(frame, pts.length - 1));
+        if (i < 0) {
+            // the keyframe before the insertion point
+            i = -i - 2;
+        }
+        return i < 0 ? 0 : keyFrames[i];
+    }
+
+    /**
+     * seek method positions a started frameGrabber so that its next grabImage
+     * call returns the given frame. It seeks to the keyframe at or before the
+     * frame and decodes forward from there.
+     *
+     * pre: frameGrabber is started on the video of this index.
+     *
+     * post: the next grabImage call returns frame number "frame".
+     */
+    public void seek(FFmpegFrameGrabber frameGrabber, int frame) throws Exception {
+        int keyFrame = keyFrameAtOrBefore(frame);
+        frameGrabber.setVideoTimestamp(timestampOf(keyFrame));
+        for (int i = keyFrame; i < frame; i++) {
+            if (frameGrabber.grabImage() == null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * averageDuration method returns the average frame duration in the time
+     * base of the video stream.
+     *
+     * pre: the index has at least one frame.
+     *
+     * post: returns the average frame duration, at least 1.
+     */
+    private long averageDuration() {
+        if (pts.length < 2) {
+            return 1;
+        }
+        return Math.max(1, (pts[pts.length - 1] - pts[0]) / (pts.length - 1));
+    }
+
+    /**
+     * write method saves the index together with the length and modification
+     * time of the video it belongs to. It is written to a temporary file that
+     * then replaces indexFile in one step, so a reader never sees a partly
+     * written index.
+     *
+     * pre: none
+     *
+     * post: the index is written to indexFile.
+     */
+    private void write(File indexFile, File video) throws IOException {
+        File directory = indexFile.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(indexFile.getName(), ".tmp", directory);
+        try {
+            writeTo(temporary, video);
+            Files.move(temporary.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private void writeTo(File indexFile, File video) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(video.length());
+            out.writeLong(video.lastModified());
+            out.writeInt(timeBaseNum);
+            out.writeInt(timeBaseDen);
+            out.writeLong(startTime);
+            out.writeInt(pts.length);
+            for (int i = 0; i < pts.length; i++) {
+                out.writeLong(pts[i]);
+                out.writeBoolean(keyFrame[i]);
+                out.writeByte(pictureType[i]);
+                out.writeLong(position[i]);
+                out.writeInt(size[i]);
+            }
+        }
+    }
+
+    /**
+     * read method loads an index saved by write.
+     *
+     * pre: none
+     *
+     * post: returns the index, or null if it was saved for a different version
+     * of the video.
+     */
+    private static FrameIndex read(File indexFile, File video) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != video.length()
+                    || in.readLong() != video.lastModified()) {
+                return null;
+            }
+            int timeBaseNum = in.readInt();
+            int timeBaseDen = in.readInt();
+            long startTime = in.readLong();
+            int count = in.readInt();
+            long[] pts = new long[count];
+            boolean[] keyFrame = new boolean[count];
+            byte[] pictureType = new byte[count];
+            long[] position = new long[count];
+            int[] size = new int[count];
+            for (int i = 0; i < count; i++) {
+                pts[i] = in.readLong();
+                keyFrame[i] = in.readBoolean();
+                pictureType[i] = in.readByte();
+                position[i] = in.readLong();
+                size[i] = in.readInt();
+            }
+            return new FrameIndex(pts, keyFrame, pictureType, position, size, timeBaseNum, timeBaseDen, startTime);
+        }
+    }
+
+    /**
+     * videoStreamOf method returns the index of the first video stream, which
+     * is the stream FFmpegFrameGrabber decodes by default.
+     *
+     * pre: formatContext is opened.
+     *
+     * post: returns the stream index, -1 if there is no video stream.
+     */
+    static int videoStreamOf(AVFormatContext formatContext) {
+        for (int i = 0; i < formatContext.nb_streams(); i++) {
+            AVStream stream = formatContext.streams(i);
+            if (stream.codecpar().codec_type() == avutil.AVMEDIA_TYPE_VIDEO) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
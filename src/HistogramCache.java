@@ -0,0 +1,291 @@
+/*
+ * The HistogramCache keeps the intensity histograms and frame distances of
+ * a video in a memory mapped file, so later runs over the same frames do
+ * not have to decode the video again.
+ *
+ * The cache file is named after a fingerprint of the video content and the
+ * histogram parameters, and holds one fixed size record per frame number.
+ * Records are filled in as frame ranges are analysed.
+ *
+ * @author Divya Kamath
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class HistogramCache implements AutoCloseable {
+    private static final int MAGIC = 0x48495354; // "HIST"
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 4;
+    // Amount of the video read from each end for the fingerprint
+    private static final int FINGERPRINT_BYTES = 1 << 20;
+    // Distance value of a frame whose next frame is not cached yet
+    private static final int NO_DISTANCE = -1;
+
+    // Every record holds a present flag, the histogram row and the distance
+    // to the next frame
+    private static final int RECORD_INTS = IntensityHistogram.COLUMNS + 2;
+    private static final int HISTOGRAM = 1;
+    private static final int DISTANCE = RECORD_INTS - 1;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private IntBuffer records;
+    private int capacity;
+
+    /**
+     * constructor
+     *
+     * pre: cacheFile can be created or opened for writing.
+     *
+     * post: opens the cache file and maps it for frameCount frames. A file
+     * of another version, or whose length does not match the frame count in
+     * its header, is emptied first.
+     */
+
+    HistogramCache(File cacheFile, int frameCount) throws IOException {
+        file = new RandomAccessFile(cacheFile, "rw");
+        channel = file.getChannel();
+        if (file.length() >= HEADER_INTS * 4) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_INTS * 4);
+            channel.read(header, 0);
+            header.flip();
+            // a file cut short, or grown past the records it was mapped for,
+            // was not closed cleanly and its records cannot be trusted
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != IntensityHistogram.COLUMNS
+                    || file.length() != HEADER_INTS * 4 + header.getInt() * (long) RECORD_INTS * 4) {
+                file.setLength(0);
+            }
+        }
+        map(Math.max(frameCount, 1));
+    }
+
+    /**
+     * open method opens the cache of videoFile for the given histogram
+     * parameters in cacheDirectory.
+     *
+     * pre: videoFile is readable and parameters describes every setting that
+     * changes the histogram values.
+     *
+     * post: returns the cache, mapped for at least frameCount frames.
+     */
+    public static HistogramCache open(File cacheDirectory, String videoFile, String parameters, int frameCount)
+            throws IOException {
+        cacheDirectory.mkdirs();
+        String name = fingerprint(videoFile) + "-" + parameters + ".hist";
+        return new HistogramCache(new File(cacheDirectory, name), frameCount);
+    }
+
+    /**
+     * fingerprint method identifies the content of a video by hashing its
+     * length together with its first and last megabyte, so renamed or copied
+     * videos keep their cache while edited ones do not.
+     *
+     * pre: videoFile is readable.
+     *
+     * post: returns the fingerprint as a hex string.
+     */
+    public static String fingerprint(String videoFile) throws IOException {
+        try (RandomAccessFile video = new RandomAccessFile(videoFile, "r")) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long length = video.length();
+            digest.update(Long.toString(length).getBytes(StandardCharsets.US_ASCII));
+            byte[] block = new byte[(int) Math.min(FINGERPRINT_BYTES, length)];
+            video.readFully(block);
+            digest.update(block);
+            video.seek(length - block.length);
+            video.readFully(block);
+            digest.update(block);
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * hasFrame method tells if the histogram of a frame is cached.
+     *
+     * pre: frame is not negative.
+     *
+     * post: returns true if the frame is cached.
+     */
+    public synchronized boolean hasFrame(int frame) {
+        return frame < capacity && records.get(frame * RECORD_INTS) != 0;
+    }
+
+    /**
+     * firstMissing method finds the first frame from "from" to "to" (exclusive)
+     * that is not cached.
+     *
+     * pre: from is not negative.
+     *
+     * post: returns the frame number, or "to" if all frames are cached.
+     */
+    public synchronized int firstMissing(int from, int to) {
+        for (int frame = from; frame < to; frame++) {
+            if (!hasFrame(frame)) {
+                return frame;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * lastMissing method finds the last frame from "from" to "to" (exclusive)
+     * that is not cached.
+     *
+     * pre: from is not negative.
+     *
+     * post: returns the frame number, or from - 1 if all frames are cached.
+     */
+    public synchronized int lastMissing(int from, int to) {
+        for (int frame = to - 1; frame >= from; frame--) {
+            if (!hasFrame(frame)) {
+                return frame;
+            }
+        }
+        return from - 1;
+    }
+
+    /**
+     * readRows method copies the cached histograms of the frames from "from" to
+     * "to" (exclusive) into the store, starting at frame firstRow of the store.
+     *
+     * pre: every frame in the range is cached.
+     *
+     * post: the store holds the cached histograms.
+     */
+    public synchronized void readRows(int from, int to, FeatureStore features, int firstRow) {
+        int[] row = new int[IntensityHistogram.COLUMNS];
+        for (int frame = from; frame < to; frame++) {
+            records.position(frame * RECORD_INTS + HISTOGRAM);
+            records.get(row, 0, IntensityHistogram.COLUMNS);
+            features.setRow(firstRow + frame - from, row);
+        }
+    }
+
+    /**
+     * writeRows method caches the histograms held in the store for the frames
+     * from "from" to "to" (exclusive), starting at frame firstRow of the store.
+     *
+     * pre: the histograms of the store are populated.
+     *
+     * post: the frames are marked as cached.
+     */
+    public synchronized void writeRows(int from, int to, FeatureStore features, int firstRow) throws IOException {
+        ensureCapacity(to);
+        int[] row = new int[IntensityHistogram.COLUMNS];
+        for (int frame = from; frame < to; frame++) {
+            int record = frame * RECORD_INTS;
+            features.getRow(firstRow + frame - from, row);
+            records.position(record + HISTOGRAM);
+            records.put(row, 0, IntensityHistogram.COLUMNS);
+            if (records.get(record) == 0) {
+                records.put(record + DISTANCE, NO_DISTANCE);
+                records.put(record, 1);
+            }
+        }
+    }
+
+    /**
+     * readDistances method copies the cached distances between each frame from
+     * "from" to "to" (exclusive) and its next frame into the distances of the
+     * store.
+     *
+     * pre: the store has to - from distances.
+     *
+     * post: returns true if every distance was cached, otherwise the
+     * distances of the store are incomplete.
+     */
+    public synchronized boolean readDistances(int from, int to, FeatureStore features) {
+        if (to > capacity) {
+            return false;
+        }
+        for (int frame = from; frame < to; frame++) {
+            int record = frame * RECORD_INTS;
+            if (records.get(record) == 0 || records.get(record + DISTANCE) == NO_DISTANCE) {
+                return false;
+            }
+            features.setDistance(frame - from, records.get(record + DISTANCE));
+        }
+        return true;
+    }
+
+    /**
+     * writeDistances method caches the first count distances of the store as
+     * the distances between frame from + i and its next frame.
+     *
+     * pre: the histograms of the frames are cached.
+     *
+     * post: the distances are cached.
+     */
+    public synchronized void writeDistances(int from, FeatureStore features, int count) {
+        for (int i = 0; i < count; i++) {
+            records.put((from + i) * RECORD_INTS + DISTANCE, features.distance(i));
+        }
+    }
+
+    /**
+     * close method flushes the cached records to disk and closes the file.
+     *
+     * pre: none
+     *
+     * post: the cache is closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        mapped.force();
+        channel.close();
+        file.close();
+    }
+
+    /**
+     * ensureCapacity method grows the mapping when frames past its end are
+     * written.
+     *
+     * pre: none
+     *
+     * post: the mapping holds at least frameCount frames.
+     */
+    private void ensureCapacity(int frameCount) throws IOException {
+        if (frameCount > capacity) {
+            map(Math.max(frameCount, capacity * 2));
+        }
+    }
+
+    /**
+     * map method maps the header and frameCount records of the cache file,
+     * growing the file if it is smaller. New records read as not cached.
+     *
+     * pre: the file is open.
+     *
+     * post: records covers the mapped frames.
+     */
+    private void map(int frameCount) throws IOException {
+        long recordBytes = (long) RECORD_INTS * 4;
+        long existing = Math.max(0, (file.length() - HEADER_INTS * 4) / recordBytes);
+        capacity = (int) Math.max(frameCount, existing);
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_INTS * 4 + capacity * recordBytes);
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, VERSION);
+        mapped.putInt(8, IntensityHistogram.COLUMNS);
+        mapped.putInt(12, capacity);
+        records = mapped.position(HEADER_INTS * 4).slice().asIntBuffer();
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * The IntensityHistogram class holds the histogram kernels used to bin
+ * the intensity of every pixel of a frame.
+ *
+ * The kernels read the backing DataBuffer of an image, or the native image
+ * buffer of a grabbed Frame, directly instead of going through
+ * Raster.getPixel, and look the weighted channel values up in precomputed
+ * tables. Nothing is allocated per pixel.
+ *
+ * The bins are those of the original per pixel implementation, including for
+ * gray BufferedImages, whose missing green and blue bands it read as 0, so a
+ * gray level g falls in the bin of 0.299g. Only one channel frames grabbed
+ * in gray, which the original never produced, are binned by their luma.
+ *
+ * When SimdSupport.ENABLED is true the colour kernels hand whole rows to the
+ * SimdKernels, which bin several pixels at a time into the same histogram.
+ *
+ * @author Divya Kamath
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.bytedeco.javacv.Frame;
+
+public class IntensityHistogram {
+    // Number of columns in a histogram row. Column 0 is unused, columns 1 to 25
+    // hold the intensity bins.
+    public static final int COLUMNS = 26;
+
+    // 0.299R, 0.587G and 0.114B for every 8 bit channel value. Adding the three
+    // table values in this order gives exactly the same double as the formula
+    // in the original per pixel implementation.
+    private static final double[] RED = new double[256];
+    private static final double[] GREEN = new double[256];
+    private static final double[] BLUE = new double[256];
+
+    // Histogram column of every 8 bit intensity value
+    private static final int[] BIN = new int[256];
+    // Histogram column of every 8 bit sample of a single band image
+    private static final int[] GRAY_BIN = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            RED[i] = 0.299 * i;
+            GREEN[i] = 0.587 * i;
+            BLUE[i] = 0.114 * i;
+            BIN[i] = binOf(i);
+        }
+        for (int i = 0; i < 256; i++) {
+            GRAY_BIN[i] = BIN[(int) RED[i]];
+        }
+    }
+
+    /**
+     * histogram method fills bins with the intensity histogram of image.
+     * Interleaved byte rasters (TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY
+     * and custom byte layouts) and packed int rasters (TYPE_INT_RGB,
+     * TYPE_INT_ARGB, TYPE_INT_BGR) are read straight from their DataBuffer. Any
+     * other image falls back to reading one row of samples at a time.
+     *
+     * Bands 0, 1 and 2 of the raster are weighted as R, G and B. An image with
+     * fewer bands is weighted the same way with the missing bands as 0, as
+     * the original per pixel implementation read it, so a TYPE_BYTE_GRAY
+     * image is binned by 0.299 times its gray value. Grabbed gray frames are
+     * binned by their luma instead, see histogram(Frame, int[]).
+     *
+     * pre: bins has at least COLUMNS entries.
+     *
+     * post: bins[0] is 0 and bins[1] to bins[25] hold the pixel count of each
+     * intensity bin.
+     */
+    public static void histogram(BufferedImage image, int[] bins) {
+        Arrays.fill(bins, 0, COLUMNS, 0);
+        WritableRaster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (dataBuffer instanceof DataBufferByte && dataBuffer.getNumBanks() == 1
+                && sampleModel instanceof ComponentSampleModel) {
+            byteHistogram(raster, (ComponentSampleModel) sampleModel, ((DataBufferByte) dataBuffer).getData(),
+                    dataBuffer.getOffset(), bins);
+        } else if (dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel
+                && isEightBit((SinglePixelPackedSampleModel) sampleModel)) {
+            packedHistogram(raster, (SinglePixelPackedSampleModel) sampleModel,
+                    ((DataBufferInt) dataBuffer).getData(), dataBuffer.getOffset(), bins);
+        } else {
+            rasterHistogram(raster, bins);
+        }
+    }
+
+    /**
+     * histogram method fills bins with the intensity histogram of a grabbed
+     * frame, reading Frame.image[0] in place so no BufferedImage is needed.
+     * Three and four channel frames are read in the BGR order that
+     * FFmpegFrameGrabber produces, one channel frames (AV_PIX_FMT_GRAY8) are
+     * binned by their luma value.
+     *
+     * pre: frame holds an 8 bit image and bins has at least COLUMNS entries.
+     *
+     * post: bins[0] is 0 and bins[1] to bins[25] hold the pixel count of each
+     * intensity bin.
+     */
+    public static void histogram(Frame frame, int[] bins) {
+        histogram(frame, 1, bins);
+    }
+
+    /**
+     * histogram method fills bins with the intensity histogram of the pixels of
+     * a grabbed frame that lie on a grid of the given step, so only every
+     * step-th pixel of every step-th row is read.
+     *
+     * pre: frame holds an 8 bit image, step is at least 1 and bins has at
+     * least COLUMNS entries.
+     *
+     * post: bins[0] is 0 and bins[1] to bins[25] hold the pixel count of each
+     * intensity bin of the sampled pixels.
+     */
+    public static void histogram(Frame frame, int step, int[] bins) {
+        if (frame.imageDepth != Frame.DEPTH_UBYTE && frame.imageDepth != Frame.DEPTH_BYTE) {
+            throw new IllegalArgumentException("Unsupported image depth " + frame.imageDepth);
+        }
+        histogram((ByteBuffer) frame.image[0], frame.imageWidth, frame.imageHeight, frame.imageChannels,
+                frame.imageStride, step, bins);
+    }
+
+    /**
+     * histogram method fills bins with the intensity histogram of an
+     * interleaved 8 bit image held in data, starting at index 0.
+     *
+     * pre: stride is the row length in bytes and channels is 1 (luma) or at
+     * least 3 (B, G, R first).
+     *
+     * post: bins[0] is 0 and bins[1] to bins[25] hold the pixel count of each
+     * intensity bin.
+     */
+    public static void histogram(ByteBuffer data, int width, int height, int channels, int stride, int[] bins) {
+        histogram(data, width, height, channels, stride, 1, bins);
+    }
+
+    /**
+     * histogram method fills bins with the intensity histogram of the pixels of
+     * an interleaved 8 bit image that lie on a grid of the given step.
+     *
+     * pre: stride is the row length in bytes, channels is 1 (luma) or at least
+     * 3 (B, G, R first) and step is at least 1.
+     *
+     * post: bins[0] is 0 and bins[1] to bins[25] hold the pixel count of each
+     * intensity bin of the sampled pixels.
+     */
+    public static void histogram(ByteBuffer data, int width, int height, int channels, int stride, int step,
+            int[] bins) {
+        Arrays.fill(bins, 0, COLUMNS, 0);
+        int pixelStride = channels * step;
+        if (channels < 3) {
+            for (int y = 0; y < height; y += step) {
+                int p = y * stride;
+                for (int x = 0; x < width; x += step) {
+                    bins[BIN[data.get(p) & 0xff]]++;
+                    p += pixelStride;
+                }
+            }
+            return;
+        }
+        if (SimdSupport.ENABLED) {
+            SimdKernels.byteHistogram(data, 0, (width + step - 1) / step, (height + step - 1) / step, stride * step,
+                    pixelStride, 2, 1, 0, bins);
+            return;
+        }
+        for (int y = 0; y < height; y += step) {
+            int p = y * stride;
+            for (int x = 0; x < width; x += step) {
+                int intensity = (int) (RED[data.get(p + 2) & 0xff] + GREEN[data.get(p + 1) & 0xff]
+                        + BLUE[data.get(p) & 0xff]);
+                bins[BIN[intensity]]++;
+                p += pixelStride;
+            }
+        }
+    }
+
+    /**
+     * normalise method scales the bins of a histogram so they add up to
+     * totalPixels, rounding every bin to the nearest count.
+     *
+     * pre: bins holds a histogram with at least one pixel counted.
+     *
+     * post: bins[1] to bins[25] are scaled to totalPixels.
+     */
+    public static void normalise(int[] bins, long totalPixels) {
+        long sampledPixels = 0;
+        for (int i = 1; i < COLUMNS; i++) {
+            sampledPixels += bins[i];
+        }
+        if (sampledPixels == 0 || sampledPixels == totalPixels) {
+            return;
+        }
+        for (int i = 1; i < COLUMNS; i++) {
+            bins[i] = (int) ((bins[i] * totalPixels + sampledPixels / 2) / sampledPixels);
+        }
+    }
+
+    /**
+     * byteHistogram method bins an interleaved byte raster.
+     *
+     * pre: the raster stores all of its bands in the single bank data.
+     *
+     * post: bins is populated with the intensity values of the raster.
+     */
+    private static void byteHistogram(WritableRaster raster, ComponentSampleModel sampleModel, byte[] data,
+            int offset, int[] bins) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int pixelStride = sampleModel.getPixelStride();
+        int scanlineStride = sampleModel.getScanlineStride();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int first = offset + (raster.getMinY() - raster.getSampleModelTranslateY()) * scanlineStride
+                + (raster.getMinX() - raster.getSampleModelTranslateX()) * pixelStride;
+
+        if (bandOffsets.length == 1) {
+            int gray = bandOffsets[0];
+            for (int y = 0; y < height; y++) {
+                int p = first + y * scanlineStride + gray;
+                for (int x = 0; x < width; x++) {
+                    bins[GRAY_BIN[data[p] & 0xff]]++;
+                    p += pixelStride;
+                }
+            }
+            return;
+        }
+        if (bandOffsets.length == 2) {
+            int gray = bandOffsets[0];
+            int second = bandOffsets[1];
+            for (int y = 0; y < height; y++) {
+                int p = first + y * scanlineStride;
+                for (int x = 0; x < width; x++) {
+                    bins[BIN[(int) (RED[data[p + gray] & 0xff] + GREEN[data[p + second] & 0xff])]]++;
+                    p += pixelStride;
+                }
+            }
+            return;
+        }
+
+        int red = bandOffsets[0];
+        int green = bandOffsets[1];
+        int blue = bandOffsets[2];
+        if (SimdSupport.ENABLED) {
+            SimdKernels.byteHistogram(ByteBuffer.wrap(data), first, width, height, scanlineStride, pixelStride, red,
+                    green, blue, bins);
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            int p = first + y * scanlineStride;
+            for (int x = 0; x < width; x++) {
+                int intensity = (int) (RED[data[p + red] & 0xff] + GREEN[data[p + green] & 0xff]
+                        + BLUE[data[p + blue] & 0xff]);
+                bins[BIN[intensity]]++;
+                p += pixelStride;
+            }
+        }
+    }
+
+    /**
+     * packedHistogram method bins a raster that packs each pixel in one int.
+     *
+     * pre: every band of the sample model is at most 8 bits wide.
+     *
+     * post: bins is populated with the intensity values of the raster.
+     */
+    private static void packedHistogram(WritableRaster raster, SinglePixelPackedSampleModel sampleModel,
+            int[] data, int offset, int[] bins) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int scanlineStride = sampleModel.getScanlineStride();
+        int[] masks = sampleModel.getBitMasks();
+        int[] shifts = sampleModel.getBitOffsets();
+        int first = offset + (raster.getMinY() - raster.getSampleModelTranslateY()) * scanlineStride
+                + (raster.getMinX() - raster.getSampleModelTranslateX());
+
+        if (masks.length < 3) {
+            int grayMask = masks[0];
+            int grayShift = shifts[0];
+            int secondMask = masks.length == 2 ? masks[1] : 0;
+            int secondShift = masks.length == 2 ? shifts[1] : 0;
+            for (int y = 0; y < height; y++) {
+                int p = first + y * scanlineStride;
+                for (int x = 0; x < width; x++) {
+                    int pixel = data[p + x];
+                    bins[BIN[(int) (RED[(pixel & grayMask) >>> grayShift]
+                            + GREEN[(pixel & secondMask) >>> secondShift])]]++;
+                }
+            }
+            return;
+        }
+
+        int redMask = masks[0];
+        int greenMask = masks[1];
+        int blueMask = masks[2];
+        int redShift = shifts[0];
+        int greenShift = shifts[1];
+        int blueShift = shifts[2];
+        if (SimdSupport.ENABLED) {
+            SimdKernels.packedHistogram(data, first, width, height, scanlineStride, redMask, redShift, greenMask,
+                    greenShift, blueMask, blueShift, bins);
+            return;
+        }
+        for (int y = 0; y < height; y++) {
+            int p = first + y * scanlineStride;
+            for (int x = 0; x < width; x++) {
+                int pixel = data[p + x];
+                int intensity = (int) (RED[(pixel & redMask) >>> redShift]
+                        + GREEN[(pixel & greenMask) >>> greenShift]
+                        + BLUE[(pixel & blueMask) >>> blueShift]);
+                bins[BIN[intensity]]++;
+            }
+        }
+    }
+
+    /**
+     * rasterHistogram method bins any other raster, such as 16 bit images, by
+     * reading one row of samples at a time into a reused buffer.
+     *
+     * pre: none
+     *
+     * post: bins is populated with the intensity values of the raster.
+     */
+    private static void rasterHistogram(WritableRaster raster, int[] bins) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int bands = raster.getNumBands();
+        int minX = raster.getMinX();
+        int minY = raster.getMinY();
+        int[] row = new int[width * bands];
+        for (int y = 0; y < height; y++) {
+            raster.getPixels(minX, minY + y, width, 1, row);
+            if (bands < 3) {
+                for (int p = 0; p < row.length; p += bands) {
+                    double intensity = (0.299 * row[p]) + (bands == 2 ? 0.587 * row[p + 1] : 0);
+                    bins[binOf((int) intensity)]++;
+                }
+            } else {
+                for (int p = 0; p < row.length; p += bands) {
+                    double intensity = (0.299 * row[p]) + (0.587 * row[p + 1]) + (0.114 * row[p + 2]);
+                    bins[binOf((int) intensity)]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * binOf method maps an intensity value to its histogram column. Every 10
+     * intensity levels share a bin and everything from 240 upwards goes to the
+     * last bin.
+     *
+     * pre: intensity is not negative.
+     *
+     * post: returns the column between 1 and 25.
+     */
+    static int binOf(int intensity) {
+        int bin = intensity / 10;
+        return bin >= 24 ? 25 : bin + 1;
+    }
+
+    /**
+     * isEightBit method checks that every band of a packed sample model fits in
+     * the 8 bit lookup tables.
+     *
+     * pre: none
+     *
+     * post: returns true if no band is wider than 8 bits.
+     */
+    private static boolean isEightBit(SinglePixelPackedSampleModel sampleModel) {
+        for (int size : sampleModel.getSampleSize()) {
+            if (size > 8) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The JfrProgressListener turns the metrics of a ProgressListener into Java
+ * Flight Recorder events, so the stages of a run can be profiled with
+ *
+ *     java -XX:StartFlightRecording=filename=run.jfr ...
+ *     jfr print --categories "Video Shot Detection" run.jfr
+ *
+ * The events cost next to nothing while no recording is running.
+ *
+ * @author Divya Kamath
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+public class JfrProgressListener implements ProgressListener {
+    private static final String CATEGORY = "Video Shot Detection";
+
+    @Name("videoshot.FramesDecoded")
+    @Label("Frames Decoded")
+    @Category(CATEGORY)
+    @Description("Frames read and histogrammed by ReadFrames")
+    @StackTrace(false)
+    static class FramesDecodedEvent extends Event {
+        @Label("Frames")
+        int frames;
+        @Label("Frames per Second")
+        double framesPerSecond;
+        @Label("Decode Time")
+        @Timespan
+        long decodeNanos;
+        @Label("Histogram Time")
+        @Timespan
+        long histogramNanos;
+        @Label("Histogram Time per Frame")
+        @Timespan
+        long histogramNanosPerFrame;
+        @Label("Elapsed Time")
+        @Timespan
+        long elapsedNanos;
+    }
+
+    @Name("videoshot.ShotsDetected")
+    @Label("Shots Detected")
+    @Category(CATEGORY)
+    @Description("Cuts and gradual transitions found by ReadShots")
+    @StackTrace(false)
+    static class ShotsDetectedEvent extends Event {
+        @Label("Cuts")
+        int cuts;
+        @Label("Gradual Transitions")
+        int gradualTransitions;
+        @Label("Detection Time")
+        @Timespan
+        long detectionNanos;
+    }
+
+    @Name("videoshot.ClipExported")
+    @Label("Clip Exported")
+    @Category(CATEGORY)
+    @Description("Shot clip written by ClipExporter")
+    @StackTrace(false)
+    static class ClipExportedEvent extends Event {
+        @Label("Frames")
+        int frames;
+        @Label("Export Time")
+        @Timespan
+        long exportNanos;
+    }
+
+    @Name("videoshot.ThumbnailLoaded")
+    @Label("Thumbnail Loaded")
+    @Category(CATEGORY)
+    @Description("First frame of a shot loaded by ShotThumbnails")
+    @StackTrace(false)
+    static class ThumbnailLoadedEvent extends Event {
+        @Label("From Thumbnail Store")
+        boolean stored;
+        @Label("Load Time")
+        @Timespan
+        long loadNanos;
+    }
+
+    @Name("videoshot.QueueDepth")
+    @Label("Queue Depth")
+    @Category(CATEGORY)
+    @Description("Work items waiting in the queue of a stage")
+    @StackTrace(false)
+    static class QueueDepthEvent extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Depth")
+        int depth;
+    }
+
+    public void framesDecoded(int frames, long decodeNanos, long histogramNanos, long elapsedNanos) {
+        FramesDecodedEvent event = new FramesDecodedEvent();
+        if (event.isEnabled()) {
+            event.frames = frames;
+            event.framesPerSecond = elapsedNanos == 0 ? 0 : frames * 1e9 / elapsedNanos;
+            event.decodeNanos = decodeNanos;
+            event.histogramNanos = histogramNanos;
+            event.histogramNanosPerFrame = frames == 0 ? 0 : histogramNanos / frames;
+            event.elapsedNanos = elapsedNanos;
+            event.commit();
+        }
+    }
+
+    public void shotsDetected(int cuts, int gradualTransitions, long detectionNanos) {
+        ShotsDetectedEvent event = new ShotsDetectedEvent();
+        if (event.isEnabled()) {
+            event.cuts = cuts;
+            event.gradualTransitions = gradualTransitions;
+            event.detectionNanos = detectionNanos;
+            event.commit();
+        }
+    }
+
+    public void clipExported(int frames, long exportNanos) {
+        ClipExportedEvent event = new ClipExportedEvent();
+        if (event.isEnabled()) {
+            event.frames = frames;
+            event.exportNanos = exportNanos;
+            event.commit();
+        }
+    }
+
+    public void thumbnailLoaded(boolean stored, long loadNanos) {
+        ThumbnailLoadedEvent event = new ThumbnailLoadedEvent();
+        if (event.isEnabled()) {
+            event.stored = stored;
+            event.loadNanos = loadNanos;
+            event.commit();
+        }
+    }
+
+    public void queueDepth(String stage, int depth) {
+        QueueDepthEvent event = new QueueDepthEvent();
+        if (event.isEnabled()) {
+            event.stage = stage;
+            event.depth = depth;
+            event.commit();
+        }
+    }
+}
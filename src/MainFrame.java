@@ -4,15 +4,16 @@
  * 
  * It is responsible for the following three things 
  * (a) Set up the GUI with a Frame containing two panels embedded in it.
- * (b) Read the shots and displays the first frame on GUI.
- * (c) Use ffmpeg to cut videos based on the second frame of each shot 
- *     till the first frame of its next shot
+ * (b) Read the shots and displays the first frame on GUI. Only the shots
+ *     in view are drawn and their first frames are loaded when shown.
+ * (c) Use a ShotPlayer to play a shot straight from the video, from its
+ *     first frame till the first frame of its next shot, and a ClipCache
+ *     to export the selected shots to clips in a chosen directory
  * 
  * @author Divya Kamath
  */
 
-import java.awt.image.BufferedImage;
-import java.awt.GridLayout;
+import java.awt.Component;
 import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.Window;
@@ -21,21 +22,31 @@ import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.Java2DFrameConverter;
-import org.bytedeco.javacv.Frame;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import javax.swing.AbstractListModel;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.io.IOException;
-import java.lang.Thread.State;
+import javax.swing.ListSelectionModel;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainFrame extends JFrame implements ActionListener {
 
@@ -46,43 +57,63 @@ public class MainFrame extends JFrame implements ActionListener {
     private JPanel leftPanel;
     private JPanel rightPanel;
     private JLabel selectedImage;
-    private JPanel imageOrder;
+    private JList<Integer> imageOrder;
     private JButton reset;
     private JButton play;
+    private JButton export;
     private ImageIcon defaultImage;
 
     private int selectedOrderID;
-    private int frameRate;
-    private final int startIndex;
-    private final int endIndex;
-    private final String videoFormat;
     private final String imageFormat;
-    private final String videoClipStoragePath;
+    private final String exportText;
     private final String videoFile;
     private final String defaultImageName;
-
-    private final PriorityQueue<int[]> shots;
-    private Map<Integer, JButton> buttonMap;
+    private final FrameIndex frameIndex;
+    private final ThumbnailStore thumbnailStore;
+    private final ThumbnailService thumbnailService;
+    private final ProgressListener progressListener;
+
+    private final ShotIndex shotIndex;
+    private final List<int[]> clipShots;
+    private ShotThumbnails shotThumbnails;
+    private final ShotPlayer shotPlayer;
+    private final ClipCache clipCache;
+    // exports run one after the other, off the event dispatch thread
+    private final ExecutorService exportExecutor;
 
     /**
      * constructor
      * 
-     * pre: videoFile, startIndex and endIndex should be passed as the parameters
+     * pre: videoFile should be passed as the parameter.
+     * frameIndex may be null, then frames are found by decoding from frame 0.
+     * shotIndex holds the Cs Ce and Fs Fe values detected by ReadShots over
+     * the analysed frames.
+     * thumbnailStore holds the frames kept by ReadFrames, it may be null.
+     * clipCache produces the clips of the exported shots.
+     * progressListener is told about the thumbnails, it may be null.
      * 
      * post: Sets up the default GUI and display the first frame of shots
      * 
      */
 
-    MainFrame(String videoFile, int startIndex, int endIndex) {
-        this.startIndex = startIndex;
-        this.endIndex = endIndex;
+    MainFrame(String videoFile, FrameIndex frameIndex, ShotIndex shotIndex, ThumbnailStore thumbnailStore,
+            ClipCache clipCache, ProgressListener progressListener) {
         this.videoFile = videoFile;
-        this.shots = ReadShots.shots;
+        this.frameIndex = frameIndex;
+        this.shotIndex = shotIndex;
+        this.thumbnailStore = thumbnailStore;
+        this.clipCache = clipCache;
+        this.progressListener = progressListener;
         tk = this.getToolkit();
-        videoFormat = ".avi";
         imageFormat = ".jpg";
+        exportText = "EXPORT SHOT(S)";
         defaultImageName = "videoCut.png";
-        videoClipStoragePath = "src/videos/";
+        clipShots = new ArrayList<>();
+        thumbnailService = new ThumbnailService(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        // shots are played from the video itself, with up to two decoders kept
+        // open so a shot starts without opening the video again
+        shotPlayer = new ShotPlayer(videoFile, frameIndex, 2);
+        exportExecutor = Executors.newSingleThreadExecutor();
 
         // HEADING START
         JLabel heading = new JLabel();
@@ -96,7 +127,6 @@ public class MainFrame extends JFrame implements ActionListener {
         leftPanel = new JPanel();
         leftPanel.setBounds(35, 90, 450, 500);
         leftPanel.setBackground(new Color(0x39796b));
-        buttonMap = new HashMap<Integer, JButton>();
         getShots();
         imageOder();
         // LEFT PANEL ENDS
@@ -122,24 +152,37 @@ public class MainFrame extends JFrame implements ActionListener {
         play.setText("PLAY ON NEW WINDOW");
         play.setFocusable(false);
         play.setFont(new Font("Comic Sans", Font.BOLD, 13));
-        play.setBounds(15, 425, 200, 40);
+        play.setBounds(15, 395, 200, 40);
 
         reset = new JButton();
         reset.setText("RESET-CLOSE POP-UPS");
         reset.setFocusable(false);
         reset.setFont(new Font("Comic Sans", Font.BOLD, 13));
-        reset.setBounds(235, 425, 200, 40);
+        reset.setBounds(235, 395, 200, 40);
+
+        export = new JButton();
+        export.setText(exportText);
+        export.setFocusable(false);
+        export.setFont(new Font("Comic Sans", Font.BOLD, 13));
+        export.setBounds(15, 445, 420, 40);
 
         play.addActionListener(new PlayButtonHandler());
         reset.addActionListener(new ResetButtonHandler());
+        export.addActionListener(new ExportButtonHandler());
+        clipCache.setListener((id, clip, done, total) -> SwingUtilities
+                .invokeLater(() -> export.setText("EXPORTED " + done + " OF " + total)));
 
         rightPanel.add(selectedImage);
         rightPanel.add(play);
         rightPanel.add(reset);
+        rightPanel.add(export);
         // RIGHT PANEL ENDS
 
         // MAIN FRAME START
-        this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // the frame is disposed first so CloseHandler can stop the background
+        // threads before the program exits
+        this.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        this.addWindowListener(new CloseHandler());
         this.setSize(1024, 1024);
         this.setResizable(false);
         this.getContentPane().setBackground(new Color(0x263238));
@@ -159,182 +202,141 @@ public class MainFrame extends JFrame implements ActionListener {
     }
 
     /**
-     * getVideos method is responsible to cut videos according to the start and end
-     * Frame number.
-     * getVideos uses ffmpeg command to cut the videos.
-     * 
-     * pre: start and end frame are passed along with count which is used to save
-     * the videoName.
-     * 
-     * post: multiple shot videos are stored in the decided videoClipStoragePath.
-     */
-
-    private void getVideos(int startFrame, int endFrame, int count) {
-        String input = videoFile;
-        // gives the time at which the frame is played in the original video
-        double start = (double) startFrame / frameRate;
-        String startTime = Double.toString(start);
-
-        double end = (double) endFrame / frameRate;
-        String endTime = Double.toString(end);
-
-        String output = videoClipStoragePath + count + videoFormat;
-        String[] cmd = { "ffmpeg", "-y", "-ss", startTime, "-to", endTime, "-i", input, output };
-
-        try {
-            new ProcessBuilder(Arrays.asList(cmd)).start();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-    }
-
-    /**
-     * getShots method is responsible to capture the first frame and the respective
-     * shot of each cut and gradual transition.
-     * 
-     * pre: shot priority queue is initialised and is loaded with Cs Ce Fs and Fe
-     * values
-     * 
-     * post: capture the first frame and the respective shot video of each cut and
+     * getShots method is responsible to find the respective shot of each cut and
      * gradual transition.
-     */
-
-    private void getShots() {
-        try (Java2DFrameConverter converter = new Java2DFrameConverter()) {
-            try (FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoFile)) {
-                frameGrabber.start();
-                frameRate = (int) frameGrabber.getVideoFrameRate();
-
-                int id = 0;
-                int count = 0;
-                boolean isLast = false;
-                BufferedImage buffImageFrame;
-                Frame tempFrame = frameGrabber.grabImage();
-
-                int[] nextShot = shots.poll();
-                int[] currentShot = new int[] { startIndex, nextShot[0] };
-
-                while (tempFrame != null) {
-
-                    if (count == currentShot[0]) {
-                        buffImageFrame = converter.convert(tempFrame);
-                        captureImage(buffImageFrame, currentShot, id);
-                        getVideos(currentShot[0], currentShot[1], id);
-                        id++;
-                        if (isLast) {
-                            break;
-                        }
-                        currentShot[0] = nextShot[0] + 1;
-                        nextShot = shots.poll();
-                        if (nextShot == null) {
-                            currentShot[1] = endIndex;
-                            isLast = true;
-                        } else {
-                            currentShot[1] = nextShot[0];
-                        }
-                    }
-                    tempFrame = frameGrabber.grabImage();
-                    count++;
-                }
-            } catch (org.bytedeco.javacv.FFmpegFrameGrabber.Exception e) {
-                throw e;
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        } catch (org.bytedeco.javacv.FFmpegFrameGrabber.Exception e) {
-            e.printStackTrace();
-        }
-    }
-
-    /**
-     * captureImage method is responsible to capture the first frame of the
-     * respective
-     * cut or gradual transition.
-     * 
-     * pre: buttonMap should be initialised
+     * The first frames are loaded by shotThumbnails when the shots are shown,
+     * from the thumbnailStore filled while the frames were analysed, and only
+     * the frames it did not keep are decoded again.
      * 
-     * post: capture the first frame of respective cut or gradual transition.
+     * pre: shotIndex holds the Cs Ce Fs and Fe values of the analysed frames
      * 
+     * post: clipShots holds the first and the end frame of every shot.
      */
 
-    private void captureImage(BufferedImage image, int[] currentShot, int id) {
-        ImageIcon icon = new ImageIcon(image);
-        if (icon != null) {
-
-            Image imageIcon = icon.getImage();
-            Image newingIcon = imageIcon.getScaledInstance(150, 150,
-                    java.awt.Image.SCALE_SMOOTH);
-            icon = new ImageIcon(newingIcon);
-
-            JButton imgButton = new JButton(icon);
-            imgButton.setToolTipText((currentShot[0]) + imageFormat);
-            imgButton.setPreferredSize(new Dimension(75, 100));
-
-            imgButton.addActionListener(new IconButtonHandler(icon, id));
-            imgButton.setDisabledIcon(icon);
-            buttonMap.put(id, imgButton);
-        }
+    private void getShots() {
+        clipShots.addAll(shotIndex.shots());
+        // a few screens of icons are kept, whatever the number of shots
+        int iconCapacity = 512;
+        shotThumbnails = new ShotThumbnails(videoFile, frameIndex, thumbnailStore, thumbnailService, clipShots,
+                iconCapacity);
+        shotThumbnails.setProgressListener(progressListener);
     }
 
     /**
      * ImageOrder method is responsible to diplay the images in the leftPanel.
-     * It displays the images as per the key in buttonMap
+     * It displays the shots in order in a list that wraps them in rows of
+     * four. The list only draws the shots in view, so it stays fast for any
+     * number of shots.
      * 
-     * pre: leftPanel, buttonHashMap and buttonMap are instantiated
+     * pre: leftPanel, clipShots and shotThumbnails are instantiated
      * 
      * post: Adds scroll to leftPanel. Scroll is populated with imageOrder that
-     * holds all the image in desired order.
+     * holds all the shots in desired order.
      */
 
     private void imageOder() {
-        imageOrder = new JPanel(new GridLayout(10, 4, 5, 5));
-        imageOrder.setBounds(35, 90, 450, 500);
+        imageOrder = new JList<>(new AbstractListModel<Integer>() {
+            public int getSize() {
+                return clipShots.size();
+            }
+
+            public Integer getElementAt(int index) {
+                return index;
+            }
+        });
+        imageOrder.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        imageOrder.setVisibleRowCount(-1);
+        // fixed cells, so the list never measures the shots out of view
+        imageOrder.setFixedCellWidth(ThumbnailService.SMALL + 4);
+        imageOrder.setFixedCellHeight(ThumbnailService.SMALL + 4);
+        // several shots can be selected to export them together
+        imageOrder.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         imageOrder.setBackground(new Color(0x39796b));
+        imageOrder.setCellRenderer(new ShotCellRenderer());
+        imageOrder.addListSelectionListener(new ShotSelectionHandler());
+        shotThumbnails.setListener(id -> imageOrder.repaint(imageOrder.getCellBounds(id, id)));
 
-        for (int i = 0; i < buttonMap.size(); i++) {
-            imageOrder.add(buttonMap.get(i));
-        }
         JScrollPane scroll = new JScrollPane(imageOrder, JScrollPane.VERTICAL_SCROLLBAR_ALWAYS,
                 JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
         scroll.setEnabled(true);
         scroll.setPreferredSize(new Dimension(450, 500));
-        scroll.getVerticalScrollBar().setUnitIncrement(500);
+        scroll.getViewport().addChangeListener(e -> {
+            int first = imageOrder.getFirstVisibleIndex();
+            if (first != -1) {
+                shotThumbnails.setVisibleRange(first, imageOrder.getLastVisibleIndex());
+            }
+        });
         leftPanel.add(scroll);
         scroll.getVerticalScrollBar().setValue(0);
     }
 
     /**
-     * IconButtonHandler implements an ActionListener for each iconButton.
+     * ShotCellRenderer draws a shot of the list with the icon of its first
+     * frame, or the number of its first frame while the icon is loaded and
+     * when the frame cannot be read.
+     * 
+     * pre: shotThumbnails is instantiated
+     * 
+     * post: returns the component that draws the shot.
+     * 
+     */
+
+    private class ShotCellRenderer extends DefaultListCellRenderer {
+        private static final long serialVersionUID = 1L;
+
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            int[] shot = clipShots.get(index);
+            ImageIcon icon = shotThumbnails.get(index);
+            if (icon == ShotThumbnails.UNREADABLE) {
+                setIcon(null);
+                setText(shot[0] + " (unreadable)");
+            } else {
+                setIcon(icon);
+                setText(icon == null ? String.valueOf(shot[0]) : null);
+            }
+            setHorizontalAlignment(SwingConstants.CENTER);
+            setToolTipText(shot[0] + imageFormat);
+            return this;
+        }
+    }
+
+    /**
+     * ShotSelectionHandler implements a ListSelectionListener for the shot list.
      * 
      * pre: none
      * 
-     * post: When an iconButton is clicked, it makes 3 changes
-     * (a) it sets the selectedImage to the image on the button
-     * (b) it sets selectedOrderID to the image id selected
-     * (c) enables the play and reset button
+     * post: When a shot is selected, it makes 3 changes
+     * (a) it sets the selectedImage to the first frame of the shot, once loaded
+     * (b) it sets selectedOrderID to the first image id selected
+     * (c) enables the play, reset and export button
      * 
      */
 
-    private class IconButtonHandler implements ActionListener {
-        ImageIcon selectedButtonImage;
-        int id;
-
-        IconButtonHandler(ImageIcon img, int id) {
-            selectedButtonImage = img;
-            this.id = id;
-            Image imageIcon = selectedButtonImage.getImage();
-            Image newingIcon = imageIcon.getScaledInstance(350, 350,
-                    java.awt.Image.SCALE_SMOOTH);
-            selectedButtonImage = new ImageIcon(newingIcon);
+    private class ShotSelectionHandler implements ListSelectionListener {
+
+        ShotSelectionHandler() {
         }
 
-        public void actionPerformed(ActionEvent e) {
-            selectedImage.setIcon(selectedButtonImage);
+        public void valueChanged(ListSelectionEvent e) {
+            int id = imageOrder.getSelectedIndex();
+            if (e.getValueIsAdjusting() || id == -1) {
+                return;
+            }
+            selectedImage.setIcon(defaultImage);
             selectedImage.setToolTipText("Click the Play button to play the clip");
             reset.setEnabled(true);
             play.setEnabled(true);
+            export.setEnabled(true);
             selectedOrderID = id;
+            // the large image of a recently selected shot is kept, others
+            // are loaded ahead of the shot icons
+            shotThumbnails.getLarge(id, icon -> {
+                if (selectedOrderID == id && reset.isEnabled() && icon != ShotThumbnails.UNREADABLE) {
+                    selectedImage.setIcon(icon);
+                }
+            });
         }
     }
 
@@ -346,15 +348,17 @@ public class MainFrame extends JFrame implements ActionListener {
      * post: It makes the following 3 changes
      * (a) selectedImage icon is set to default image
      * (b) Closes all the open windows other than the main application
-     * (c) disables the play and reset button
+     * (c) disables the play, reset and export button
      * 
      */
 
     private void defaultSetting() {
         selectedImage.setIcon(defaultImage);
         selectedImage.setToolTipText("Select a clip from left");
+        imageOrder.clearSelection();
         play.setEnabled(false);
         reset.setEnabled(false);
+        export.setEnabled(false);
         Window[] openWindows = java.awt.Window.getWindows();
         for (int i = 0; i < openWindows.length; i++) {
             if (new String("MainFrame").equals(openWindows[i].toString().substring(0, 9))) {
@@ -370,8 +374,9 @@ public class MainFrame extends JFrame implements ActionListener {
      * 
      * pre: play button is enabled and selectedOrderID is set to the right oreder id
      * 
-     * post: When an reset button is clicked, it creates a new thread to play the
-     * respective video shot using the selectedOrderID
+     * post: When an play button is clicked, it plays the respective video shot
+     * using the selectedOrderID in a new window. The shot is decoded on the
+     * shotPlayer threads, so the GUI does not wait for it.
      * 
      */
 
@@ -381,10 +386,8 @@ public class MainFrame extends JFrame implements ActionListener {
         }
 
         public void actionPerformed(ActionEvent e) {
-            Thread thread = new Thread(new PlayVideo(videoClipStoragePath + selectedOrderID + videoFormat));
-            thread.start();
-            while (thread.getState() == State.RUNNABLE) {
-            }
+            int[] shot = clipShots.get(selectedOrderID);
+            shotPlayer.play(shot, "Shot " + (selectedOrderID + 1) + ": frames " + shot[0] + " to " + shot[1]);
             play.setEnabled(false);
         }
     }
@@ -407,6 +410,94 @@ public class MainFrame extends JFrame implements ActionListener {
         }
     }
 
+    /**
+     * ExportButtonHandler implements an ActionListener for the export button.
+     * 
+     * pre: export button is enabled and at least one shot is selected
+     * 
+     * post: When the export button is clicked, it asks for a directory and
+     * exports the selected shots there, shot n to the clip shotn followed by
+     * the format of the clipCache. The clips are copied by exportShots on
+     * exportExecutor.
+     * 
+     */
+
+    private class ExportButtonHandler implements ActionListener {
+        ExportButtonHandler() {
+        }
+
+        public void actionPerformed(ActionEvent e) {
+            int[] ids = imageOrder.getSelectedIndices();
+            if (ids.length == 0) {
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            chooser.setDialogTitle("Export " + ids.length + " shot(s) to");
+            if (chooser.showSaveDialog(MainFrame.this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File directory = chooser.getSelectedFile();
+            List<int[]> shots = new ArrayList<>(ids.length);
+            List<File> clips = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                shots.add(clipShots.get(id));
+                clips.add(new File(directory, "shot" + (id + 1) + clipCache.getVideoFormat()));
+            }
+            exportExecutor.execute(() -> exportShots(shots, clips));
+        }
+    }
+
+    /**
+     * exportShots method gets the clips of the shots from clipCache, which
+     * produces the missing ones in a single pass over the video, and copies
+     * them to the chosen files. The export button shows how many are done.
+     * 
+     * pre: shots are sorted by first frame and clips holds one file per shot.
+     * 
+     * post: the clips are written, or the error is printed.
+     */
+
+    private void exportShots(List<int[]> shots, List<File> clips) {
+        SwingUtilities.invokeLater(() -> export.setText("EXPORTING " + shots.size() + " SHOT(S)"));
+        try {
+            List<File> cached = clipCache.get(shots);
+            for (int i = 0; i < clips.size(); i++) {
+                Files.copy(cached.get(i).toPath(), clips.get(i).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        SwingUtilities.invokeLater(() -> export.setText(exportText));
+    }
+
+    /**
+     * CloseHandler implements a WindowListener for the main frame.
+     * 
+     * pre: none
+     * 
+     * post: When the main frame is closed, it stops the thumbnail threads,
+     * closes the grabbers of shotPlayer, stops a running export and exits the
+     * program.
+     * 
+     */
+
+    private class CloseHandler extends WindowAdapter {
+        CloseHandler() {
+        }
+
+        @Override
+        public void windowClosed(WindowEvent e) {
+            shotThumbnails.close();
+            thumbnailService.shutdown();
+            shotPlayer.close();
+            exportExecutor.shutdownNow();
+            System.exit(0);
+        }
+    }
+
     @Override
     public void actionPerformed(ActionEvent e) {
     }
@@ -0,0 +1,259 @@
+/*
+ * The PacketPrescreen ranks the frames of a video by how likely a cut
+ * starts there, from the sizes, keyframe flags and picture types of the
+ * packets of the video stream alone. Nothing is decoded, the FrameIndex
+ * already holds every packet, so a long video is screened about as fast as
+ * it is read.
+ *
+ * An encoder spends many more bits on a frame it cannot predict from the
+ * frames before it, so the packet of the first frame after a cut is much
+ * larger than the packets around it, and encoders with scene change
+ * detection start a new group of pictures there with a keyframe. The score
+ * of a frame is the size of its packet over the median size of the packets
+ * of the predicted frames of the same kind around it. B frames are much
+ * smaller than the other frames, so they are only compared with B frames,
+ * and every other frame with the predicted frames that are not B frames.
+ *
+ * A keyframe the encoder starts before its regular interval was placed by
+ * its scene change detection, so it scores at least KEYFRAME_SCORE however
+ * large it is. Encoders that group B frames put it a few frames after the
+ * cut, which the windows decoded around the candidates cover.
+ *
+ * Keyframes the encoder places at its regular interval are large because
+ * of the interval, not because of the content, so they are scored 0 and
+ * returned by regularKeyFrames instead. A cut on such a keyframe, and most
+ * gradual transitions, which spread their change over many frames, do not
+ * show up in the packets, so the ranked frames are only candidates that
+ * ReadFrames decodes and ReadShots confirms.
+ *
+ * @author Divya Kamath
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import org.bytedeco.ffmpeg.global.avutil;
+
+public class PacketPrescreen {
+    // Score from which a frame is a candidate by default
+    public static final double DEFAULT_THRESHOLD = 1.5;
+    // Lowest score of a keyframe started before the regular interval
+    public static final double KEYFRAME_SCORE = 2;
+    // Predicted frames on each side whose median packet size a frame is
+    // compared with
+    private static final int NEIGHBOURS = 12;
+
+    private final int startFrame;
+    private final int endFrame;
+    private final float[] scores;
+    private final int[] regularKeyFrames;
+
+    /**
+     * constructor
+     *
+     * pre: startFrame is not after endFrame and endFrame is at most
+     * frameIndex.frameCount().
+     *
+     * post: scores the frames from startFrame to endFrame (exclusive).
+     */
+
+    PacketPrescreen(FrameIndex frameIndex, int startFrame, int endFrame) {
+        this.startFrame = startFrame;
+        this.endFrame = endFrame;
+        int interval = regularInterval(frameIndex);
+        int frameCount = frameIndex.frameCount();
+        // every frame of an intra only video is a keyframe and its size is
+        // compared like that of a predicted frame
+        boolean intraOnly = interval <= 1;
+        boolean[] regular = new boolean[frameCount];
+        int lastKeyFrame = -1;
+        for (int i = 0; i < frameCount; i++) {
+            if (frameIndex.isKeyFrame(i)) {
+                regular[i] = !intraOnly && (lastKeyFrame < 0 || i - lastKeyFrame >= interval);
+                lastKeyFrame = i;
+            }
+        }
+
+        scores = new float[endFrame - startFrame];
+        List<Integer> keyFrames = new ArrayList<>();
+        int[] neighbours = new int[2 * NEIGHBOURS];
+        for (int frame = startFrame; frame < endFrame; frame++) {
+            if (regular[frame]) {
+                keyFrames.add(frame);
+                continue;
+            }
+            int count = 0;
+            boolean b = isB(frameIndex, frame);
+            for (int i = Math.max(frame - NEIGHBOURS, 0); i <= Math.min(frame + NEIGHBOURS, frameCount - 1); i++) {
+                if (i != frame && (intraOnly || !frameIndex.isKeyFrame(i)) && isB(frameIndex, i) == b) {
+                    neighbours[count++] = frameIndex.sizeOf(i);
+                }
+            }
+            Arrays.sort(neighbours, 0, count);
+            int median = count == 0 ? 0 : neighbours[count / 2];
+            double score = median == 0 ? 0 : (double) frameIndex.sizeOf(frame) / median;
+            if (frameIndex.isKeyFrame(frame) && !intraOnly) {
+                score = Math.max(score, KEYFRAME_SCORE);
+            }
+            scores[frame - startFrame] = (float) score;
+        }
+        regularKeyFrames = new int[keyFrames.size()];
+        for (int i = 0; i < regularKeyFrames.length; i++) {
+            regularKeyFrames[i] = keyFrames.get(i);
+        }
+    }
+
+    public int startFrame() {
+        return startFrame;
+    }
+
+    public int endFrame() {
+        return endFrame;
+    }
+
+    /**
+     * score method returns the size of the packet of a frame over the median
+     * size of the packets around it.
+     *
+     * pre: frame lies from startFrame to endFrame (exclusive).
+     *
+     * post: returns the score, 0 for a keyframe at the regular interval.
+     */
+    public double score(int frame) {
+        return scores[frame - startFrame];
+    }
+
+    /**
+     * rank method returns the candidate frames, whose score reaches threshold
+     * and is not below the score of the frames next to them.
+     *
+     * pre: none
+     *
+     * post: returns the frames ordered by decreasing score.
+     */
+    public int[] rank(double threshold) {
+        List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] >= threshold && (i == 0 || scores[i] >= scores[i - 1])
+                    && (i == scores.length - 1 || scores[i] > scores[i + 1])) {
+                candidates.add(startFrame + i);
+            }
+        }
+        candidates.sort((a, b) -> Float.compare(scores[b - startFrame], scores[a - startFrame]));
+        int[] frames = new int[candidates.size()];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = candidates.get(i);
+        }
+        return frames;
+    }
+
+    /**
+     * regularKeyFrames method returns the keyframes at the regular interval of
+     * the encoder, whose packets cannot tell whether a cut starts there.
+     *
+     * pre: none
+     *
+     * post: returns a copy of the frames in frame order.
+     */
+    public int[] regularKeyFrames() {
+        return regularKeyFrames.clone();
+    }
+
+    private static boolean isB(FrameIndex frameIndex, int frame) {
+        return frameIndex.pictureTypeOf(frame) == avutil.AV_PICTURE_TYPE_B;
+    }
+
+    /**
+     * regularInterval method returns the most common number of frames between
+     * two keyframes, the interval the encoder places keyframes at when no
+     * scene change makes it start one earlier.
+     *
+     * pre: none
+     *
+     * post: returns the interval, the larger one on a tie and 0 if the video
+     * has fewer than two keyframes.
+     */
+    private static int regularInterval(FrameIndex frameIndex) {
+        List<Integer> intervals = new ArrayList<>();
+        int lastKeyFrame = -1;
+        for (int i = 0; i < frameIndex.frameCount(); i++) {
+            if (frameIndex.isKeyFrame(i)) {
+                if (lastKeyFrame >= 0) {
+                    intervals.add(i - lastKeyFrame);
+                }
+                lastKeyFrame = i;
+            }
+        }
+        intervals.sort(null);
+        int interval = 0;
+        int best = 0;
+        for (int i = 0; i < intervals.size();) {
+            int j = i;
+            while (j < intervals.size() && intervals.get(j).equals(intervals.get(i))) {
+                j++;
+            }
+            if (j - i >= best) {
+                best = j - i;
+                interval = intervals.get(i);
+            }
+            i = j;
+        }
+        return interval;
+    }
+
+    /**
+     * main method screens a video from its packets and prints the candidate
+     * frames, best first, with their time and score.
+     *
+     * pre: args are the video path followed by any of the options --start n
+     * (default 0), --end n (default the end of the video), --threshold x
+     * (default 1.5) and --top n (default all candidates).
+     *
+     * post: one line per candidate is written to standard output.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println("usage: PacketPrescreen <video> [--start n] [--end n] [--threshold x] [--top n]");
+            System.exit(2);
+        }
+        int startFrame = 0;
+        int endFrame = ShotAnalysis.END_OF_VIDEO;
+        double threshold = DEFAULT_THRESHOLD;
+        int top = Integer.MAX_VALUE;
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--start":
+                    startFrame = Integer.parseInt(value);
+                    break;
+                case "--end":
+                    endFrame = Integer.parseInt(value);
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(value);
+                    break;
+                case "--top":
+                    top = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        long time = System.nanoTime();
+        FrameIndex frameIndex = FrameIndex.load(args[0]);
+        if (endFrame == ShotAnalysis.END_OF_VIDEO || endFrame > frameIndex.frameCount()) {
+            endFrame = frameIndex.frameCount();
+        }
+        PacketPrescreen prescreen = new PacketPrescreen(frameIndex, startFrame, endFrame);
+        int[] candidates = prescreen.rank(threshold);
+        System.err.printf("screened %d frames in %d ms, %d candidates, %d regular keyframes%n",
+                endFrame - startFrame, (System.nanoTime() - time) / 1000000, candidates.length,
+                prescreen.regularKeyFrames().length);
+        for (int i = 0; i < Math.min(top, candidates.length); i++) {
+            System.out.println(String.format(Locale.ROOT, "%d %.3f %.2f", candidates[i],
+                    frameIndex.secondsOf(candidates[i]), prescreen.score(candidates[i])));
+        }
+    }
+}
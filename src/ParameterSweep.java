@@ -0,0 +1,324 @@
+/*
+ * The ParameterSweep runs the twin comparison of ReadShots over one series
+ * of frame distances for a whole grid of threshold settings.
+ *
+ * The cut threshold mean + cutMultiplier * SD, the gradual transition
+ * threshold gtMultiplier * mean and gtTor are tried in every combination.
+ * The video is decoded once, and the average, SD and prefix sums of the
+ * distances are calculated once and shared by all settings, which are
+ * evaluated on a pool of worker threads. When reference boundaries are
+ * given, every setting is scored with the precision and recall of an
+ * AccuracyReport.
+ *
+ * @author Divya Kamath
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ParameterSweep {
+    private final FeatureStore features;
+    private final int startFrame;
+    private final double[] avgSD;
+    private List<int[]> reference;
+    private int tolerance;
+
+    /**
+     * constructor
+     *
+     * pre: the distances of features are calculated and startFrame is the
+     * frame of the first distance.
+     *
+     * post: calculates the statistics and prefix sums the settings share.
+     */
+
+    ParameterSweep(FeatureStore features, int startFrame) {
+        this.features = features;
+        this.startFrame = startFrame;
+        avgSD = new double[2];
+        CalculateUtil.calculateAvgSD(features, avgSD);
+        features.calculatePrefixSums();
+    }
+
+    /**
+     * setReference method sets the true boundaries every setting is compared
+     * with.
+     *
+     * pre: reference holds {start, end} boundaries sorted by start frame.
+     *
+     * post: the results of run hold an AccuracyReport.
+     */
+    public void setReference(List<int[]> reference, int tolerance) {
+        this.reference = reference;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * run method detects the shots for every combination of the given
+     * multipliers and gtTor values on threads worker threads.
+     *
+     * pre: threads is at least 1.
+     *
+     * post: returns one result per combination, ordered by cut multiplier,
+     * then gradual transition multiplier, then gtTor.
+     */
+    public List<Result> run(double[] cutMultipliers, double[] gtMultipliers, int[] gtTors, int threads)
+            throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>();
+        for (double cutMultiplier : cutMultipliers) {
+            for (double gtMultiplier : gtMultipliers) {
+                for (int gtTor : gtTors) {
+                    futures.add(pool.submit(() -> evaluate(cutMultiplier, gtMultiplier, gtTor)));
+                }
+            }
+        }
+        List<Result> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return results;
+    }
+
+    /**
+     * evaluate method detects the shots of one setting.
+     *
+     * pre: none
+     *
+     * post: returns the shot counts of the setting, and its accuracy when a
+     * reference is set.
+     */
+    Result evaluate(double cutMultiplier, double gtMultiplier, int gtTor) {
+        ReadShots readShots = new ReadShots(features, avgSD, startFrame, gtTor);
+        readShots.setVerbose(false);
+        readShots.setMultipliers(cutMultiplier, gtMultiplier);
+        readShots.setThreshold();
+        readShots.detectCuts();
+        readShots.detectGradualTransition();
+        ShotIndex shotIndex = readShots.getShotIndex();
+        AccuracyReport accuracy = reference == null ? null
+                : AccuracyReport.compare(reference, shotIndex.boundaries(), tolerance);
+        return new Result(cutMultiplier, gtMultiplier, gtTor, shotIndex.cutCount(),
+                shotIndex.gradualTransitionCount(), accuracy);
+    }
+
+    /**
+     * Result holds the outcome of one setting of the sweep.
+     */
+    public static class Result {
+        final double cutMultiplier;
+        final double gtMultiplier;
+        final int gtTor;
+        final int cuts;
+        final int gradualTransitions;
+        // null when the sweep has no reference
+        final AccuracyReport accuracy;
+
+        Result(double cutMultiplier, double gtMultiplier, int gtTor, int cuts, int gradualTransitions,
+                AccuracyReport accuracy) {
+            this.cutMultiplier = cutMultiplier;
+            this.gtMultiplier = gtMultiplier;
+            this.gtTor = gtTor;
+            this.cuts = cuts;
+            this.gradualTransitions = gradualTransitions;
+            this.accuracy = accuracy;
+        }
+
+        /**
+         * f1 method returns the harmonic mean of precision and recall.
+         *
+         * pre: the sweep had a reference.
+         *
+         * post: returns the F1 score, 0 when nothing matched.
+         */
+        double f1() {
+            double precision = accuracy.precision();
+            double recall = accuracy.recall();
+            return precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+        }
+
+        String toCsv() {
+            String row = String.format(Locale.ROOT, "%s,%s,%d,%d,%d", cutMultiplier, gtMultiplier, gtTor, cuts,
+                    gradualTransitions);
+            if (accuracy != null) {
+                row += String.format(Locale.ROOT, ",%.4f,%.4f,%.4f", accuracy.precision(), accuracy.recall(), f1());
+            }
+            return row;
+        }
+    }
+
+    /**
+     * main method decodes a video once and sweeps the threshold settings over
+     * its frame distances.
+     *
+     * pre: args are the video path followed by any of the options --start n
+     * (default 0), --end n (default the end of the video), --cache directory,
+     * --truth file with one reference boundary per line (start frame,
+     * optionally followed by end frame), --tolerance n (default 2), --cut
+     * from:to:step (default 5:15:0.5), --gt from:to:step (default 1:4:0.25),
+     * --gtTor from:to (default 1:6), --threads n (default the number of
+     * processors) and --out file (default standard output).
+     *
+     * post: one CSV row per setting is written, and the best setting is
+     * printed to standard error when a reference is given.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args.length % 2 == 0) {
+            System.err.println("usage: ParameterSweep <video> [--start n] [--end n] [--cache directory] "
+                    + "[--truth file] [--tolerance n] [--cut from:to:step] [--gt from:to:step] "
+                    + "[--gtTor from:to] [--threads n] [--out file]");
+            System.exit(2);
+        }
+        int startFrame = 0;
+        int endFrame = ShotAnalysis.END_OF_VIDEO;
+        File cacheDirectory = null;
+        File truthFile = null;
+        int tolerance = 2;
+        double[] cutMultipliers = range("5:15:0.5");
+        double[] gtMultipliers = range("1:4:0.25");
+        int[] gtTors = { 1, 2, 3, 4, 5, 6 };
+        int threads = Runtime.getRuntime().availableProcessors();
+        String outputFile = null;
+        for (int i = 1; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--start":
+                    startFrame = Integer.parseInt(value);
+                    break;
+                case "--end":
+                    endFrame = Integer.parseInt(value);
+                    break;
+                case "--cache":
+                    cacheDirectory = new File(value);
+                    break;
+                case "--truth":
+                    truthFile = new File(value);
+                    break;
+                case "--tolerance":
+                    tolerance = Integer.parseInt(value);
+                    break;
+                case "--cut":
+                    cutMultipliers = range(value);
+                    break;
+                case "--gt":
+                    gtMultipliers = range(value);
+                    break;
+                case "--gtTor":
+                    double[] tors = range(value);
+                    gtTors = new int[tors.length];
+                    for (int t = 0; t < tors.length; t++) {
+                        gtTors[t] = (int) tors[t];
+                    }
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--out":
+                    outputFile = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        ShotAnalysis analysis = new ShotAnalysis(args[0], startFrame, endFrame, 2);
+        analysis.setCacheDirectory(cacheDirectory);
+        analysis.run();
+        ParameterSweep sweep = new ParameterSweep(analysis.getFeatures(), startFrame);
+        if (truthFile != null) {
+            sweep.setReference(readReference(truthFile), tolerance);
+        }
+
+        long time = System.nanoTime();
+        List<Result> results = sweep.run(cutMultipliers, gtMultipliers, gtTors, threads);
+        System.err.printf("swept %d settings over %d frames on %d threads in %d ms%n", results.size(),
+                analysis.getFeatures().frames(), threads, (System.nanoTime() - time) / 1000000);
+
+        PrintWriter output = outputFile == null
+                ? new PrintWriter(System.out)
+                : new PrintWriter(Files.newBufferedWriter(Path.of(outputFile), StandardCharsets.UTF_8));
+        try {
+            output.println("cutMultiplier,gtMultiplier,gtTor,cuts,gradualTransitions"
+                    + (truthFile == null ? "" : ",precision,recall,f1"));
+            Result best = null;
+            for (Result result : results) {
+                output.println(result.toCsv());
+                if (truthFile != null && (best == null || result.f1() > best.f1())) {
+                    best = result;
+                }
+            }
+            if (best != null) {
+                System.err.println("best: " + best.toCsv());
+            }
+        } finally {
+            // standard output stays open for whatever runs after the sweep
+            if (outputFile == null) {
+                output.flush();
+            } else {
+                output.close();
+            }
+        }
+    }
+
+    /**
+     * range method expands from:to:step into the values from "from" to "to"
+     * (inclusive). The step defaults to 1 and "to" to "from".
+     *
+     * pre: step is positive.
+     *
+     * post: returns the values in increasing order.
+     */
+    static double[] range(String range) {
+        String[] parts = range.split(":");
+        double from = Double.parseDouble(parts[0]);
+        double to = parts.length > 1 ? Double.parseDouble(parts[1]) : from;
+        double step = parts.length > 2 ? Double.parseDouble(parts[2]) : 1;
+        int count = (int) Math.floor((to - from) / step + 1e-9) + 1;
+        double[] values = new double[Math.max(count, 1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = from + i * step;
+        }
+        return values;
+    }
+
+    /**
+     * readReference method reads reference boundaries, one per line as a start
+     * frame optionally followed by an end frame. Blank lines and lines
+     * starting with # are ignored.
+     *
+     * pre: file is readable.
+     *
+     * post: returns the boundaries sorted by start frame.
+     */
+    static List<int[]> readReference(File file) throws IOException {
+        List<int[]> boundaries = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("[\\s,]+");
+            int start = Integer.parseInt(fields[0]);
+            boundaries.add(new int[] { start, fields.length > 1 ? Integer.parseInt(fields[1]) : start });
+        }
+        boundaries.sort((a, b) -> Integer.compare(a[0], b[0]));
+        return boundaries;
+    }
+}
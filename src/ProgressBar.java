@@ -4,16 +4,24 @@
  * The ProgressBar displays progress bar when the application 
  * reads the frame and calculates the shots.
  * 
+ * It is a ProgressListener, so the bar follows the frames actually read by
+ * ReadFrames and the detection of ReadShots, and the metrics of the last
+ * finished stage are shown below it.
+ * 
  * @author Divya Kamath
  */
 
+import java.util.Locale;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
 import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
 
-public class ProgressBar implements Runnable {
+public class ProgressBar implements ProgressListener {
     // Frame to display progress bar
     JFrame frame = new JFrame();
     JProgressBar bar = new JProgressBar(0, 100);
+    JLabel metrics = new JLabel();
 
     /**
      * constructor
@@ -27,8 +35,10 @@ public class ProgressBar implements Runnable {
         bar.setValue(0);
         bar.setBounds(50, 75, 400, 50);
         bar.setStringPainted(true);
+        metrics.setBounds(50, 135, 400, 30);
 
         frame.add(bar);
+        frame.add(metrics);
         frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         frame.setLocationRelativeTo(null);
         frame.setResizable(false);
@@ -39,32 +49,64 @@ public class ProgressBar implements Runnable {
     }
 
     /**
-     * run method is responsible to run the thread.
-     * 
-     * pre: thread is initialised.
-     * 
-     * post: displays the progressbar in a new window
+     * progress method moves the bar to the share of the stage that is done.
+     *
+     * pre: none
+     *
+     * post: the bar shows the stage and its percentage.
      */
     @Override
-    public void run() {
-        int count = 0;
-        // counter starts at 0 and increments till 100
-        while (count <= 100) {
-            bar.setValue(count);
-            try {
-                Thread.sleep(150);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-            count += 1;
-        }
-        bar.setString("Hang tight directing to the main application");
-        try {
-            Thread.sleep(3000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        // close the frame
-        frame.dispose();
+    public void progress(String stage, int done, int total) {
+        int percent = total > 0 ? (int) (100L * done / total) : 0;
+        String text = (ProgressListener.DECODE.equals(stage) ? "Reading frames " : "Detecting shots ") + percent
+                + "%";
+        SwingUtilities.invokeLater(() -> {
+            bar.setValue(percent);
+            bar.setString(text);
+        });
+    }
+
+    /**
+     * framesDecoded method shows how fast the frames were read.
+     *
+     * pre: none
+     *
+     * post: the frame rate and histogram time are shown below the bar.
+     */
+    @Override
+    public void framesDecoded(int frames, long decodeNanos, long histogramNanos, long elapsedNanos) {
+        String text = String.format(Locale.ROOT, "%d frames at %.0f fps, histogram %.0f µs/frame", frames,
+                elapsedNanos == 0 ? 0.0 : frames * 1e9 / elapsedNanos,
+                frames == 0 ? 0.0 : histogramNanos / 1000.0 / frames);
+        SwingUtilities.invokeLater(() -> metrics.setText(text));
+    }
+
+    /**
+     * shotsDetected method shows how many shots were found.
+     *
+     * pre: none
+     *
+     * post: the shot counts and detection time are shown below the bar.
+     */
+    @Override
+    public void shotsDetected(int cuts, int gradualTransitions, long detectionNanos) {
+        String text = String.format(Locale.ROOT, "%d cuts and %d gradual transitions in %.1f ms", cuts,
+                gradualTransitions, detectionNanos / 1e6);
+        SwingUtilities.invokeLater(() -> metrics.setText(text));
+    }
+
+    /**
+     * close method closes the progress bar once the analysis is done.
+     *
+     * pre: none
+     *
+     * post: the window is disposed.
+     */
+    public void close() {
+        SwingUtilities.invokeLater(() -> {
+            bar.setValue(100);
+            bar.setString("Hang tight directing to the main application");
+            frame.dispose();
+        });
     }
 }
@@ -0,0 +1,129 @@
+/*
+ * The ProgressListener is told how far every stage of the analysis is and
+ * how long its work takes, so the progress can be shown and the time of a
+ * run can be broken down by stage.
+ *
+ * Every method does nothing by default, so a listener only implements the
+ * calls it needs. The methods are called on the threads doing the work.
+ *
+ * @author Divya Kamath
+ */
+
+public interface ProgressListener {
+    // Stage of ReadFrames
+    String DECODE = "decode";
+    // Stage of ReadShots
+    String DETECT = "detect";
+    // Stage of ClipExporter
+    String EXPORT = "export";
+    // Stage of ShotThumbnails
+    String THUMBNAILS = "thumbnails";
+    // total of a stage whose end is not known
+    int UNKNOWN = -1;
+
+    /**
+     * progress is called as the work of a stage goes on, at most about a
+     * hundred times per stage run.
+     *
+     * pre: none
+     *
+     * post: done of total units of the stage are finished, total may be
+     * UNKNOWN.
+     */
+    default void progress(String stage, int done, int total) {
+    }
+
+    /**
+     * framesDecoded is called once ReadFrames has read its frames.
+     *
+     * pre: none
+     *
+     * post: frames were decoded in decodeNanos of decoder time and histogrammed
+     * in histogramNanos of worker time, taking elapsedNanos of wall time.
+     */
+    default void framesDecoded(int frames, long decodeNanos, long histogramNanos, long elapsedNanos) {
+    }
+
+    /**
+     * shotsDetected is called once ReadShots has found the gradual
+     * transitions.
+     *
+     * pre: none
+     *
+     * post: cuts and gradualTransitions were found in detectionNanos.
+     */
+    default void shotsDetected(int cuts, int gradualTransitions, long detectionNanos) {
+    }
+
+    /**
+     * clipExported is called for every clip ClipExporter writes.
+     *
+     * pre: none
+     *
+     * post: frames of video were written to the clip in exportNanos.
+     */
+    default void clipExported(int frames, long exportNanos) {
+    }
+
+    /**
+     * thumbnailLoaded is called for every shot icon ShotThumbnails loads.
+     *
+     * pre: none
+     *
+     * post: the first frame was taken from the ThumbnailStore when stored is
+     * true and decoded otherwise, in loadNanos.
+     */
+    default void thumbnailLoaded(boolean stored, long loadNanos) {
+    }
+
+    /**
+     * queueDepth is called as work items wait in the queue of a stage.
+     *
+     * pre: none
+     *
+     * post: depth items were waiting in the queue of stage.
+     */
+    default void queueDepth(String stage, int depth) {
+    }
+
+    /**
+     * both method returns a listener that tells first and then second.
+     *
+     * pre: first and second are not null.
+     *
+     * post: returns the combined listener.
+     */
+    static ProgressListener both(ProgressListener first, ProgressListener second) {
+        return new ProgressListener() {
+            public void progress(String stage, int done, int total) {
+                first.progress(stage, done, total);
+                second.progress(stage, done, total);
+            }
+
+            public void framesDecoded(int frames, long decodeNanos, long histogramNanos, long elapsedNanos) {
+                first.framesDecoded(frames, decodeNanos, histogramNanos, elapsedNanos);
+                second.framesDecoded(frames, decodeNanos, histogramNanos, elapsedNanos);
+            }
+
+            public void shotsDetected(int cuts, int gradualTransitions, long detectionNanos) {
+                first.shotsDetected(cuts, gradualTransitions, detectionNanos);
+                second.shotsDetected(cuts, gradualTransitions, detectionNanos);
+            }
+
+            public void clipExported(int frames, long exportNanos) {
+                first.clipExported(frames, exportNanos);
+                second.clipExported(frames, exportNanos);
+            }
+
+            public void thumbnailLoaded(boolean stored, long loadNanos) {
+                first.thumbnailLoaded(stored, loadNanos);
+                second.thumbnailLoaded(stored, loadNanos);
+            }
+
+            public void queueDepth(String stage, int depth) {
+                first.queueDepth(stage, depth);
+                second.queueDepth(stage, depth);
+            }
+        };
+    }
+}
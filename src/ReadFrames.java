@@ -6,75 +6,1463 @@
  * It is responsible for the grabing each frame to calculate its intensity
  * value and then the frame distances using Manhattan distance.
  * 
+ * The histograms and distances are kept in a FeatureStore outside the Java
+ * heap, so the heap used by ReadFrames does not grow with the number of
+ * frames. Each thread calculates its frames into a scratch row of its own.
+ * 
  * @author Divya Kamath
  */
 
-import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import org.bytedeco.ffmpeg.avcodec.AVCodecParameters;
+import org.bytedeco.ffmpeg.avformat.AVFormatContext;
+import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
 import org.bytedeco.javacv.Frame;
-import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bytedeco.javacv.FrameGrabber.Exception;
 
 public class ReadFrames {
+    // Coarse step that samples only the keyframes of the video
+    public static final int KEYFRAMES = 0;
+    // Coarse step that decodes nothing and takes the candidate regions from
+    // a PacketPrescreen of the packets
+    public static final int PACKETS = -2;
+    // Frames decoded on each side of a candidate region by default
+    public static final int DEFAULT_WINDOW = 8;
+    // Coarse step of the full analysis, which decodes every frame
+    private static final int FULL = -1;
+
     private final int startIndex;
     private final int endIndex;
     private final String videoFile;
     private final int intensityColumns;
-    private int[][] intensityMatrix;
-    protected static int[] frameDistance;
-    private int imageCount;
+    private FeatureStore features;
+    private File spillDirectory;
+    private boolean grayscale;
+    private FrameIndex frameIndex;
+    private HistogramCache histogramCache;
+    private ThumbnailStore thumbnailStore;
+    private ProgressListener progressListener;
+    private int analysisWidth;
+    private int analysisHeight;
+    private int pixelStep;
+    private int coarseStep;
+    private int coarseWindow;
+    // threads and buffers of the decoding pipeline, no pipeline when 0
+    private int pipelineWorkers;
+    private int pipelineBuffers;
+    private volatile long sourcePixels;
 
     /**
      * constructor
      * 
      * pre: startIndex, endIndex and videoFile should be passed as parameters
      * 
-     * post: intitalises the intensityMatrix and sets all the required values
+     * post: sets all the required values. The FeatureStore is allocated
+     * by the grab methods that need it, so streamFrames can run over unbounded
+     * ranges.
      */
 
     ReadFrames(int startIndex, int endIndex, String videoFile) {
         this.startIndex = startIndex;
         this.endIndex = endIndex;
         this.videoFile = videoFile;
-        intensityColumns = 26;
-        intensityMatrix = new int[endIndex - startIndex + 1][intensityColumns];
-        imageCount = 1;
+        intensityColumns = IntensityHistogram.COLUMNS;
+        pixelStep = 1;
+        coarseStep = FULL;
+    }
+
+    /**
+     * getFeatures method returns the histograms and frame distances calculated
+     * by the last grab method, without copying them.
+     * 
+     * pre: a grab method has run
+     * 
+     * post: returns the FeatureStore of the frame range.
+     */
+    public FeatureStore getFeatures() {
+        return features;
+    }
+
+    /**
+     * getFrameDistance method returns the frame distances calculated by the
+     * last grab method.
+     * 
+     * pre: a grab method has run
+     * 
+     * post: returns a heap copy of the distance between each pair of adjacent
+     * frames.
+     */
+    public int[] getFrameDistance() {
+        return features == null ? null : features.distances();
+    }
+
+    /**
+     * setSpillDirectory method keeps the FeatureStore in a memory mapped file
+     * in directory instead of in memory, so the operating system can page the
+     * features of very long videos out to disk.
+     * 
+     * pre: called before a grab method
+     * 
+     * post: the grab methods spill their features to directory.
+     */
+    public void setSpillDirectory(File directory) {
+        spillDirectory = directory;
+    }
+
+    /**
+     * setGrayscale method asks the grabber for AV_PIX_FMT_GRAY8 output, so the
+     * luma of each frame is computed by libswscale and no colour conversion
+     * is done in Java. The bins then follow the decoder luma, which can differ
+     * slightly from the 0.299R + 0.587G + 0.114B intensity of the BGR output.
+     * 
+     * pre: called before grabFrames
+     * 
+     * post: grabFrames decodes grayscale frames when grayscale is true.
+     */
+    public void setGrayscale(boolean grayscale) {
+        this.grayscale = grayscale;
+    }
+
+    /**
+     * setAnalysisSize method asks the grabber to scale the frames down to
+     * width x height before they are histogrammed, which is much cheaper than
+     * walking every pixel of a 4K frame.
+     * 
+     * pre: called before a grab method, width and height are positive
+     * 
+     * post: frames are analysed at the given size and their histograms are
+     * normalised to the full resolution pixel count.
+     */
+    public void setAnalysisSize(int width, int height) {
+        analysisWidth = width;
+        analysisHeight = height;
+    }
+
+    /**
+     * setPixelStep method only samples every step-th pixel of every step-th
+     * row of a frame.
+     * 
+     * pre: called before a grab method, step is at least 1
+     * 
+     * post: frames are sampled on the step grid and their histograms are
+     * normalised to the full resolution pixel count.
+     */
+    public void setPixelStep(int step) {
+        pixelStep = step;
+    }
+
+    /**
+     * setCoarseToFine method makes grabFrames analyse the video in two passes.
+     * The first pass only calculates the histograms of every step-th frame, or
+     * of the keyframes when step is KEYFRAMES, and the second pass decodes
+     * every frame only in the regions whose sampled histograms changed, with
+     * window more frames on each side. When step is PACKETS the first pass
+     * only reads the packets, and the regions are the candidates of a
+     * PacketPrescreen and the regular keyframes it cannot judge.
+     * 
+     * pre: called before grabFrames, step is KEYFRAMES, PACKETS or at least 2
+     * and window is not negative
+     * 
+     * post: grabFrames runs grabFramesCoarseToFine.
+     */
+    public void setCoarseToFine(int step, int window) {
+        coarseStep = step;
+        coarseWindow = window;
+    }
+
+    /**
+     * setPipeline method makes grabFrames overlap decoding with histogram
+     * calculation. The decoding thread copies every frame into one of a fixed
+     * ring of recycled buffers and workers threads calculate the pixel values
+     * of the filled buffers, so memory stays at "buffers" frames however long
+     * the video is. Unlike grabFramesParallel the video is decoded in one
+     * pass, so it also works for streams with sparse or unreliable keyframes.
+     * 
+     * pre: called before grabFrames, workers and buffers are at least 1
+     * 
+     * post: grabFrames decodes the frames it needs through the pipeline.
+     */
+    public void setPipeline(int workers, int buffers) {
+        pipelineWorkers = workers;
+        pipelineBuffers = buffers;
+    }
+
+    /**
+     * setFrameIndex method sets the index of the video, which lets the frame
+     * grabbers seek straight to startIndex instead of decoding every frame
+     * before it.
+     * 
+     * pre: frameIndex was built for videoFile
+     * 
+     * post: the grab methods seek with the index.
+     */
+    public void setFrameIndex(FrameIndex frameIndex) {
+        this.frameIndex = frameIndex;
+    }
+
+    /**
+     * setHistogramCache method sets the cache the histograms and distances are
+     * read from and written to. Frames that are already cached are not decoded
+     * again.
+     * 
+     * pre: histogramCache was opened for videoFile with histogramParameters
+     * 
+     * post: the grab methods use the cache.
+     */
+    public void setHistogramCache(HistogramCache histogramCache) {
+        this.histogramCache = histogramCache;
+    }
+
+    /**
+     * setThumbnailStore method keeps thumbnails of the frames that may start a
+     * shot while grabFrames, grabFramesParallel and streamFrames decode them,
+     * so the shots can be shown without decoding the video again. Every run
+     * of consecutive frames is handed to its own feed of the store, in the
+     * pipelined mode in frame order from the ring of buffers. Frames read
+     * from the histogram cache are not decoded, their thumbnails are found in
+     * the directory of the store. The thumbnails have the analysis size and
+     * colour of the frames.
+     * 
+     * pre: none
+     * 
+     * post: decoded frames are offered to thumbnailStore.
+     */
+    public void setThumbnailStore(ThumbnailStore thumbnailStore) {
+        this.thumbnailStore = thumbnailStore;
+    }
+
+    /**
+     * setProgressListener method sets the listener told how many frames are
+     * read and how long decoding and histogramming take.
+     * 
+     * pre: none
+     * 
+     * post: the grab methods report to progressListener.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * histogramParameters method describes the settings that change the
+     * histogram values, to tell caches of the same video apart.
+     * 
+     * pre: none
+     * 
+     * post: returns the parameters as a file name friendly string.
+     */
+    public String histogramParameters() {
+        String parameters = (grayscale ? "gray" : "bgr") + intensityColumns;
+        if (analysisWidth > 0) {
+            parameters += "-" + analysisWidth + "x" + analysisHeight;
+        }
+        if (pixelStep > 1) {
+            parameters += "-s" + pixelStep;
+        }
+        return parameters;
     }
 
     /**
      * grabFrames method uses FFmpegFrameGrabber to grab each frame and calculate
-     * its pixel value
+     * its pixel value straight from the native frame buffer, through the
+     * pipeline when setPipeline was called
      * 
      * pre: videoFile value is declared
      * 
-     * post: it calculates the frame distance between the adjacent frames.
+     * post: it calculates the frame distance between the adjacent frames. If
+     * the thread is interrupted it returns with the interrupt status set and
+     * without distances.
      */
     public void grabFrames() {
-        try (Java2DFrameConverter converter = new Java2DFrameConverter()) {
-            try (FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoFile)) {
-                frameGrabber.start();
-                BufferedImage bffImageFrame;
-                int count = 0;
-                Frame tmp = frameGrabber.grabImage();
-                while (tmp != null) {
-                    if (count >= startIndex && count < endIndex) {
-                        bffImageFrame = converter.convert(tmp);
-                        CalculateUtil.calculatePixelValues(bffImageFrame, intensityMatrix, imageCount);
-                        imageCount++;
-                    } else if (count >= endIndex) {
+        allocateFeatures();
+        if (coarseStep != FULL) {
+            grabFramesCoarseToFine();
+            return;
+        }
+        if (histogramCache != null) {
+            grabUncachedFrames();
+            return;
+        }
+        DecodeProgress decodeProgress = new DecodeProgress(endIndex - startIndex);
+        try {
+            decodeSegment(startIndex, endIndex, decodeProgress);
+        } catch (InterruptedException e) {
+            // the frames that were not decoded have no rows, so no distances
+            // are calculated from them
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        CalculateUtil.calculateManhattanDistance(features);
+        decodeProgress.finish();
+    }
+
+    /**
+     * grabFramesParallel method splits the frames from startIndex to endIndex
+     * into segments and decodes every segment with its own FFmpegFrameGrabber
+     * on a pool of worker threads. Each grabber seeks to the keyframe before
+     * its first frame and decodes forward from there.
+     * 
+     * The keyframe is found with the frame index, which is built from the
+     * packets of the video when none is set, so every segment starts on its
+     * exact first frame even when the timestamps of the file are not frame
+     * accurate. If the index cannot be built the video is decoded by
+     * grabFrames instead.
+     * 
+     * Every segment writes the rows of its own frames into the shared
+     * FeatureStore, and the frame distances are only calculated once all
+     * segments are done, so the distances across segment boundaries are the
+     * same as in grabFrames.
+     * 
+     * pre: videoFile value is declared and segments is at least 1
+     * 
+     * post: it calculates the frame distance between the adjacent frames, or
+     * throws IllegalStateException if a segment fails to decode. If the
+     * calling thread is interrupted the segments are cancelled and it returns
+     * with the interrupt status set, without distances or cached rows.
+     */
+    public void grabFramesParallel(int segments) {
+        allocateFeatures();
+        int frames = endIndex - startIndex;
+        if (loadCachedFrames()) {
+            new DecodeProgress(frames).finish();
+            return;
+        }
+        if (segments > 1 && !buildFrameIndex()) {
+            grabFrames();
+            return;
+        }
+        DecodeProgress decodeProgress = new DecodeProgress(frames);
+        int threads = Math.min(segments, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int s = 0; s < segments; s++) {
+            int from = startIndex + (int) ((long) frames * s / segments);
+            int to = startIndex + (int) ((long) frames * (s + 1) / segments);
+            results.add(pool.submit(() -> {
+                grabSegment(from, to, decodeProgress);
+                return null;
+            }));
+        }
+        try {
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            // the segments that did not finish left their rows empty, so no
+            // distances are calculated from them and nothing is cached
+            for (Future<Void> result : results) {
+                result.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        CalculateUtil.calculateManhattanDistance(features);
+        cacheFrames();
+        decodeProgress.finish();
+    }
+
+    /**
+     * buildFrameIndex method builds the frame index of the video from its
+     * packets when none is set, so frames past the start can be reached with
+     * FrameIndex.seek.
+     * 
+     * pre: videoFile value is declared
+     * 
+     * post: returns true if a frame index is set.
+     */
+    private boolean buildFrameIndex() {
+        if (frameIndex == null) {
+            try {
+                frameIndex = FrameIndex.build(videoFile);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * grabUncachedFrames method reads the cached rows of the frame range and
+     * decodes only the span from the first to the last frame that is not
+     * cached yet, then caches the result.
+     * 
+     * pre: histogramCache is set
+     * 
+     * post: it calculates the frame distance between the adjacent frames.
+     */
+    private void grabUncachedFrames() {
+        if (loadCachedFrames()) {
+            new DecodeProgress(0).finish();
+            return;
+        }
+        int missingFrom = histogramCache.firstMissing(startIndex, endIndex);
+        int missingTo = histogramCache.lastMissing(startIndex, endIndex) + 1;
+        DecodeProgress decodeProgress = new DecodeProgress(missingTo - missingFrom);
+        histogramCache.readRows(startIndex, missingFrom, features, 0);
+        histogramCache.readRows(missingTo, endIndex, features, missingTo - startIndex);
+        if (missingFrom > 0) {
+            buildFrameIndex();
+        }
+        try {
+            decodeSegment(missingFrom, missingTo, decodeProgress);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        CalculateUtil.calculateManhattanDistance(features);
+        cacheFrames();
+        decodeProgress.finish();
+    }
+
+    /**
+     * loadCachedFrames method fills the FeatureStore from the cache when every
+     * frame of the range is cached.
+     * 
+     * pre: none
+     * 
+     * post: returns true if the frames were loaded and need no decoding.
+     */
+    private boolean loadCachedFrames() {
+        if (histogramCache == null || histogramCache.firstMissing(startIndex, endIndex) != endIndex) {
+            return false;
+        }
+        histogramCache.readRows(startIndex, endIndex, features, 0);
+        if (!histogramCache.readDistances(startIndex, endIndex - 1, features)) {
+            CalculateUtil.calculateManhattanDistance(features);
+        }
+        return true;
+    }
+
+    /**
+     * cacheFrames method writes the decoded rows and their distances to the
+     * cache. Rows past the end of a video shorter than endIndex stay empty and
+     * are not cached.
+     * 
+     * pre: the frame distances are calculated
+     * 
+     * post: the decoded frames of the range are cached.
+     */
+    private void cacheFrames() {
+        if (histogramCache == null) {
+            return;
+        }
+        int decoded = 0;
+        while (decoded < features.frames() && !features.isEmpty(decoded)) {
+            decoded++;
+        }
+        try {
+            histogramCache.writeRows(startIndex, startIndex + decoded, features, 0);
+            if (decoded > 1) {
+                histogramCache.writeDistances(startIndex, features, decoded - 1);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * decodeSegment method decodes the frames from "from" to "to" (exclusive)
+     * into the matching FeatureStore rows, through the pipeline when one is
+     * set.
+     * 
+     * pre: from and to lie between startIndex and endIndex
+     * 
+     * post: rows from - startIndex to to - startIndex - 1 of the FeatureStore
+     * are populated.
+     */
+    private void decodeSegment(int from, int to, DecodeProgress decodeProgress)
+            throws Exception, InterruptedException {
+        if (pipelineWorkers > 0) {
+            grabSegmentPipelined(from, to, decodeProgress);
+        } else {
+            grabSegment(from, to, decodeProgress);
+        }
+    }
+
+    /**
+     * grabSegment method decodes the frames from "from" to "to" (exclusive)
+     * and calculates their pixel values into the matching FeatureStore rows.
+     * 
+     * pre: from and to lie between startIndex and endIndex
+     * 
+     * post: rows from - startIndex to to - startIndex - 1 of the FeatureStore
+     * are populated.
+     */
+    private void grabSegment(int from, int to, DecodeProgress decodeProgress) throws Exception {
+        if (from >= to) {
+            return;
+        }
+        try (FFmpegFrameGrabber frameGrabber = startGrabber()) {
+            Frame tmp = grabFirst(frameGrabber, from, decodeProgress);
+            int[] previous = new int[intensityColumns];
+            int[] current = new int[intensityColumns];
+            int row = from - startIndex;
+            ThumbnailStore.Feed feed = thumbnailFeed(from);
+            for (int count = from; count < to && tmp != null; count++) {
+                calculateRow(tmp, current, decodeProgress);
+                features.setRow(row, current);
+                offerThumbnail(feed, count, tmp, count > from ? previous : null, current);
+                int[] swap = previous;
+                previous = current;
+                current = swap;
+                row++;
+                tmp = decodeProgress.grabImage(frameGrabber);
+            }
+            finishFeed(feed);
+        }
+    }
+
+    /**
+     * grabFirst method moves a started frameGrabber to the frame "from" and
+     * grabs it. The frame is reached with the frame index. Without one, which
+     * only happens for a segment when it could not be built, the frames
+     * before it are decoded and dropped.
+     * 
+     * pre: frameGrabber is started and positioned at frame 0
+     * 
+     * post: returns frame number "from", or null if the video is shorter.
+     */
+    private Frame grabFirst(FFmpegFrameGrabber frameGrabber, int from, DecodeProgress decodeProgress)
+            throws Exception {
+        if (from > 0 && frameIndex != null) {
+            frameIndex.seek(frameGrabber, from);
+        } else if (from > 0) {
+            return skipFrames(frameGrabber, from);
+        }
+        return decodeProgress.grabImage(frameGrabber);
+    }
+
+    /**
+     * seekToStart method moves a started frameGrabber to startIndex when a
+     * frame index is set.
+     * 
+     * pre: frameGrabber is started and positioned at frame 0
+     * 
+     * post: returns the number of the frame the next grabImage call returns.
+     */
+    private int seekToStart(FFmpegFrameGrabber frameGrabber) throws Exception {
+        if (frameIndex == null || startIndex == 0) {
+            return 0;
+        }
+        frameIndex.seek(frameGrabber, startIndex);
+        return startIndex;
+    }
+
+    /**
+     * skipFrames method decodes and drops frames until the frame with the
+     * given number is reached.
+     * 
+     * pre: frameGrabber is started and positioned at frame 0
+     * 
+     * post: returns frame number "frame", or null if the video is shorter.
+     */
+    private static Frame skipFrames(FFmpegFrameGrabber frameGrabber, int frame) throws Exception {
+        Frame tmp = frameGrabber.grabImage();
+        for (int count = 0; count < frame && tmp != null; count++) {
+            tmp = frameGrabber.grabImage();
+        }
+        return tmp;
+    }
+
+    /**
+     * grabFramesCoarseToFine method runs the two passes set by setCoarseToFine.
+     * 
+     * The sampled frames are compared in pairs, and every pair whose distance
+     * reaches the average distance of all pairs is a candidate region, as
+     * are the frames before the first and after the last sample. Only the
+     * candidate regions, widened by the window, have their histograms
+     * calculated frame by frame.
+     * 
+     * With PACKETS, the candidates and regular keyframes of a PacketPrescreen
+     * are the candidate regions instead, so no frame is decoded twice.
+     * 
+     * The distances outside the windows are filled with the stable distances
+     * measured inside them, which stand for the footage between the
+     * candidates with both its mean and its spread. So the thresholds of
+     * ReadShots stay close to those of the full analysis while no boundary is
+     * found outside the windows. The frames are not written to the histogram cache, but a
+     * fully cached range is read from it.
+     * 
+     * pre: videoFile value is declared
+     * 
+     * post: it calculates the frame distance between the adjacent frames.
+     */
+    private void grabFramesCoarseToFine() {
+        if (loadCachedFrames()) {
+            new DecodeProgress(0).finish();
+            return;
+        }
+        if (coarseStep == PACKETS) {
+            grabWindowsWithFill(packetWindows());
+            return;
+        }
+        int frames = endIndex - startIndex;
+        DecodeProgress coarseProgress = new DecodeProgress(
+                coarseStep == KEYFRAMES ? ProgressListener.UNKNOWN : (frames + coarseStep - 1) / coarseStep + 1);
+        List<Integer> samples = new ArrayList<>();
+        int end = endIndex;
+        try {
+            end = coarseStep == KEYFRAMES ? sampleKeyFrames(samples, coarseProgress)
+                    : sampleFrames(samples, coarseProgress);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        coarseProgress.finish();
+
+        grabWindowsWithFill(candidateWindows(samples, end));
+    }
+
+    /**
+     * grabWindowsWithFill method calculates the histograms of every frame of
+     * the windows and the distances of the whole range.
+     * 
+     * pre: the windows are in frame order and do not overlap
+     * 
+     * post: the distances inside the windows are measured and the others are
+     * filled in by fillDistances.
+     */
+    private void grabWindowsWithFill(List<int[]> windows) {
+        int windowFrames = 0;
+        for (int[] window : windows) {
+            windowFrames += window[1] - window[0];
+        }
+        DecodeProgress denseProgress = new DecodeProgress(windowFrames);
+        try {
+            grabWindows(windows, denseProgress);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        CalculateUtil.calculateManhattanDistance(features);
+        fillDistances(windows);
+        denseProgress.finish();
+    }
+
+    /**
+     * sampleFrames method decodes the frames from startIndex to endIndex and
+     * calculates the histograms of every coarseStep-th frame and of the last
+     * frame. The other frames are decoded but not converted.
+     * 
+     * pre: coarseStep is at least 1
+     * 
+     * post: the sampled rows are stored, samples holds their frame numbers
+     * and the end of the decoded frames is returned.
+     */
+    private int sampleFrames(List<Integer> samples, DecodeProgress decodeProgress) throws Exception {
+        int[] row = new int[intensityColumns];
+        try (FFmpegFrameGrabber frameGrabber = startGrabber(false)) {
+            int count = seekToStart(frameGrabber);
+            while (count < endIndex) {
+                boolean sample = count >= startIndex
+                        && ((count - startIndex) % coarseStep == 0 || count == endIndex - 1);
+                Frame tmp = decodeProgress.grabFrame(frameGrabber, sample);
+                if (tmp == null) {
+                    break;
+                }
+                if (sample) {
+                    calculateRow(tmp, row, decodeProgress);
+                    features.setRow(count - startIndex, row);
+                    samples.add(count);
+                }
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * sampleKeyFrames method lets the decoder skip every frame that is not a
+     * keyframe and calculates the histograms of the keyframes from startIndex
+     * to endIndex. Their frame numbers follow from their timestamps.
+     * 
+     * pre: none
+     * 
+     * post: the sampled rows are stored, samples holds their frame numbers
+     * and the end of the frames of the range is returned.
+     */
+    private int sampleKeyFrames(List<Integer> samples, DecodeProgress decodeProgress) throws Exception {
+        int[] row = new int[intensityColumns];
+        try (FFmpegFrameGrabber frameGrabber = startGrabber(true)) {
+            double frameRate = frameGrabber.getVideoFrameRate();
+            long startTime = Math.max(frameGrabber.getFormatContext().start_time(), 0);
+            Frame tmp = decodeProgress.grabImage(frameGrabber);
+            while (tmp != null) {
+                int frame = (int) Math.round((tmp.timestamp - startTime) * frameRate / 1000000);
+                if (frame >= endIndex) {
+                    break;
+                }
+                if (frame >= startIndex && (samples.isEmpty() || frame > samples.get(samples.size() - 1))) {
+                    calculateRow(tmp, row, decodeProgress);
+                    features.setRow(frame - startIndex, row);
+                    samples.add(frame);
+                }
+                tmp = decodeProgress.grabImage(frameGrabber);
+            }
+        }
+        return frameIndex == null ? endIndex : Math.min(endIndex, frameIndex.frameCount());
+    }
+
+    /**
+     * candidateWindows method finds the frame ranges to decode frame by frame
+     * from the sampled histograms.
+     * 
+     * pre: the rows of the samples are stored and end is the end of the frames
+     * of the range
+     * 
+     * post: returns the {first frame, end frame} ranges in frame order, which
+     * do not overlap.
+     */
+    private List<int[]> candidateWindows(List<Integer> samples, int end) {
+        List<int[]> windows = new ArrayList<>();
+        if (samples.size() < 2) {
+            windows.add(new int[] { startIndex, end });
+            return windows;
+        }
+        int[] previous = new int[intensityColumns];
+        int[] current = new int[intensityColumns];
+        int[] distance = new int[samples.size() - 1];
+        double average = 0;
+        features.getRow(samples.get(0) - startIndex, previous);
+        for (int i = 0; i < distance.length; i++) {
+            features.getRow(samples.get(i + 1) - startIndex, current);
+            distance[i] = CalculateUtil.calculateManhattanDistance(previous, current);
+            average += distance[i];
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        average /= distance.length;
+
+        // the frames before the first and after the last sample are not known
+        if (samples.get(0) > startIndex) {
+            addWindow(windows, startIndex, samples.get(0) + coarseWindow + 1, end);
+        }
+        for (int i = 0; i < distance.length; i++) {
+            if (distance[i] >= average) {
+                addWindow(windows, samples.get(i) - coarseWindow, samples.get(i + 1) + coarseWindow + 1, end);
+            }
+        }
+        int last = samples.get(samples.size() - 1);
+        if (last < end - 1) {
+            addWindow(windows, last - coarseWindow, end, end);
+        }
+        // the first pair is decoded anyway, so the stable distances are known
+        if (windows.isEmpty()) {
+            addWindow(windows, samples.get(0), samples.get(1) + 1, end);
+        }
+        return windows;
+    }
+
+    /**
+     * packetWindows method screens the packets of the range with a
+     * PacketPrescreen and returns the windows around its candidates and
+     * regular keyframes.
+     * 
+     * pre: videoFile value is declared
+     * 
+     * post: returns the {first frame, end frame} ranges in frame order, which
+     * do not overlap.
+     */
+    private List<int[]> packetWindows() {
+        List<int[]> windows = new ArrayList<>();
+        try {
+            if (frameIndex == null) {
+                frameIndex = FrameIndex.load(videoFile);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            windows.add(new int[] { startIndex, endIndex });
+            return windows;
+        }
+        int end = Math.min(endIndex, frameIndex.frameCount());
+        PacketPrescreen prescreen = new PacketPrescreen(frameIndex, startIndex, end);
+        int[] candidates = prescreen.rank(PacketPrescreen.DEFAULT_THRESHOLD);
+        int[] keyFrames = prescreen.regularKeyFrames();
+        int[] frames = Arrays.copyOf(candidates, candidates.length + keyFrames.length);
+        System.arraycopy(keyFrames, 0, frames, candidates.length, keyFrames.length);
+        Arrays.sort(frames);
+        for (int frame : frames) {
+            addWindow(windows, frame - coarseWindow, frame + coarseWindow + 1, end);
+        }
+        // the stable distances are measured at the start when there are no
+        // candidates
+        if (windows.isEmpty()) {
+            addWindow(windows, startIndex, startIndex + 2 * coarseWindow + 2, end);
+        }
+        return windows;
+    }
+
+    /**
+     * addWindow method adds the range from "from" to "to" (exclusive), cut to
+     * the frames of the range, after the other windows. It is merged into the
+     * last window when they overlap or touch.
+     * 
+     * pre: from is not before the first frame of the last window
+     * 
+     * post: the range is covered by windows.
+     */
+    private void addWindow(List<int[]> windows, int from, int to, int end) {
+        from = Math.max(from, startIndex);
+        to = Math.min(to, end);
+        if (from >= to) {
+            return;
+        }
+        if (!windows.isEmpty()) {
+            int[] last = windows.get(windows.size() - 1);
+            if (from <= last[1]) {
+                last[1] = Math.max(last[1], to);
+                return;
+            }
+        }
+        windows.add(new int[] { from, to });
+    }
+
+    /**
+     * grabWindows method calculates the histograms of every frame of the
+     * windows with one grabber. The frames between two windows are decoded
+     * without being converted, unless a keyframe lies between them, in which
+     * case the grabber seeks to the next window with the frame index.
+     * 
+     * pre: the windows are in frame order and do not overlap
+     * 
+     * post: the rows of every frame of the windows are stored.
+     */
+    private void grabWindows(List<int[]> windows, DecodeProgress decodeProgress) throws Exception {
+        int[] previous = new int[intensityColumns];
+        int[] current = new int[intensityColumns];
+        try (FFmpegFrameGrabber frameGrabber = startGrabber()) {
+            // number of the frame the next grab returns
+            int position = seekToStart(frameGrabber);
+            for (int[] window : windows) {
+                if (frameIndex != null && frameIndex.keyFrameAtOrBefore(window[0]) > position) {
+                    frameIndex.seek(frameGrabber, window[0]);
+                    position = window[0];
+                }
+                Frame tmp = null;
+                for (; position <= window[0]; position++) {
+                    tmp = decodeProgress.grabFrame(frameGrabber, position == window[0]);
+                    if (tmp == null) {
+                        return;
+                    }
+                }
+                ThumbnailStore.Feed feed = thumbnailFeed(window[0]);
+                for (int count = window[0]; tmp != null; count++) {
+                    calculateRow(tmp, current, decodeProgress);
+                    features.setRow(count - startIndex, current);
+                    offerThumbnail(feed, count, tmp, count > window[0] ? previous : null, current);
+                    int[] swap = previous;
+                    previous = current;
+                    current = swap;
+                    if (count + 1 == window[1]) {
                         break;
                     }
-                    tmp = frameGrabber.grabImage();
-                    count++;
+                    tmp = decodeProgress.grabImage(frameGrabber);
+                    position++;
                 }
-            } catch (org.bytedeco.javacv.FFmpegFrameGrabber.Exception e) {
-                throw e;
-            } catch (Exception e) {
-                e.printStackTrace();
+                finishFeed(feed);
+            }
+        }
+    }
+
+    /**
+     * fillDistances method sets every distance that is not between two frames
+     * of the same window to the stable distances measured inside the windows,
+     * those up to twice their median, taken one after the other in frame
+     * order and starting over when they run out. A single fill value would
+     * keep the mean but shrink the standard deviation, and with it the cut
+     * threshold of ReadShots, while the repeated distances spread like the
+     * stable footage the filled frames stand for. Leaving out the larger
+     * distances keeps the candidates the windows were opened for from being
+     * repeated as boundaries outside them.
+     * 
+     * pre: the distances are calculated and the windows do not overlap
+     * 
+     * post: only the distances inside the windows depend on the frames.
+     */
+    private void fillDistances(List<int[]> windows) {
+        int count = 0;
+        for (int[] window : windows) {
+            count += Math.max(window[1] - window[0] - 1, 0);
+        }
+        int[] measured = new int[count];
+        count = 0;
+        for (int[] window : windows) {
+            for (int i = window[0] - startIndex; i < window[1] - startIndex - 1; i++) {
+                measured[count++] = features.distance(i);
             }
-        } catch (org.bytedeco.javacv.FFmpegFrameGrabber.Exception e) {
+        }
+        int[] sorted = measured.clone();
+        Arrays.sort(sorted);
+        long limit = count == 0 ? 0 : 2L * sorted[count / 2];
+        int stableCount = 0;
+        for (int distance : measured) {
+            if (distance <= limit) {
+                measured[stableCount++] = distance;
+            }
+        }
+        int next = 0;
+        int i = 0;
+        for (int[] window : windows) {
+            for (; i < window[0] - startIndex; i++) {
+                features.setDistance(i, stableCount == 0 ? 0 : measured[next++ % stableCount]);
+            }
+            i = Math.max(i, window[1] - startIndex - 1);
+        }
+        for (; i < features.distanceCount(); i++) {
+            features.setDistance(i, stableCount == 0 ? 0 : measured[next++ % stableCount]);
+        }
+    }
+
+    /**
+     * grabSegmentPipelined method decodes the frames from "from" to "to"
+     * (exclusive) on the calling thread and copies each one into a free buffer
+     * of the ring set by setPipeline, while the worker threads calculate the
+     * pixel values of the filled buffers into the row of their frame. When
+     * all buffers are in use the decoder waits. The number of filled buffers
+     * waiting for a worker is reported as the queue depth of DECODE. With a
+     * thumbnail store the workers hand the calculated buffers back through
+     * a ThumbnailOrder, which feeds them to the store in frame order before
+     * they are reused, so the ring holds the recent frames the store needs.
+     * 
+     * pre: from and to lie between startIndex and endIndex, setPipeline was
+     * called
+     * 
+     * post: rows from - startIndex to to - startIndex - 1 of the FeatureStore
+     * are populated, or IllegalStateException is thrown if a worker failed.
+     */
+    private void grabSegmentPipelined(int from, int to, DecodeProgress decodeProgress)
+            throws Exception, InterruptedException {
+        if (from >= to) {
+            return;
+        }
+        BlockingQueue<FrameSlot> free = new ArrayBlockingQueue<>(pipelineBuffers);
+        BlockingQueue<FrameSlot> filled = new ArrayBlockingQueue<>(pipelineBuffers + pipelineWorkers);
+        for (int i = 0; i < pipelineBuffers; i++) {
+            free.add(new FrameSlot());
+        }
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        ThumbnailOrder order = thumbnailStore == null ? null : new ThumbnailOrder(from, free, failure);
+        BlockingQueue<FrameSlot> calculated = order == null ? free : order.done;
+        ExecutorService pool = Executors.newFixedThreadPool(pipelineWorkers);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < pipelineWorkers; i++) {
+            results.add(pool.submit(() -> calculateSlots(calculated, filled, failure, decodeProgress)));
+        }
+        try {
+            try (FFmpegFrameGrabber frameGrabber = startGrabber()) {
+                Frame tmp = grabFirst(frameGrabber, from, decodeProgress);
+                for (int count = from; count < to && tmp != null && failure.get() == null; count++) {
+                    FrameSlot slot = order == null ? free.take() : order.takeFree();
+                    slot.copy(tmp, count - startIndex);
+                    filled.put(slot);
+                    if ((count - from) % decodeProgress.step == 0 && progressListener != null) {
+                        progressListener.queueDepth(ProgressListener.DECODE, filled.size());
+                    }
+                    tmp = decodeProgress.grabImage(frameGrabber);
+                }
+            } finally {
+                // filled has room for the END slots whatever it holds
+                for (int i = 0; i < pipelineWorkers; i++) {
+                    filled.put(FrameSlot.END);
+                }
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            if (order != null) {
+                order.drain();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            if (order != null) {
+                order.feed.finish();
+            }
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException(failure.get());
+        }
+    }
+
+    /**
+     * calculateSlots method is the loop of a pipeline worker. It calculates the
+     * pixel values of every filled buffer into its own scratch row, stores the
+     * row and hands the buffer back to the decoder through free. After the
+     * first failure of any worker the buffers are only handed back, so the
+     * decoder stops.
+     * 
+     * pre: free and filled are the queues of grabSegmentPipelined
+     * 
+     * post: returns once the END slot is taken from filled.
+     */
+    private void calculateSlots(BlockingQueue<FrameSlot> free, BlockingQueue<FrameSlot> filled,
+            AtomicReference<RuntimeException> failure, DecodeProgress decodeProgress) {
+        int[] row = new int[intensityColumns];
+        try {
+            FrameSlot slot = filled.take();
+            while (slot != FrameSlot.END) {
+                try {
+                    if (failure.get() == null) {
+                        long time = System.nanoTime();
+                        IntensityHistogram.histogram(slot.data, slot.width, slot.height, slot.channels,
+                                slot.stride, pixelStep, row);
+                        normalise(row);
+                        features.setRow(slot.row, row);
+                        decodeProgress.calculated(System.nanoTime() - time);
+                    }
+                } catch (RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    free.put(slot);
+                }
+                slot = filled.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * ThumbnailOrder puts the buffers calculated by the pipeline workers back
+     * into frame order for the thumbnail store. It is only used by the
+     * decoding thread.
+     */
+    private class ThumbnailOrder {
+        // Buffers the workers have calculated
+        final BlockingQueue<FrameSlot> done;
+        final ThumbnailStore.Feed feed;
+        private final BlockingQueue<FrameSlot> free;
+        private final AtomicReference<RuntimeException> failure;
+        // Calculated buffers of frames after the next one to feed
+        private final PriorityQueue<FrameSlot> waiting;
+        private final int firstRow;
+        private final int[] previous;
+        private final int[] current;
+        private int next;
+
+        /**
+         * constructor
+         * 
+         * pre: free holds the buffers of the pipeline decoding from "from"
+         * 
+         * post: sets up an order whose next frame is from.
+         */
+
+        ThumbnailOrder(int from, BlockingQueue<FrameSlot> free, AtomicReference<RuntimeException> failure) {
+            this.free = free;
+            this.failure = failure;
+            done = new ArrayBlockingQueue<>(pipelineBuffers);
+            feed = thumbnailStore.feed(from);
+            waiting = new PriorityQueue<>(Comparator.comparingInt((FrameSlot slot) -> slot.row));
+            firstRow = from - startIndex;
+            previous = new int[intensityColumns];
+            current = new int[intensityColumns];
+            next = firstRow;
+        }
+
+        /**
+         * takeFree method returns a free buffer, feeding calculated buffers to
+         * the store until one is handed back.
+         * 
+         * pre: none
+         * 
+         * post: returns a buffer the decoder may fill.
+         */
+        FrameSlot takeFree() throws InterruptedException {
+            FrameSlot slot = free.poll();
+            while (slot == null) {
+                order(done.take());
+                slot = free.poll();
+            }
+            return slot;
+        }
+
+        /**
+         * drain method feeds the buffers left once the workers are done.
+         * 
+         * pre: every worker has returned
+         * 
+         * post: every calculated buffer is fed and free again.
+         */
+        void drain() throws InterruptedException {
+            FrameSlot slot = done.poll();
+            while (slot != null) {
+                order(slot);
+                slot = done.poll();
+            }
+        }
+
+        private void order(FrameSlot calculated) throws InterruptedException {
+            waiting.add(calculated);
+            while (!waiting.isEmpty() && waiting.peek().row == next) {
+                FrameSlot slot = waiting.poll();
+                if (failure.get() == null) {
+                    features.getRow(slot.row, current);
+                    offerThumbnail(feed, slot.row + startIndex, slot.frame(), next > firstRow ? previous : null,
+                            current);
+                    System.arraycopy(current, 0, previous, 0, current.length);
+                }
+                next++;
+                free.put(slot);
+            }
+        }
+    }
+
+    /**
+     * FrameSlot is one recycled buffer of the pipeline. It holds a copy of the
+     * image of a decoded frame together with the FeatureStore row it belongs
+     * to.
+     */
+    private static class FrameSlot {
+        // Marks the end of the frames for a worker
+        static final FrameSlot END = new FrameSlot();
+
+        ByteBuffer data = ByteBuffer.allocate(0);
+        int width;
+        int height;
+        int channels;
+        int stride;
+        int row;
+        private Frame frame;
+
+        /**
+         * copy method copies the image of frame into this slot, growing the
+         * buffer only when the frame is bigger than any frame seen before.
+         * 
+         * pre: frame holds an 8 bit image
+         * 
+         * post: the slot holds the image of frame for the given row.
+         */
+        void copy(Frame frame, int row) {
+            int size = frame.imageStride * frame.imageHeight;
+            if (data.capacity() < size) {
+                data = ByteBuffer.allocate(size);
+            }
+            ByteBuffer image = ((ByteBuffer) frame.image[0]).duplicate();
+            image.clear().limit(size);
+            data.clear();
+            data.put(image);
+            width = frame.imageWidth;
+            height = frame.imageHeight;
+            channels = frame.imageChannels;
+            stride = frame.imageStride;
+            this.row = row;
+        }
+
+        /**
+         * frame method returns a Frame over the image held by this slot, which
+         * is only valid until the slot is filled again.
+         * 
+         * pre: copy was called
+         * 
+         * post: returns the frame of the slot.
+         */
+        Frame frame() {
+            if (frame == null) {
+                frame = new Frame();
+            }
+            frame.imageWidth = width;
+            frame.imageHeight = height;
+            frame.imageDepth = Frame.DEPTH_UBYTE;
+            frame.imageChannels = channels;
+            frame.imageStride = stride;
+            frame.image = new Buffer[] { data.duplicate().flip() };
+            return frame;
+        }
+    }
+
+    /**
+     * streamFrames method decodes the frames from startIndex on and hands the
+     * distance of every frame to its previous frame to the detector as soon as
+     * the frame is decoded. Only the histograms of the last two frames are
+     * kept, so memory does not grow with the length of the video and
+     * endIndex may be Integer.MAX_VALUE for live or very long inputs.
+     * 
+     * pre: videoFile value is declared and the detector was created with
+     * startIndex as its start frame
+     * 
+     * post: every distance is passed to the detector, then detector.finish is
+     * called. An interrupt stops the decoding early.
+     */
+    public void streamFrames(StreamingShotDetector detector) {
+        int[] previous = new int[intensityColumns];
+        int[] current = new int[intensityColumns];
+        DecodeProgress decodeProgress = new DecodeProgress(
+                endIndex == Integer.MAX_VALUE ? ProgressListener.UNKNOWN : endIndex - startIndex);
+        try (FFmpegFrameGrabber frameGrabber = startGrabber()) {
+            int count = seekToStart(frameGrabber);
+            Frame tmp = decodeProgress.grabImage(frameGrabber);
+            ThumbnailStore.Feed feed = thumbnailFeed(startIndex);
+            while (tmp != null && count < endIndex && !Thread.currentThread().isInterrupted()) {
+                if (count >= startIndex) {
+                    calculateRow(tmp, current, decodeProgress);
+                    offerThumbnail(feed, count, tmp, count > startIndex ? previous : null, current);
+                    if (count > startIndex) {
+                        detector.accept(CalculateUtil.calculateManhattanDistance(previous, current));
+                    }
+                    int[] swap = previous;
+                    previous = current;
+                    current = swap;
+                }
+                tmp = decodeProgress.grabImage(frameGrabber);
+                count++;
+            }
+            finishFeed(feed);
+        } catch (Exception e) {
             e.printStackTrace();
         }
-        frameDistance = CalculateUtil.calculateManhattanDistance(intensityMatrix);
+        decodeProgress.finish();
+        detector.finish();
+    }
+
+    /**
+     * startGrabber method opens and starts a grabber on videoFile with the
+     * pixel format and analysis size of this ReadFrames.
+     * 
+     * pre: videoFile value is declared
+     * 
+     * post: returns the started grabber and records the full resolution pixel
+     * count of the video.
+     */
+    private FFmpegFrameGrabber startGrabber() throws Exception {
+        return startGrabber(false);
+    }
+
+    /**
+     * startGrabber method opens and starts a grabber that, when keyFramesOnly
+     * is true, asks the decoder to skip every frame that is not a keyframe.
+     * 
+     * pre: videoFile value is declared
+     * 
+     * post: returns the started grabber.
+     */
+    private FFmpegFrameGrabber startGrabber(boolean keyFramesOnly) throws Exception {
+        FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoFile);
+        if (keyFramesOnly) {
+            frameGrabber.setVideoOption("skip_frame", "nokey");
+        }
+        if (grayscale) {
+            frameGrabber.setPixelFormat(avutil.AV_PIX_FMT_GRAY8);
+        }
+        if (analysisWidth > 0) {
+            frameGrabber.setImageWidth(analysisWidth);
+            frameGrabber.setImageHeight(analysisHeight);
+        }
+        try {
+            frameGrabber.start();
+        } catch (Exception e) {
+            frameGrabber.close();
+            throw e;
+        }
+        AVFormatContext formatContext = frameGrabber.getFormatContext();
+        AVCodecParameters codec = formatContext.streams(FrameIndex.videoStreamOf(formatContext)).codecpar();
+        sourcePixels = (long) codec.width() * codec.height();
+        return frameGrabber;
+    }
+
+    /**
+     * thumbnailFeed method starts a feed of the thumbnail store for a run of
+     * consecutive frames.
+     * 
+     * pre: firstFrame is the first frame of the run
+     * 
+     * post: returns the feed, null when no thumbnail store is set.
+     */
+    private ThumbnailStore.Feed thumbnailFeed(int firstFrame) {
+        return thumbnailStore == null ? null : thumbnailStore.feed(firstFrame);
+    }
+
+    /**
+     * offerThumbnail method hands a decoded frame and its distance to the
+     * previous frame to the feed of its run, when there is one.
+     * 
+     * pre: row holds the intensity values of the frame, previousRow those of
+     * the frame before or null if they are not known
+     * 
+     * post: the feed has seen the frame.
+     */
+    private static void offerThumbnail(ThumbnailStore.Feed feed, int frame, Frame image, int[] previousRow,
+            int[] row) {
+        if (feed != null) {
+            feed.frame(frame, previousRow == null ? ThumbnailStore.NO_DISTANCE
+                    : CalculateUtil.calculateManhattanDistance(previousRow, row), image);
+        }
+    }
+
+    private static void finishFeed(ThumbnailStore.Feed feed) {
+        if (feed != null) {
+            feed.finish();
+        }
+    }
+
+    /**
+     * calculateRow method calculates the pixel values of a frame into one row
+     * of histogram values, sampling and normalising it as configured.
+     * 
+     * pre: a grabber was started by startGrabber
+     * 
+     * post: row holds the intensity values of the frame and the frame is
+     * counted by decodeProgress.
+     */
+    private void calculateRow(Frame frame, int[] row, DecodeProgress decodeProgress) {
+        long time = System.nanoTime();
+        IntensityHistogram.histogram(frame, pixelStep, row);
+        normalise(row);
+        decodeProgress.calculated(System.nanoTime() - time);
+    }
+
+    /**
+     * normalise method scales a histogram of a scaled down or sampled frame to
+     * the pixel count of the full resolution frame, so the frame distances and
+     * the ReadShots thresholds keep the same magnitude in every mode. Full
+     * resolution histograms are left untouched.
+     * 
+     * pre: row holds the intensity values of one frame
+     * 
+     * post: the bins of row add up to the full resolution pixel count.
+     */
+    private void normalise(int[] row) {
+        if (analysisWidth > 0 || pixelStep > 1) {
+            IntensityHistogram.normalise(row, sourcePixels);
+        }
+    }
+
+    /**
+     * DecodeProgress counts the frames of one grab method run and the time
+     * spent decoding and histogramming them, and reports them to the
+     * progressListener. It is shared by the threads of the run.
+     */
+    private class DecodeProgress {
+        final int total;
+        // Frames between two progress calls
+        final int step;
+        final long start;
+        final AtomicInteger frames;
+        final LongAdder decodeNanos;
+        final LongAdder histogramNanos;
+
+        DecodeProgress(int total) {
+            this.total = total;
+            step = total == ProgressListener.UNKNOWN ? 100 : Math.max(1, total / 100);
+            start = System.nanoTime();
+            frames = new AtomicInteger();
+            decodeNanos = new LongAdder();
+            histogramNanos = new LongAdder();
+        }
+
+        /**
+         * grabImage method grabs the next image of frameGrabber and counts the
+         * time it took as decoding time.
+         * 
+         * pre: frameGrabber is started
+         * 
+         * post: returns the next image, null at the end of the video.
+         */
+        Frame grabImage(FFmpegFrameGrabber frameGrabber) throws Exception {
+            long time = System.nanoTime();
+            Frame frame = frameGrabber.grabImage();
+            decodeNanos.add(System.nanoTime() - time);
+            return frame;
+        }
+
+        /**
+         * grabFrame method decodes the next video frame of frameGrabber, and
+         * only converts it to an image when process is true.
+         * 
+         * pre: frameGrabber is started
+         * 
+         * post: returns the next frame, null at the end of the video.
+         */
+        Frame grabFrame(FFmpegFrameGrabber frameGrabber, boolean process) throws Exception {
+            long time = System.nanoTime();
+            Frame frame = frameGrabber.grabFrame(false, true, process, false, false);
+            decodeNanos.add(System.nanoTime() - time);
+            return frame;
+        }
+
+        /**
+         * calculated method counts a histogrammed frame and reports the
+         * progress every step frames.
+         * 
+         * pre: nanos is the time the histogram took
+         * 
+         * post: the frame is counted.
+         */
+        void calculated(long nanos) {
+            histogramNanos.add(nanos);
+            int done = frames.incrementAndGet();
+            if (progressListener != null && done % step == 0) {
+                progressListener.progress(ProgressListener.DECODE, done, total);
+            }
+        }
+
+        /**
+         * finish method reports the end of the run.
+         * 
+         * pre: no more frames are counted
+         * 
+         * post: progressListener is told the run is done and its metrics.
+         */
+        void finish() {
+            if (progressListener != null) {
+                progressListener.progress(ProgressListener.DECODE, frames.get(),
+                        total == ProgressListener.UNKNOWN ? frames.get() : Math.max(total, frames.get()));
+                progressListener.framesDecoded(frames.get(), decodeNanos.sum(), histogramNanos.sum(),
+                        System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * allocateFeatures method allocates the FeatureStore with one row per
+     * frame of the range the first time it is needed, in the spill directory
+     * when one is set. If the spill file cannot be created the store is kept
+     * in memory.
+     * 
+     * pre: endIndex - startIndex is a bounded range
+     * 
+     * post: features is allocated.
+     */
+    private void allocateFeatures() {
+        if (features != null) {
+            return;
+        }
+        int frames = endIndex - startIndex;
+        if (spillDirectory != null) {
+            try {
+                features = FeatureStore.spill(frames, spillDirectory);
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        features = new FeatureStore(frames);
     }
 }
@@ -5,51 +5,160 @@
  * It is responsible for seting the thresholds, detecting the cut and
  * detecting the gradual transitions
  * 
+ * The boundaries are collected as packed longs and handed out as an
+ * immutable ShotIndex, so the result can be read any number of times.
+ * 
  * @author Divya Kamath
  */
 
-import java.util.PriorityQueue;
+import java.util.Arrays;
 
 public class ReadShots {
-    private final int[] frameDistance;
+    private final FeatureStore features;
     private final double[] avgSD;
     private double cutThreshold;
     private double gtThreshold;
+    private double cutMultiplier;
+    private double gtMultiplier;
+    // Whether avgSD and the prefix sums of features were calculated by the
+    // caller, who may share them between threads
+    private final boolean shared;
     private final int gtTor;
     private final int startFrame;
-    protected static PriorityQueue<int[]> shots;
+    private long[] boundaries;
+    private int boundaryCount;
+    private boolean verbose;
+    private ProgressListener progressListener;
+    private int cuts;
+    private int gradualTransitions;
+    private long detectionNanos;
+    // Marks that no transition or quiet run is open
+    private static final int NONE = -1;
 
     /**
      * constructor
      * 
-     * pre: startFrame and gtTor values are declared.
+     * pre: frameDistance is calculated by ReadFrames, startFrame and gtTor values
+     * are declared.
      * 
      * post: Sets up the frameDistance, strtFrame and gtTor value. It also
-     * initialises shots and avgSD arrays.
+     * initialises boundaries and avgSD arrays.
+     */
+
+    ReadShots(int[] frameDistance, int startFrame, int gtTor) {
+        this(FeatureStore.ofDistances(frameDistance), startFrame, gtTor);
+    }
+
+    /**
+     * constructor
+     * 
+     * pre: the distances of features are calculated by ReadFrames, startFrame
+     * and gtTor values are declared.
+     * 
+     * post: detects the shots on the distances of features without copying
+     * them onto the heap.
+     */
+
+    ReadShots(FeatureStore features, int startFrame, int gtTor) {
+        this(features, new double[2], false, startFrame, gtTor);
+    }
+
+    /**
+     * constructor
+     * 
+     * pre: avgSD holds the average and SD of the distances of features, and
+     * the prefix sums of features are calculated.
+     * 
+     * post: sets up a detector that only reads features and avgSD, so many
+     * of them can run over the same distances at the same time.
      */
 
-    ReadShots(int startFrame, int gtTor) {
-        frameDistance = ReadFrames.frameDistance;
-        avgSD = new double[2];
-        shots = new PriorityQueue<>((a, b) -> ((int[]) a)[0] - ((int[]) b)[0]);
+    ReadShots(FeatureStore features, double[] avgSD, int startFrame, int gtTor) {
+        this(features, avgSD.clone(), true, startFrame, gtTor);
+    }
+
+    private ReadShots(FeatureStore features, double[] avgSD, boolean shared, int startFrame, int gtTor) {
+        this.features = features;
+        this.avgSD = avgSD;
+        this.shared = shared;
+        verbose = true;
+        boundaries = new long[16];
+        cutMultiplier = 11;
+        gtMultiplier = 2;
         this.startFrame = startFrame;
         this.gtTor = gtTor;
     }
 
+    /**
+     * setMultipliers method changes the threshold formulas to
+     * mean + cutMultiplier * SD for cuts and gtMultiplier * mean for gradual
+     * transitions.
+     * 
+     * pre: called before setThreshold
+     * 
+     * post: the multipliers are set.
+     */
+    public void setMultipliers(double cutMultiplier, double gtMultiplier) {
+        this.cutMultiplier = cutMultiplier;
+        this.gtMultiplier = gtMultiplier;
+    }
+
+    /**
+     * setVerbose method turns the printing of every detected cut and gradual
+     * transition on or off, so concurrent analyses do not interleave output.
+     * 
+     * pre: none
+     * 
+     * post: shots are printed only when verbose is true.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * setProgressListener method sets the listener told how far the detection
+     * is, and how many shots it found in how much time once
+     * detectGradualTransition is done.
+     * 
+     * pre: none
+     * 
+     * post: the detect methods report to progressListener.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * getShotIndex method returns the detected Cs Ce and Fs Fe values ordered
+     * by their first frame, together with the shots between them.
+     * 
+     * pre: detectCuts and detectGradualTransition have run.
+     * 
+     * post: returns a new ShotIndex over the frames of the distances.
+     */
+    public ShotIndex getShotIndex() {
+        return new ShotIndex(boundaries, boundaryCount, startFrame, startFrame + features.frames());
+    }
+
     /**
      * setThreshold method is responsible to set the cut, gradual transition
      * thresholds
      * Formula : For Cut : Tb = mean(SD) + std(SD) * 11;
      * For Gradual Transition Ts = mean(SD) * 2;
+     * The multipliers 11 and 2 can be changed with setMultipliers.
      * 
      * pre: initialise avgSD array and populate frame distance array.
      * 
      * post: cutThreshold and gtThreshold values are declared.
      */
     public void setThreshold() {
-        CalculateUtil.calculateAvgSD(frameDistance, avgSD);
-        cutThreshold = avgSD[0] + (avgSD[1] * 11);
-        gtThreshold = avgSD[0] * 2;
+        long time = System.nanoTime();
+        if (!shared) {
+            CalculateUtil.calculateAvgSD(features, avgSD);
+        }
+        cutThreshold = avgSD[0] + (avgSD[1] * cutMultiplier);
+        gtThreshold = avgSD[0] * gtMultiplier;
+        detectionNanos += System.nanoTime() - time;
     }
 
     /**
@@ -58,96 +167,155 @@ public class ReadShots {
      * 
      * pre: cutThreshold and framedistance values are calculated.
      * 
-     * post:Adds Cs and Ce values into shots queue.
+     * post:Adds Cs and Ce values into the boundaries.
      * 
      */
     public void detectCuts() {
-        System.out.println("CUTS:");
-        for (int i = 0; i < frameDistance.length; i++) {
-            if (frameDistance[i] >= cutThreshold) {
-                shots.add(new int[] { i + startFrame, i + startFrame + 1 });
-                System.out.println("Cs : " + (i + startFrame) + "     Ce : " + (i + startFrame + 1));
+        long time = System.nanoTime();
+        print("CUTS:");
+        int length = features.distanceCount();
+        for (int i = 0; i < length; i++) {
+            if (features.distance(i) >= cutThreshold) {
+                addBoundary(i + startFrame, i + startFrame + 1, false);
+                cuts++;
+                print("Cs : " + (i + startFrame) + "     Ce : " + (i + startFrame + 1));
             }
         }
+        detectionNanos += System.nanoTime() - time;
+        if (progressListener != null) {
+            progressListener.progress(ProgressListener.DETECT, 1, 2);
+        }
     }
 
     /**
      * detectGradualTransition method is responsible to capture the Fs and Fe frames
      * according to Twin comparision algorithm
      * 
+     * It walks the frame distances once as a state machine. A distance between
+     * the two thresholds opens a potential transition. The transition ends at a
+     * cut, or at a run of gtTor distances below gtThreshold, and is kept if its
+     * distances add up to the cutThreshold. The sums come from the prefix sums
+     * of the FeatureStore, so each check is O(1) and long transitions cannot
+     * overflow.
+     * Frames past the end of the distances count as below gtThreshold.
+     * 
      * pre: gtThreshold and framedistance values are calculated. Also, the Tor value
      * is set.
      * 
-     * post:Adds Fs and Fe values into shots queue.
+     * post:Adds Fs and Fe values into the boundaries.
      * 
      */
     public void detectGradualTransition() {
-        int potentialStart = Integer.MAX_VALUE;
-        System.out.println("Gradual Transition");
-        for (int i = 0; i < frameDistance.length; i++) {
-            if (frameDistance[i] >= gtThreshold && frameDistance[i] < cutThreshold) {
-                potentialStart = Math.min(potentialStart, i);
-                for (int j = potentialStart + 1; j < frameDistance.length; j++) {
-                    if (frameDistance[j] < gtThreshold) {
-                        int torCount = 1;
-                        while (torCount <= gtTor) {
-                            if (frameDistance[j + torCount] < gtThreshold) {
-                                torCount++;
-                            } else {
-                                break;
-                            }
-                        }
-                        if (torCount >= gtTor) {
-                            if (isRealTransition(potentialStart, j - 1)) {
-                                shots.add(new int[] { potentialStart + startFrame, j - 1 + startFrame });
-                                System.out.println(
-                                        "Fs : " + (potentialStart + startFrame) + " Fe : " + (j - 1 + startFrame));
-                            }
-                            j += torCount;
-                            i = j;
-                            potentialStart = Integer.MAX_VALUE;
-                            break;
-                        }
-
-                    } else if (frameDistance[j] >= cutThreshold) {
-                        if (isRealTransition(potentialStart, j - 1)) {
-                            shots.add(new int[] { potentialStart + startFrame, j - 1 + startFrame });
-                            System.out.println(
-                                    "Fs : " + (potentialStart + startFrame) + " Fe : " + (j - 1 + startFrame));
-                        }
-                        i = j;
-                        potentialStart = Integer.MAX_VALUE;
-                        break;
-                    }
-
+        long time = System.nanoTime();
+        if (!shared) {
+            features.calculatePrefixSums();
+        }
+        int length = features.distanceCount();
+        int potentialStart = NONE;
+        int quietStart = NONE;
+        print("Gradual Transition");
+        int i = 0;
+        while (i < length) {
+            int distance = features.distance(i);
+            if (potentialStart == NONE) {
+                if (distance >= gtThreshold && distance < cutThreshold) {
+                    potentialStart = i;
                 }
-            }
-            if (potentialStart != Integer.MAX_VALUE) {
-                if (isRealTransition(potentialStart, frameDistance.length - 1)) {
-                    shots.add(new int[] { potentialStart + startFrame + 1, frameDistance.length - 2 + startFrame });
-                    System.out.println(
-                            "Fs : " + (potentialStart + startFrame) + "     Fe : "
-                                    + (frameDistance.length - 1 + startFrame));
+                i++;
+            } else if (distance < gtThreshold) {
+                if (quietStart == NONE) {
+                    quietStart = i;
+                }
+                if (i - quietStart + 1 >= gtTor) {
+                    addTransition(potentialStart, quietStart - 1);
+                    // the search for the next transition skips the frame after
+                    // the tolerance run, and one more if that frame is quiet too
+                    int next = quietStart + gtTor;
+                    i = (next >= length || features.distance(next) < gtThreshold) ? next + 2 : next + 1;
+                    potentialStart = NONE;
+                    quietStart = NONE;
+                } else {
+                    i++;
                 }
-                break;
+            } else if (distance >= cutThreshold) {
+                addTransition(potentialStart, i - 1);
+                potentialStart = NONE;
+                quietStart = NONE;
+                i++;
+            } else {
+                quietStart = NONE;
+                i++;
             }
         }
+        if (potentialStart != NONE && quietStart != NONE) {
+            addTransition(potentialStart, quietStart - 1);
+        } else if (potentialStart != NONE && isRealTransition(potentialStart, length - 1)) {
+            addBoundary(potentialStart + startFrame + 1, length - 2 + startFrame, true);
+            gradualTransitions++;
+            print(
+                    "Fs : " + (potentialStart + startFrame) + "     Fe : " + (length - 1 + startFrame));
+        }
+        detectionNanos += System.nanoTime() - time;
+        if (progressListener != null) {
+            progressListener.progress(ProgressListener.DETECT, 2, 2);
+            progressListener.shotsDetected(cuts, gradualTransitions, detectionNanos);
+        }
+    }
+
+    /**
+     * addTransition method adds the transition from start to end into the
+     * boundaries if it is a real transition.
+     * 
+     * pre: the prefix sums of the frame distances are calculated.
+     * 
+     * post:Adds Fs and Fe values into the boundaries if the transition is real.
+     */
+    private void addTransition(int start, int end) {
+        if (isRealTransition(start, end)) {
+            addBoundary(start + startFrame, end + startFrame, true);
+            gradualTransitions++;
+            print("Fs : " + (start + startFrame) + " Fe : " + (end + startFrame));
+        }
+    }
+
+    /**
+     * addBoundary method packs a boundary into the boundaries array, growing
+     * it when it is full.
+     * 
+     * pre: none
+     * 
+     * post: the boundary is added.
+     */
+    private void addBoundary(int start, int end, boolean gradual) {
+        if (boundaryCount == boundaries.length) {
+            boundaries = Arrays.copyOf(boundaries, boundaryCount * 2);
+        }
+        boundaries[boundaryCount++] = ShotIndex.pack(start, end, gradual);
     }
 
     /**
      * isRealTransition method is responsible to check if all the sum of the
      * selected SD values is greater than Cut Threshold or not.
      * 
-     * pre: none
+     * pre: the prefix sums of the frame distances are calculated.
      * 
      * post:returns true if summation of values is grater than cut threshold else
      * false.
      */
     private boolean isRealTransition(int start, int end) {
-        int sum = 0;
-        for (int i = start; i <= end; i++) {
-            sum += frameDistance[i];
+        return features.distanceSum(start, end + 1) >= cutThreshold;
+    }
+
+    /**
+     * print method prints a line of the detection output when verbose.
+     * 
+     * pre: none
+     * 
+     * post: line is printed if verbose is true.
+     */
+    private void print(String line) {
+        if (verbose) {
+            System.out.println(line);
         }
-        return sum >= cutThreshold;
     }
 }
@@ -0,0 +1,105 @@
+/*
+ * The RunningStats keeps the average and standard deviation of a stream of
+ * frame distances without storing the stream.
+ * 
+ * With a window of 0 it covers every value seen so far using Welford's
+ * algorithm. With a positive window it covers only the last window values,
+ * which are held in a ring buffer.
+ * 
+ * @author Divya Kamath
+ */
+
+public class RunningStats {
+    private final int[] window;
+    private int count;
+    private int next;
+    private double mean;
+    private double squares;
+
+    /**
+     * constructor
+     * 
+     * pre: window is 0 for all values or the number of recent values to cover.
+     * 
+     * post: sets up empty statistics.
+     */
+
+    RunningStats(int window) {
+        this.window = new int[window];
+    }
+
+    /**
+     * add method adds a value, dropping the oldest one when the window is full.
+     * 
+     * pre: none
+     * 
+     * post: the average and standard deviation include value.
+     */
+    public void add(int value) {
+        if (window.length > 0 && count == window.length) {
+            remove(window[next]);
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        squares += delta * (value - mean);
+        if (window.length > 0) {
+            window[next] = value;
+            next = (next + 1) % window.length;
+        }
+    }
+
+    /**
+     * count method returns the number of values covered.
+     * 
+     * pre: none
+     * 
+     * post: returns the count.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * average method returns the average of the values covered.
+     * 
+     * pre: none
+     * 
+     * post: returns the average, 0 when there are no values.
+     */
+    public double average() {
+        return mean;
+    }
+
+    /**
+     * standardDeviation method returns the population standard deviation of
+     * the values covered, like CalculateUtil.calculateAvgSD.
+     * 
+     * pre: none
+     * 
+     * post: returns the standard deviation, 0 when there are no values.
+     */
+    public double standardDeviation() {
+        return count == 0 ? 0 : Math.sqrt(Math.max(squares, 0) / count);
+    }
+
+    /**
+     * remove method takes a value out of the Welford sums.
+     * 
+     * pre: value was added and count is at least 1.
+     * 
+     * post: the average and standard deviation no longer include value.
+     */
+    private void remove(int value) {
+        if (count == 1) {
+            count = 0;
+            mean = 0;
+            squares = 0;
+            return;
+        }
+        double delta = value - mean;
+        mean -= delta / (count - 1);
+        squares -= delta * (value - mean);
+        count--;
+    }
+}
@@ -0,0 +1,456 @@
+/*
+ * The ShotAnalysis runs ReadFrames and ReadShots over one video and keeps
+ * the detected boundaries and shots.
+ *
+ * Every analysis owns its features and shots, so several videos can be
+ * analysed at the same time on different threads.
+ *
+ * @author Divya Kamath
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.List;
+import org.bytedeco.javacv.FrameGrabber.Exception;
+
+public class ShotAnalysis {
+    // endFrame value that analyses the video to its last frame
+    public static final int END_OF_VIDEO = -1;
+    // coarseStep value that decodes every frame
+    public static final int FULL_ANALYSIS = -1;
+    // streamWindow value that keeps every distance and detects afterwards
+    public static final int NO_STREAM = -1;
+
+    private final String videoFile;
+    private final int startFrame;
+    private final int gtTor;
+    private int endFrame;
+    private File cacheDirectory;
+    private File spillDirectory;
+    // FULL_ANALYSIS, ReadFrames.KEYFRAMES, ReadFrames.PACKETS or the sampling
+    // step
+    private int coarseStep = FULL_ANALYSIS;
+    private int coarseWindow = ReadFrames.DEFAULT_WINDOW;
+    // number of segments decoded at the same time, 1 decodes sequentially
+    private int segments = 1;
+    // threads and buffers of the decoding pipeline, no pipeline when 0
+    private int pipelineWorkers;
+    private int pipelineBuffers;
+    private int streamWindow = NO_STREAM;
+    private ShotListener shotListener;
+    private boolean grayscale;
+    private boolean verbose;
+    private ProgressListener progressListener;
+    private FrameIndex frameIndex;
+    private FeatureStore features;
+    private ShotIndex shotIndex;
+
+    /**
+     * constructor
+     *
+     * pre: videoFile, startFrame, endFrame and gtTor should be passed as
+     * parameters. endFrame may be END_OF_VIDEO.
+     *
+     * post: sets up the analysis, nothing is read until run is called.
+     */
+
+    ShotAnalysis(String videoFile, int startFrame, int endFrame, int gtTor) {
+        this.videoFile = videoFile;
+        this.startFrame = startFrame;
+        this.endFrame = endFrame;
+        this.gtTor = gtTor;
+    }
+
+    /**
+     * setCacheDirectory method keeps the histograms of the video in a
+     * HistogramCache in cacheDirectory, so a second run does not decode the
+     * video again.
+     *
+     * pre: none
+     *
+     * post: the cache is used by run when cacheDirectory is not null.
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * setSpillDirectory method keeps the features of the video in a memory
+     * mapped file in spillDirectory instead of in memory.
+     *
+     * pre: none
+     *
+     * post: run spills the features when spillDirectory is not null.
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * setCoarseToFine method samples every step-th frame, or the keyframes
+     * when step is ReadFrames.KEYFRAMES, and only decodes the regions where
+     * the samples change, with window more frames on each side. With
+     * ReadFrames.PACKETS the regions come from the packets of the video.
+     * Boundaries outside those regions are missed, so it trades some recall
+     * for speed.
+     *
+     * pre: step is FULL_ANALYSIS, ReadFrames.KEYFRAMES, ReadFrames.PACKETS or
+     * at least 2
+     *
+     * post: run uses the coarse-to-fine mode of ReadFrames unless step is
+     * FULL_ANALYSIS.
+     */
+    public void setCoarseToFine(int step, int window) {
+        coarseStep = step;
+        coarseWindow = window;
+    }
+
+    /**
+     * setGrayscale method has the decoder output the luma plane, so no colour
+     * conversion is done, with ReadFrames.setGrayscale. The histograms differ
+     * slightly from those of BGR frames, so they are cached apart from them.
+     *
+     * pre: none
+     *
+     * post: run decodes grayscale frames when grayscale is true.
+     */
+    public void setGrayscale(boolean grayscale) {
+        this.grayscale = grayscale;
+    }
+
+    /**
+     * setParallel method decodes the video in segments on several threads
+     * with ReadFrames.grabFramesParallel. The distances are the same as those
+     * of the sequential decoding. It is not used in coarse-to-fine mode.
+     *
+     * pre: segments is at least 1
+     *
+     * post: run decodes segments parts of the video at the same time.
+     */
+    public void setParallel(int segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * setPipeline method decodes the video on one thread while workers threads
+     * calculate the histograms of the decoded frames, which wait in a ring of
+     * buffers frames, with ReadFrames.setPipeline.
+     *
+     * pre: workers and buffers are at least 1, or workers is 0 for no
+     * pipeline
+     *
+     * post: run decodes through the pipeline when workers is not 0.
+     */
+    public void setPipeline(int workers, int buffers) {
+        pipelineWorkers = workers;
+        pipelineBuffers = buffers;
+    }
+
+    /**
+     * setStreaming method detects the shots with a StreamingShotDetector while
+     * the frames are decoded, instead of with ReadShots once all distances are
+     * known. Only the last two histograms are kept, so memory does not grow
+     * with the length of the video, but the thresholds follow the distances
+     * seen so far, or the last window distances, rather than those of the
+     * whole video. The cache, coarse-to-fine, parallel and pipeline settings
+     * are not used in this mode.
+     *
+     * pre: window is NO_STREAM, 0 for every distance seen so far or the number
+     * of recent distances.
+     *
+     * post: run streams the frames unless window is NO_STREAM.
+     */
+    public void setStreaming(int window) {
+        streamWindow = window;
+    }
+
+    /**
+     * setShotListener method sets the listener told about every cut and
+     * gradual transition as soon as it is confirmed in streaming mode.
+     *
+     * pre: none
+     *
+     * post: run reports the boundaries to shotListener, it may be null.
+     */
+    public void setShotListener(ShotListener shotListener) {
+        this.shotListener = shotListener;
+    }
+
+    /**
+     * setVerbose method turns the printing of every cut and gradual transition
+     * by ReadShots on or off. It is off by default.
+     *
+     * pre: none
+     *
+     * post: ReadShots prints its output when verbose is true.
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * setProgressListener method sets the listener ReadFrames and ReadShots
+     * report their progress and metrics to.
+     *
+     * pre: none
+     *
+     * post: run reports to progressListener, it may be null.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * run method reads the frames of the video, calculates the frame distances
+     * and detects the cuts and gradual transitions.
+     *
+     * pre: videoFile is a readable video.
+     *
+     * post: the boundaries and shots of the video are available, or
+     * InterruptedIOException is thrown if the thread was interrupted while the
+     * frames were read.
+     */
+    public void run() throws Exception, IOException {
+        frameIndex = FrameIndex.load(videoFile);
+        if (endFrame == END_OF_VIDEO || endFrame > frameIndex.frameCount()) {
+            endFrame = frameIndex.frameCount();
+        }
+
+        ReadFrames readFrames = new ReadFrames(startFrame, endFrame, videoFile);
+        readFrames.setFrameIndex(frameIndex);
+        readFrames.setProgressListener(progressListener);
+        if (streamWindow != NO_STREAM) {
+            stream(readFrames);
+            return;
+        }
+        readFrames.setSpillDirectory(spillDirectory);
+        readFrames.setGrayscale(grayscale);
+        if (pipelineWorkers > 0) {
+            readFrames.setPipeline(pipelineWorkers, pipelineBuffers);
+        }
+        if (coarseStep != FULL_ANALYSIS) {
+            readFrames.setCoarseToFine(coarseStep, coarseWindow);
+        }
+        if (cacheDirectory == null) {
+            grab(readFrames);
+        } else {
+            try (HistogramCache histogramCache = HistogramCache.open(cacheDirectory, videoFile,
+                    readFrames.histogramParameters(), frameIndex.frameCount())) {
+                readFrames.setHistogramCache(histogramCache);
+                grab(readFrames);
+            }
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("analysis of " + videoFile + " was interrupted");
+        }
+        features = readFrames.getFeatures();
+
+        ReadShots readShots = new ReadShots(features, startFrame, gtTor);
+        readShots.setVerbose(verbose);
+        readShots.setProgressListener(progressListener);
+        readShots.setThreshold();
+        readShots.detectCuts();
+        readShots.detectGradualTransition();
+        shotIndex = readShots.getShotIndex();
+    }
+
+    /**
+     * stream method runs a StreamingShotDetector over the frames and builds the
+     * ShotIndex from the boundaries it reports.
+     *
+     * pre: readFrames is configured.
+     *
+     * post: the boundaries and shots of the video are available, features
+     * stays null.
+     */
+    private void stream(ReadFrames readFrames) throws InterruptedIOException {
+        BoundaryCollector collector = new BoundaryCollector(shotListener);
+        readFrames.streamFrames(new StreamingShotDetector(startFrame, gtTor, streamWindow, collector));
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("analysis of " + videoFile + " was interrupted");
+        }
+        shotIndex = new ShotIndex(collector.boundaries, collector.count, startFrame, endFrame);
+    }
+
+    /**
+     * BoundaryCollector packs every boundary a StreamingShotDetector reports
+     * for the ShotIndex, and passes it on to the listener of the analysis.
+     */
+    private static class BoundaryCollector implements ShotListener {
+        private final ShotListener listener;
+        long[] boundaries = new long[16];
+        int count;
+
+        BoundaryCollector(ShotListener listener) {
+            this.listener = listener;
+        }
+
+        public void cutDetected(int cutStart, int cutEnd) {
+            add(ShotIndex.pack(cutStart, cutEnd, false));
+            if (listener != null) {
+                listener.cutDetected(cutStart, cutEnd);
+            }
+        }
+
+        public void gradualTransitionDetected(int transitionStart, int transitionEnd) {
+            add(ShotIndex.pack(transitionStart, transitionEnd, true));
+            if (listener != null) {
+                listener.gradualTransitionDetected(transitionStart, transitionEnd);
+            }
+        }
+
+        private void add(long boundary) {
+            if (count == boundaries.length) {
+                boundaries = Arrays.copyOf(boundaries, count * 2);
+            }
+            boundaries[count++] = boundary;
+        }
+    }
+
+    /**
+     * grab method reads the frames with the decoding set for the analysis.
+     *
+     * pre: readFrames is configured.
+     *
+     * post: the features of readFrames are calculated.
+     */
+    private void grab(ReadFrames readFrames) {
+        if (segments > 1 && coarseStep == FULL_ANALYSIS) {
+            readFrames.grabFramesParallel(segments);
+        } else {
+            readFrames.grabFrames();
+        }
+    }
+
+    /**
+     * exportClips method writes the clip of every shot to clipDirectory with a
+     * ClipExporter, shot number i to the clip named i followed by videoFormat.
+     * The video is read once for all clips and the packets are copied when
+     * every shot starts on a keyframe.
+     *
+     * pre: run has completed.
+     *
+     * post: clipDirectory holds one clip per shot.
+     */
+    public void exportClips(File clipDirectory, String videoFormat) throws IOException, InterruptedException {
+        ClipExporter clipExporter = new ClipExporter(videoFile, frameIndex, clipDirectory, videoFormat);
+        clipExporter.setStreamCopy(true);
+        clipExporter.setProgressListener(progressListener);
+        clipExporter.export(getShots());
+    }
+
+    public String getVideoFile() {
+        return videoFile;
+    }
+
+    public int getStartFrame() {
+        return startFrame;
+    }
+
+    public int getEndFrame() {
+        return endFrame;
+    }
+
+    public int getGtTor() {
+        return gtTor;
+    }
+
+    public int[] getFrameDistance() {
+        return features.distances();
+    }
+
+    public FeatureStore getFeatures() {
+        return features;
+    }
+
+    /**
+     * getBoundaries method returns the Cs Ce and Fs Fe values of the video.
+     *
+     * pre: run has completed.
+     *
+     * post: returns the boundaries sorted by their first frame.
+     */
+    public List<int[]> getBoundaries() {
+        return shotIndex.boundaries();
+    }
+
+    /**
+     * getShotIndex method returns the boundaries and shots of the video for
+     * lookups by frame.
+     *
+     * pre: run has completed.
+     *
+     * post: returns the immutable ShotIndex of the analysis.
+     */
+    public ShotIndex getShotIndex() {
+        return shotIndex;
+    }
+
+    /**
+     * getShots method splits the analysed frames into shots at the boundaries
+     * the same way ShotIndex does for MainFrame: a shot ends at the first frame
+     * of the next boundary and the following shot starts one frame later.
+     *
+     * pre: run has completed.
+     *
+     * post: returns the {first frame, last frame} of every shot.
+     */
+    public List<int[]> getShots() {
+        return shotIndex.shots();
+    }
+
+    /**
+     * toJson method writes the analysis as a single line JSON object.
+     *
+     * pre: run has completed.
+     *
+     * post: returns the JSON text.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"video\":").append(quote(videoFile));
+        json.append(",\"startFrame\":").append(startFrame);
+        json.append(",\"endFrame\":").append(endFrame);
+        json.append(",\"gtTor\":").append(gtTor);
+        json.append(",\"boundaries\":");
+        appendPairs(json, shotIndex.boundaries());
+        json.append(",\"shots\":");
+        appendPairs(json, getShots());
+        return json.append('}').toString();
+    }
+
+    /**
+     * quote method writes text as a JSON string.
+     *
+     * pre: none
+     *
+     * post: returns the quoted and escaped text.
+     */
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static void appendPairs(StringBuilder json, List<int[]> pairs) {
+        json.append('[');
+        for (int i = 0; i < pairs.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append('[').append(pairs.get(i)[0]).append(',').append(pairs.get(i)[1]).append(']');
+        }
+        json.append(']');
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * The ShotIndex holds the shot boundaries detected by ReadShots over a
+ * range of frames, and the shots between them.
+ *
+ * Every boundary is packed into one long: its first frame in the high 32
+ * bits, whether it is a gradual transition in bit 31 and its last frame in
+ * the low 31 bits. The longs are sorted, so they are ordered by first frame
+ * and the boundaries or shots around a frame are found by binary search.
+ *
+ * A ShotIndex never changes after it is created, so it can be read any
+ * number of times and shared between threads without locking.
+ *
+ * @author Divya Kamath
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class ShotIndex {
+    private static final long GRADUAL = 1L << 31;
+    private static final long END_MASK = GRADUAL - 1;
+
+    private final long[] boundaries;
+    private final int startFrame;
+    private final int endFrame;
+    private final int cuts;
+
+    /**
+     * constructor
+     *
+     * pre: the first count entries of boundaries were packed by pack, and
+     * startFrame and endFrame are the analysed range.
+     *
+     * post: the index holds a sorted copy of the boundaries.
+     */
+
+    ShotIndex(long[] boundaries, int count, int startFrame, int endFrame) {
+        this.boundaries = Arrays.copyOf(boundaries, count);
+        Arrays.sort(this.boundaries);
+        this.startFrame = startFrame;
+        this.endFrame = endFrame;
+        int cutCount = 0;
+        for (long boundary : this.boundaries) {
+            if ((boundary & GRADUAL) == 0) {
+                cutCount++;
+            }
+        }
+        cuts = cutCount;
+    }
+
+    /**
+     * pack method packs a boundary into the long stored by the index.
+     *
+     * pre: start and end are not negative.
+     *
+     * post: returns the packed boundary.
+     */
+    static long pack(int start, int end, boolean gradual) {
+        return ((long) start << 32) | (gradual ? GRADUAL : 0) | (end & END_MASK);
+    }
+
+    public int startFrame() {
+        return startFrame;
+    }
+
+    public int endFrame() {
+        return endFrame;
+    }
+
+    public int boundaryCount() {
+        return boundaries.length;
+    }
+
+    public int cutCount() {
+        return cuts;
+    }
+
+    public int gradualTransitionCount() {
+        return boundaries.length - cuts;
+    }
+
+    /**
+     * boundaryStart method returns the first frame of a boundary, Cs for a cut
+     * and Fs for a gradual transition.
+     *
+     * pre: boundary is below boundaryCount().
+     *
+     * post: returns the frame number.
+     */
+    public int boundaryStart(int boundary) {
+        return (int) (boundaries[boundary] >>> 32);
+    }
+
+    /**
+     * boundaryEnd method returns the last frame of a boundary, Ce for a cut
+     * and Fe for a gradual transition.
+     *
+     * pre: boundary is below boundaryCount().
+     *
+     * post: returns the frame number.
+     */
+    public int boundaryEnd(int boundary) {
+        return (int) (boundaries[boundary] & END_MASK);
+    }
+
+    /**
+     * isCut method tells a cut from a gradual transition.
+     *
+     * pre: boundary is below boundaryCount().
+     *
+     * post: returns true if the boundary is a cut.
+     */
+    public boolean isCut(int boundary) {
+        return (boundaries[boundary] & GRADUAL) == 0;
+    }
+
+    /**
+     * shotCount method returns the number of shots, one more than the number
+     * of boundaries.
+     *
+     * pre: none
+     *
+     * post: returns the number of shots.
+     */
+    public int shotCount() {
+        return boundaries.length + 1;
+    }
+
+    /**
+     * shotStart method returns the first frame of a shot. The first shot starts
+     * at startFrame and every other shot one frame after the first frame of
+     * the boundary before it, as MainFrame has always split the shots.
+     *
+     * pre: shot is below shotCount().
+     *
+     * post: returns the frame number.
+     */
+    public int shotStart(int shot) {
+        return shot == 0 ? startFrame : boundaryStart(shot - 1) + 1;
+    }
+
+    /**
+     * shotEnd method returns the end frame of a shot, the first frame of the
+     * boundary after it, or endFrame for the last shot.
+     *
+     * pre: shot is below shotCount().
+     *
+     * post: returns the frame number.
+     */
+    public int shotEnd(int shot) {
+        return shot == boundaries.length ? endFrame : boundaryStart(shot);
+    }
+
+    /**
+     * shotAt method finds the shot that contains a frame with a binary search
+     * over the boundaries.
+     *
+     * pre: none
+     *
+     * post: returns the shot number, or -1 if the frame lies outside the
+     * analysed range.
+     */
+    public int shotAt(int frame) {
+        if (frame < startFrame || frame > endFrame) {
+            return -1;
+        }
+        // the shot of a frame is the number of boundaries starting before it
+        return firstBoundaryFrom(frame);
+    }
+
+    /**
+     * shotsBetween method finds the shots that overlap the frames from "from"
+     * to "to" (inclusive). A time range is turned into frames with the frame
+     * rate of the video first.
+     *
+     * pre: from is not after to.
+     *
+     * post: returns the first and the last shot number, or an empty array if
+     * the frames lie outside the analysed range.
+     */
+    public int[] shotsBetween(int from, int to) {
+        if (to < startFrame || from > endFrame) {
+            return new int[0];
+        }
+        return new int[] { shotAt(Math.max(from, startFrame)), shotAt(Math.min(to, endFrame)) };
+    }
+
+    /**
+     * boundariesBetween method finds the boundaries whose first frame lies
+     * from "from" to "to" (inclusive).
+     *
+     * pre: from is not after to.
+     *
+     * post: returns the first boundary number and one past the last, which
+     * are equal if there are none.
+     */
+    public int[] boundariesBetween(int from, int to) {
+        int first = firstBoundaryFrom(from);
+        int last = to == Integer.MAX_VALUE ? boundaries.length : firstBoundaryFrom(to + 1);
+        return new int[] { first, last };
+    }
+
+    /**
+     * boundaries method copies the boundaries into {first frame, last frame}
+     * pairs, for code that works on lists of pairs.
+     *
+     * pre: none
+     *
+     * post: returns a new list sorted by first frame.
+     */
+    public List<int[]> boundaries() {
+        List<int[]> pairs = new ArrayList<>(boundaries.length);
+        for (int i = 0; i < boundaries.length; i++) {
+            pairs.add(new int[] { boundaryStart(i), boundaryEnd(i) });
+        }
+        return pairs;
+    }
+
+    /**
+     * shots method copies the shots into {first frame, end frame} pairs, for
+     * code that works on lists of pairs.
+     *
+     * pre: none
+     *
+     * post: returns a new list in shot order.
+     */
+    public List<int[]> shots() {
+        List<int[]> pairs = new ArrayList<>(shotCount());
+        for (int i = 0; i < shotCount(); i++) {
+            pairs.add(new int[] { shotStart(i), shotEnd(i) });
+        }
+        return pairs;
+    }
+
+    /**
+     * firstBoundaryFrom method counts the boundaries whose first frame lies
+     * before frame.
+     *
+     * pre: none
+     *
+     * post: returns the number of the first boundary starting at or after
+     * frame, or boundaryCount() if there is none.
+     */
+    private int firstBoundaryFrom(int frame) {
+        long key = (long) frame << 32;
+        int low = 0;
+        int high = boundaries.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (boundaries[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
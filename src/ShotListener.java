@@ -0,0 +1,27 @@
+/*
+ * The ShotListener is told about every cut and gradual transition as soon
+ * as a detector confirms it.
+ * 
+ * @author Divya Kamath
+ */
+
+public interface ShotListener {
+
+    /**
+     * cutDetected is called for every cut.
+     * 
+     * pre: none
+     * 
+     * post: Cs and Ce are the frames before and after the cut.
+     */
+    void cutDetected(int cutStart, int cutEnd);
+
+    /**
+     * gradualTransitionDetected is called for every gradual transition.
+     * 
+     * pre: none
+     * 
+     * post: Fs and Fe are the first and last frames of the transition.
+     */
+    void gradualTransitionDetected(int transitionStart, int transitionEnd);
+}
@@ -0,0 +1,451 @@
+/*
+ * The ShotPlayer plays a shot straight from the source video in a window of
+ * its own, so no clip has to be cut before a shot can be watched.
+ *
+ * It keeps a small pool of started grabbers on the video, so playing a shot
+ * only seeks to the keyframe at or before it and decodes forward from there. The
+ * frames before the shot are dropped and playback stops at the end of the
+ * shot. Every frame is shown at its own timestamp, measured against the
+ * position of the audio line, or against the wall clock when the video has
+ * no audio or no audio device is available.
+ *
+ * @author Divya Kamath
+ */
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+public class ShotPlayer {
+    // Decoded frames waiting to be shown
+    private static final int QUEUED_FRAMES = 4;
+    // Frames shown more than this late are dropped, in microseconds
+    private static final long LATE = 40000;
+    // Marks the end of the frames of a shot
+    private static final Frame END = new Frame();
+
+    private final String videoFile;
+    private final FrameIndex frameIndex;
+    private final BlockingQueue<FFmpegFrameGrabber> idle;
+    private final ExecutorService executor;
+    // Set by close, grabbers released afterwards are closed
+    private volatile boolean closed;
+
+    /**
+     * constructor
+     *
+     * pre: videoFile is a readable video, frameIndex may be null, then shots are
+     * found by decoding from frame 0. decoders is at least 1.
+     *
+     * post: starts the first grabber in the background, so the first shot
+     * played does not wait for the video to be opened. At most decoders
+     * grabbers are kept open.
+     */
+
+    ShotPlayer(String videoFile, FrameIndex frameIndex, int decoders) {
+        this.videoFile = videoFile;
+        this.frameIndex = frameIndex;
+        idle = new ArrayBlockingQueue<>(decoders);
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "shot player");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(() -> {
+            try {
+                release(startGrabber());
+            } catch (FrameGrabber.Exception e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * play method opens a window and plays a shot in it. It returns at once,
+     * the shot is decoded and shown on background threads. Closing the
+     * window stops the shot.
+     *
+     * pre: shot holds the first frame and the end frame of the shot.
+     *
+     * post: the shot plays in a new window.
+     */
+    public void play(int[] shot, String title) {
+        AtomicBoolean stopped = new AtomicBoolean();
+        ShotWindow window = new ShotWindow(title, stopped);
+        play(shot, window::show, stopped);
+    }
+
+    /**
+     * play method plays a shot and hands every frame to show at its
+     * timestamp.
+     *
+     * pre: shot holds the first frame and the end frame of the shot.
+     *
+     * post: returns the playback, which completes after the last frame of the
+     * shot or once stopped is set.
+     */
+    Future<?> play(int[] shot, Consumer<BufferedImage> show, AtomicBoolean stopped) {
+        BlockingQueue<Frame> frames = new ArrayBlockingQueue<>(QUEUED_FRAMES);
+        PlaybackClock clock = new PlaybackClock();
+        Future<?> display = executor.submit(() -> display(frames, show, clock, stopped));
+        executor.execute(() -> decode(shot, frames, clock, stopped));
+        return display;
+    }
+
+    /**
+     * close method stops the shots that are playing and closes the idle
+     * grabbers. The grabbers of the stopped shots are closed when they are
+     * released.
+     *
+     * pre: none
+     *
+     * post: no grabber is kept open.
+     */
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        FFmpegFrameGrabber frameGrabber = idle.poll();
+        while (frameGrabber != null) {
+            closeGrabber(frameGrabber);
+            frameGrabber = idle.poll();
+        }
+    }
+
+    /**
+     * decode method decodes a shot with a grabber from the pool. Audio is
+     * written to the audio line on this thread, which paces the decoding, and
+     * video frames are handed to the display thread.
+     *
+     * pre: frames is empty.
+     *
+     * post: the frames of the shot are queued, followed by END.
+     */
+    private void decode(int[] shot, BlockingQueue<Frame> frames, PlaybackClock clock, AtomicBoolean stopped) {
+        FFmpegFrameGrabber frameGrabber = idle.poll();
+        SourceDataLine line = null;
+        try {
+            if (frameGrabber == null) {
+                frameGrabber = startGrabber();
+            }
+            long startTime = startTime(frameGrabber);
+            long shotStart = startTime + timestampOf(frameGrabber, shot[0]);
+            long shotEnd = frameIndex != null && shot[1] >= frameIndex.frameCount() ? Long.MAX_VALUE
+                    : startTime + timestampOf(frameGrabber, shot[1]);
+            // the seek decodes forward from the keyframe at or before the shot
+            // and the frames up to the shot are dropped
+            int keyFrame = frameIndex == null ? 0 : frameIndex.keyFrameAtOrBefore(shot[0]);
+            if (keyFrame > 0) {
+                frameGrabber.setVideoTimestamp(frameIndex.timestampOf(keyFrame));
+            } else if (frameGrabber.getFrameNumber() > 0) {
+                // seeking to 0 is not reliable in MPEG program streams
+                frameGrabber.restart();
+            }
+            line = openLine(frameGrabber);
+            clock.start(shotStart, line);
+
+            Frame frame = frameGrabber.grab();
+            while (frame != null && !stopped.get()) {
+                if (frame.image != null) {
+                    if (frame.timestamp >= shotEnd) {
+                        break;
+                    }
+                    if (frame.timestamp >= shotStart && !queue(frames, frame.clone(), stopped)) {
+                        break;
+                    }
+                } else if (frame.samples != null && line != null && frame.timestamp >= shotStart
+                        && frame.timestamp < shotEnd) {
+                    write(line, frame);
+                }
+                frame = frameGrabber.grab();
+            }
+            if (line != null && !stopped.get()) {
+                line.drain();
+            }
+        } catch (FrameGrabber.Exception e) {
+            e.printStackTrace();
+            if (frameGrabber != null) {
+                closeGrabber(frameGrabber);
+                frameGrabber = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (line != null) {
+                line.close();
+            }
+            if (frameGrabber != null) {
+                release(frameGrabber);
+            }
+            try {
+                if (!queue(frames, END, stopped)) {
+                    frames.clear();
+                    frames.offer(END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * queue method hands a frame to the display thread, waiting while the
+     * queue is full unless the playback is stopped.
+     *
+     * pre: none
+     *
+     * post: returns true if the frame is queued, false if the playback was
+     * stopped first.
+     */
+    private static boolean queue(BlockingQueue<Frame> frames, Frame frame, AtomicBoolean stopped)
+            throws InterruptedException {
+        while (!frames.offer(frame, 10, TimeUnit.MILLISECONDS)) {
+            if (stopped.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * display method shows the queued frames at their timestamps, dropping
+     * frames that are already too late.
+     *
+     * pre: the frames are queued by decode.
+     *
+     * post: returns after END is taken or once stopped is set.
+     */
+    private void display(BlockingQueue<Frame> frames, Consumer<BufferedImage> show, PlaybackClock clock,
+            AtomicBoolean stopped) {
+        try (Java2DFrameConverter converter = new Java2DFrameConverter()) {
+            Frame frame = frames.take();
+            while (frame != END && !stopped.get()) {
+                long wait = frame.timestamp - clock.now();
+                if (wait > 0) {
+                    Thread.sleep(wait / 1000, (int) (wait % 1000) * 1000);
+                }
+                if (wait > -LATE) {
+                    show.accept(Java2DFrameConverter.cloneBufferedImage(converter.convert(frame)));
+                }
+                frame.close();
+                frame = frames.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            stopped.set(true);
+        }
+    }
+
+    /**
+     * openLine method opens an audio line for the audio of the video, decoded
+     * as 16 bit samples.
+     *
+     * pre: frameGrabber is started.
+     *
+     * post: returns the started line, null if the video has no audio or no
+     * audio device is available.
+     */
+    private static SourceDataLine openLine(FFmpegFrameGrabber frameGrabber) {
+        if (frameGrabber.getAudioChannels() == 0) {
+            return null;
+        }
+        AudioFormat format = new AudioFormat(frameGrabber.getSampleRate(), 16, frameGrabber.getAudioChannels(),
+                true, ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+        try {
+            SourceDataLine line = AudioSystem.getSourceDataLine(format);
+            line.open(format);
+            line.start();
+            return line;
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            // no audio device, the shot plays without sound
+            return null;
+        }
+    }
+
+    /**
+     * write method writes the samples of an audio frame to the line. It
+     * blocks while the line buffer is full.
+     *
+     * pre: frame holds interleaved 16 bit samples.
+     *
+     * post: the samples are queued for playing.
+     */
+    private static void write(SourceDataLine line, Frame frame) {
+        ShortBuffer samples = ((ShortBuffer) frame.samples[0]).duplicate();
+        ByteBuffer bytes = ByteBuffer.allocate(samples.remaining() * 2).order(ByteOrder.nativeOrder());
+        bytes.asShortBuffer().put(samples);
+        line.write(bytes.array(), 0, bytes.capacity());
+    }
+
+    /**
+     * startGrabber method opens and starts a grabber on the video that
+     * decodes audio as interleaved 16 bit samples.
+     *
+     * pre: none
+     *
+     * post: returns the started grabber.
+     */
+    private FFmpegFrameGrabber startGrabber() throws FrameGrabber.Exception {
+        FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(videoFile);
+        frameGrabber.setSampleMode(FrameGrabber.SampleMode.SHORT);
+        frameGrabber.start();
+        return frameGrabber;
+    }
+
+    /**
+     * release method hands a grabber back to the pool, or closes it when the
+     * pool is full or the player is closed.
+     *
+     * pre: no shot is decoded with frameGrabber.
+     *
+     * post: frameGrabber is idle or closed.
+     */
+    private void release(FFmpegFrameGrabber frameGrabber) {
+        if (closed || !idle.offer(frameGrabber)) {
+            closeGrabber(frameGrabber);
+            return;
+        }
+        // close may have emptied the pool just before the grabber was added
+        if (closed && idle.remove(frameGrabber)) {
+            closeGrabber(frameGrabber);
+        }
+    }
+
+    private static void closeGrabber(FFmpegFrameGrabber frameGrabber) {
+        try {
+            frameGrabber.close();
+        } catch (FrameGrabber.Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long startTime(FFmpegFrameGrabber frameGrabber) {
+        long startTime = frameGrabber.getFormatContext().start_time();
+        return startTime == avutil.AV_NOPTS_VALUE ? 0 : startTime;
+    }
+
+    /**
+     * timestampOf method returns the timestamp of a frame from the start of the
+     * video, from the frame index or the frame rate.
+     *
+     * pre: frameGrabber is started.
+     *
+     * post: returns the timestamp in microseconds.
+     */
+    private long timestampOf(FFmpegFrameGrabber frameGrabber, int frame) {
+        if (frameIndex != null) {
+            return frameIndex.timestampOf(frame);
+        }
+        return (long) (frame * 1000000L / frameGrabber.getFrameRate());
+    }
+
+    /**
+     * PlaybackClock tells the timestamp that is playing now. It follows the
+     * audio line while the line has samples to play, so the video stays with
+     * the sound, and the wall clock otherwise. The clock starts when the
+     * first frame is asked for.
+     */
+    private static class PlaybackClock {
+        private volatile long start = Long.MIN_VALUE;
+        private volatile SourceDataLine line;
+        // Time and wall clock of the last call to now
+        private long time;
+        private long nanos;
+
+        void start(long start, SourceDataLine line) {
+            this.line = line;
+            this.start = start;
+        }
+
+        long now() throws InterruptedException {
+            while (start == Long.MIN_VALUE) {
+                Thread.sleep(1);
+            }
+            long now = System.nanoTime();
+            if (nanos == 0) {
+                time = start;
+            } else if (line != null && line.available() < line.getBufferSize()) {
+                time = Math.max(time, start + line.getMicrosecondPosition());
+            } else {
+                // no audio, or the line ran dry while the decoder was busy
+                time += (now - nanos) / 1000;
+            }
+            nanos = now;
+            return time;
+        }
+    }
+
+    /**
+     * ShotWindow shows the frames of a shot. Frames are handed over from the
+     * display thread and painted on the event dispatch thread.
+     */
+    private static class ShotWindow extends JFrame {
+        private static final long serialVersionUID = 1L;
+
+        private final JPanel panel;
+        private volatile BufferedImage image;
+
+        ShotWindow(String title, AtomicBoolean stopped) {
+            setTitle(title);
+            panel = new JPanel() {
+                @Override
+                protected void paintComponent(Graphics graphics) {
+                    super.paintComponent(graphics);
+                    BufferedImage current = image;
+                    if (current != null) {
+                        graphics.drawImage(current, 0, 0, getWidth(), getHeight(), null);
+                    }
+                }
+            };
+            panel.setPreferredSize(new Dimension(640, 360));
+            add(panel);
+            setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent e) {
+                    stopped.set(true);
+                }
+            });
+            pack();
+            setLocationRelativeTo(null);
+            setVisible(true);
+        }
+
+        void show(BufferedImage frame) {
+            boolean first = image == null;
+            image = frame;
+            SwingUtilities.invokeLater(() -> {
+                if (first) {
+                    panel.setPreferredSize(new Dimension(frame.getWidth(), frame.getHeight()));
+                    pack();
+                }
+                panel.repaint();
+            });
+        }
+    }
+}
@@ -0,0 +1,604 @@
+/*
+ * The ShotService detects shots for other programs on the same host over
+ * HTTP, without opening any window. It listens on the loopback address
+ * only.
+ *
+ *   POST /jobs              submits a job, the parameters video (a path on
+ *                           this host), start, end, gtTor, coarse and window
+ *                           are read from the query and form body
+ *   GET  /jobs/<id>         returns the state and progress of a job
+ *   GET  /jobs/<id>/events  streams the state as JSON lines until the job
+ *                           has finished
+ *   GET  /jobs/<id>/shots   returns the boundaries and shots of a finished
+ *                           job, as ShotAnalysis.toJson writes them
+ *
+ * Jobs run on a fixed number of workers and wait in a bounded queue, a job
+ * submitted while the queue is full is turned away with 503. A job that is
+ * identical to one still queued or running, the same video content and
+ * parameters, is answered with that job. Finished results are kept in a
+ * least recently used cache keyed by the HistogramCache fingerprint of the
+ * video and the parameters, so asking again is answered straight away.
+ *
+ * Jobs on the same video with other parameters run one after the other, as
+ * they share the FrameIndex and HistogramCache files of the video. They wait
+ * in a queue of their video, and the next of them is handed to the workers
+ * when the one before finishes, so a waiting job never holds a worker that
+ * jobs on other videos could use.
+ *
+ * @author Divya Kamath
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ShotService {
+    // Finished jobs kept for status requests, beyond those in flight
+    private static final int FINISHED_JOBS = 1024;
+    // Longest wait between two lines of an event stream
+    private static final long EVENT_MILLIS = 1000;
+
+    private final int port;
+    private final ThreadPoolExecutor workers;
+    private final int queueCapacity;
+    private final int resultCapacity;
+    private final AtomicLong jobIds;
+    // Guarded by this
+    private final Map<String, Job> jobs;
+    private final Map<String, Job> inFlight;
+    private final Map<String, String> results;
+    // Jobs waiting for the job on the same video to finish, by fingerprint.
+    // A video is a key while one of its jobs is handed to the workers
+    private final Map<String, ArrayDeque<Runnable>> videoQueues;
+    // Jobs that are neither running nor finished
+    private int queuedJobs;
+    private File cacheDirectory;
+    private HttpServer server;
+    private ExecutorService connections;
+
+    /**
+     * constructor
+     *
+     * pre: threads and queueCapacity are at least 1, resultCapacity is not
+     * negative.
+     *
+     * post: sets up the service, it listens once start is called.
+     */
+
+    ShotService(int port, int threads, int queueCapacity, int resultCapacity) {
+        this.port = port;
+        this.queueCapacity = queueCapacity;
+        this.resultCapacity = resultCapacity;
+        // queueCapacity is enforced by submit, over the queue of the workers
+        // and the queues of the videos together
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
+        jobIds = new AtomicLong();
+        inFlight = new HashMap<>();
+        videoQueues = new HashMap<>();
+        jobs = new LinkedHashMap<String, Job>() {
+            protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+                return size() > FINISHED_JOBS + inFlight.size() && eldest.getValue().isFinished();
+            }
+        };
+        results = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > ShotService.this.resultCapacity;
+            }
+        };
+    }
+
+    /**
+     * setCacheDirectory method keeps the histograms of every analysed video in
+     * a HistogramCache in cacheDirectory, so a job with other thresholds does
+     * not decode the video again.
+     *
+     * pre: called before start
+     *
+     * post: every job uses the cache when cacheDirectory is not null.
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * start method binds the service to the loopback address and starts
+     * answering requests.
+     *
+     * pre: the port is free, 0 picks any free port.
+     *
+     * post: the service listens on getPort().
+     */
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/jobs", this::handle);
+        // event streams hold their connection until the job finishes, so
+        // every connection gets its own thread
+        connections = Executors.newCachedThreadPool();
+        server.setExecutor(connections);
+        server.start();
+    }
+
+    /**
+     * stop method stops answering requests, drops the queued jobs and waits
+     * for the running jobs to finish.
+     *
+     * pre: start was called.
+     *
+     * post: the port is released and no job is running.
+     */
+    public void stop() throws InterruptedException {
+        server.stop(0);
+        connections.shutdownNow();
+        workers.getQueue().clear();
+        synchronized (this) {
+            videoQueues.clear();
+            queuedJobs = 0;
+            for (Job job : inFlight.values()) {
+                job.cancel();
+            }
+            inFlight.values().removeIf(Job::isFinished);
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * submit method returns the job for a video and parameters: a finished
+     * job when the result is cached, the job in flight when an identical one
+     * is queued or running, and a new queued job otherwise.
+     *
+     * pre: videoFile is a readable video.
+     *
+     * post: returns the job, or throws RejectedExecutionException if the
+     * queue is full.
+     */
+    Job submit(String videoFile, int startFrame, int endFrame, int gtTor, int coarseStep, int coarseWindow)
+            throws IOException {
+        String fingerprint = HistogramCache.fingerprint(videoFile);
+        String key = fingerprint + "-" + startFrame + "-" + endFrame + "-" + gtTor
+                + (coarseStep == ShotAnalysis.FULL_ANALYSIS ? "" : "-c" + coarseStep + "w" + coarseWindow);
+        synchronized (this) {
+            Job job = inFlight.get(key);
+            if (job != null) {
+                return job;
+            }
+            job = new Job(String.valueOf(jobIds.incrementAndGet()), key, fingerprint);
+            String result = results.get(key);
+            if (result != null) {
+                job.finish(result, null);
+            } else {
+                if (queuedJobs >= queueCapacity) {
+                    throw new RejectedExecutionException("the job queue is full");
+                }
+                ShotAnalysis analysis = new ShotAnalysis(videoFile, startFrame, endFrame, gtTor);
+                analysis.setCacheDirectory(cacheDirectory);
+                analysis.setCoarseToFine(coarseStep, coarseWindow);
+                analysis.setProgressListener(job);
+                Job queued = job;
+                Runnable task = () -> run(queued, analysis);
+                ArrayDeque<Runnable> videoQueue = videoQueues.get(fingerprint);
+                if (videoQueue == null) {
+                    videoQueues.put(fingerprint, new ArrayDeque<>());
+                    workers.execute(task);
+                } else {
+                    videoQueue.add(task);
+                }
+                queuedJobs++;
+                inFlight.put(key, job);
+            }
+            jobs.put(job.id, job);
+            return job;
+        }
+    }
+
+    /**
+     * run method analyses the video of a job on a worker, then hands the next
+     * job waiting on the same video to the workers.
+     *
+     * pre: job is queued and no other job on its video is running.
+     *
+     * post: the job holds the result or the error, a result is cached, and
+     * the job is no longer in flight however it ended.
+     */
+    private void run(Job job, ShotAnalysis analysis) {
+        String result = null;
+        String error = "the job did not finish";
+        try {
+            synchronized (this) {
+                queuedJobs = Math.max(0, queuedJobs - 1);
+            }
+            if (!job.start()) {
+                return;
+            }
+            analysis.run();
+            result = analysis.toJson();
+            error = null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            error = String.valueOf(e.getMessage());
+        } finally {
+            synchronized (this) {
+                inFlight.remove(job.key);
+                if (result != null && resultCapacity > 0) {
+                    results.put(job.key, result);
+                }
+                ArrayDeque<Runnable> videoQueue = videoQueues.get(job.video);
+                Runnable next = videoQueue == null ? null : videoQueue.poll();
+                if (next == null || workers.isShutdown()) {
+                    videoQueues.remove(job.video);
+                } else {
+                    workers.execute(next);
+                }
+            }
+            if (!job.isFinished()) {
+                job.finish(result, error);
+            }
+        }
+    }
+
+    synchronized Job getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * handle method answers every request under /jobs.
+     *
+     * pre: none
+     *
+     * post: a response is sent and the exchange is closed.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            String method = exchange.getRequestMethod();
+            if (path.length == 2 && method.equals("POST")) {
+                handleSubmit(exchange);
+            } else if (path.length < 3 || !method.equals("GET")) {
+                send(exchange, 404, error("no such endpoint"));
+            } else {
+                Job job = getJob(path[2]);
+                if (job == null) {
+                    send(exchange, 404, error("no such job"));
+                } else if (path.length == 3) {
+                    send(exchange, 200, job.toJson());
+                } else if (path.length == 4 && path[3].equals("events")) {
+                    streamEvents(exchange, job);
+                } else if (path.length == 4 && path[3].equals("shots")) {
+                    sendShots(exchange, job);
+                } else {
+                    send(exchange, 404, error("no such endpoint"));
+                }
+            }
+        } catch (IOException e) {
+            // the client went away
+        } catch (Exception e) {
+            e.printStackTrace();
+            send(exchange, 500, error(String.valueOf(e.getMessage())));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * handleSubmit method reads the parameters of a new job and submits it.
+     *
+     * pre: the request is a POST to /jobs.
+     *
+     * post: answers 202 with the state of the job, 400 for bad parameters and
+     * 503 when the queue is full.
+     */
+    private void handleSubmit(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        readParameters(exchange.getRequestURI().getRawQuery(), parameters);
+        readParameters(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8), parameters);
+        String videoFile = parameters.get("video");
+        if (videoFile == null || !new File(videoFile).isFile()) {
+            send(exchange, 400, error("video must be a readable file"));
+            return;
+        }
+        Job job;
+        try {
+            String coarse = parameters.getOrDefault("coarse", "full");
+            int coarseStep;
+            if (coarse.equals("full")) {
+                coarseStep = ShotAnalysis.FULL_ANALYSIS;
+            } else if (coarse.equals("keyframes")) {
+                coarseStep = ReadFrames.KEYFRAMES;
+            } else if (coarse.equals("packets")) {
+                coarseStep = ReadFrames.PACKETS;
+            } else {
+                coarseStep = Math.max(2, Integer.parseInt(coarse));
+            }
+            job = submit(videoFile, Integer.parseInt(parameters.getOrDefault("start", "0")),
+                    Integer.parseInt(parameters.getOrDefault("end", String.valueOf(ShotAnalysis.END_OF_VIDEO))),
+                    Integer.parseInt(parameters.getOrDefault("gtTor", "2")), coarseStep,
+                    Math.max(0, Integer.parseInt(
+                            parameters.getOrDefault("window", String.valueOf(ReadFrames.DEFAULT_WINDOW)))));
+        } catch (NumberFormatException e) {
+            send(exchange, 400, error("bad number: " + e.getMessage()));
+            return;
+        } catch (RejectedExecutionException e) {
+            send(exchange, 503, error("the job queue is full"));
+            return;
+        } catch (IOException e) {
+            // the fingerprint could not be read from the video
+            send(exchange, 400, error("cannot read video: " + e.getMessage()));
+            return;
+        }
+        exchange.getResponseHeaders().set("Location", "/jobs/" + job.id);
+        send(exchange, 202, job.toJson());
+    }
+
+    /**
+     * streamEvents method writes the state of a job as a JSON line whenever
+     * it changes, or at least every second, until the job has finished.
+     *
+     * pre: none
+     *
+     * post: the last line holds the final state of the job.
+     */
+    private void streamEvents(HttpExchange exchange, Job job) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = exchange.getResponseBody();
+        long version = -1;
+        while (true) {
+            String line;
+            boolean finished;
+            synchronized (job) {
+                if (job.version == version) {
+                    job.wait(EVENT_MILLIS);
+                }
+                version = job.version;
+                line = job.toJson();
+                finished = job.isFinished();
+            }
+            body.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            body.flush();
+            if (finished) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * sendShots method sends the result of a job.
+     *
+     * pre: none
+     *
+     * post: answers 200 with the shots, 409 while the job is not finished and
+     * 500 when it failed.
+     */
+    private void sendShots(HttpExchange exchange, Job job) throws IOException {
+        String result;
+        String jobError;
+        synchronized (job) {
+            if (!job.isFinished()) {
+                send(exchange, 409, job.toJson());
+                return;
+            }
+            result = job.result;
+            jobError = job.error;
+        }
+        if (result == null) {
+            send(exchange, 500, error(jobError));
+        } else {
+            send(exchange, 200, result);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + ShotAnalysis.quote(message) + "}";
+    }
+
+    /**
+     * readParameters method decodes name=value pairs joined by &, as in a
+     * query string or a form body.
+     *
+     * pre: none
+     *
+     * post: the pairs are put into parameters, a later value replaces an
+     * earlier one.
+     */
+    static void readParameters(String text, Map<String, String> parameters) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        for (String pair : text.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Job is one shot detection request. It listens to the progress of its
+     * analysis, and wakes the event streams waiting on it when its state
+     * changes.
+     */
+    static class Job implements ProgressListener {
+        static final String QUEUED = "queued";
+        static final String RUNNING = "running";
+        static final String DONE = "done";
+        static final String FAILED = "failed";
+
+        final String id;
+        final String key;
+        // Fingerprint of the video
+        final String video;
+        // Guarded by this
+        private String state;
+        private String stage;
+        private int done;
+        private int total;
+        private String result;
+        private String error;
+        private long version;
+
+        Job(String id, String key, String video) {
+            this.id = id;
+            this.key = key;
+            this.video = video;
+            state = QUEUED;
+        }
+
+        /**
+         * start method moves a queued job to running.
+         *
+         * pre: none
+         *
+         * post: returns false if the job was cancelled before it started.
+         */
+        synchronized boolean start() {
+            if (!state.equals(QUEUED)) {
+                return false;
+            }
+            state = RUNNING;
+            changed();
+            return true;
+        }
+
+        /**
+         * finish method ends the job with its result, or with its error when
+         * result is null.
+         *
+         * pre: none
+         *
+         * post: the job is done or failed.
+         */
+        synchronized void finish(String result, String error) {
+            this.result = result;
+            this.error = error;
+            state = result == null ? FAILED : DONE;
+            changed();
+        }
+
+        /**
+         * cancel method fails the job if it is still queued.
+         *
+         * pre: none
+         *
+         * post: a queued job has failed, a running job is unchanged.
+         */
+        synchronized void cancel() {
+            if (state.equals(QUEUED)) {
+                finish(null, "the service stopped");
+            }
+        }
+
+        synchronized boolean isFinished() {
+            return state.equals(DONE) || state.equals(FAILED);
+        }
+
+        public synchronized void progress(String stage, int done, int total) {
+            this.stage = stage;
+            this.done = done;
+            this.total = total;
+            changed();
+        }
+
+        /**
+         * toJson method writes the state of the job as a single line JSON
+         * object.
+         *
+         * pre: none
+         *
+         * post: returns the JSON text.
+         */
+        synchronized String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"id\":").append(ShotAnalysis.quote(id));
+            json.append(",\"state\":").append(ShotAnalysis.quote(state));
+            if (stage != null) {
+                json.append(",\"stage\":").append(ShotAnalysis.quote(stage));
+                json.append(",\"done\":").append(done);
+                json.append(",\"total\":").append(total);
+            }
+            if (error != null) {
+                json.append(",\"error\":").append(ShotAnalysis.quote(error));
+            }
+            return json.append('}').toString();
+        }
+
+        private void changed() {
+            version++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * main method runs the service until the process is stopped.
+     *
+     * pre: args are any of the options --port n (default 8080), --threads n
+     * (default the number of processors), --queue n (default 16), the jobs
+     * that may wait, --results n (default 256), the results kept, and --cache
+     * directory.
+     *
+     * post: the service answers on the loopback address.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queueCapacity = 16;
+        int resultCapacity = 256;
+        File cacheDirectory = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--threads":
+                    threads = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--queue":
+                    queueCapacity = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--results":
+                    resultCapacity = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "--cache":
+                    cacheDirectory = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        ShotService service = new ShotService(port, threads, queueCapacity, resultCapacity);
+        service.setCacheDirectory(cacheDirectory);
+        service.start();
+        System.err.printf("shot service listening on http://localhost:%d/jobs with %d threads%n",
+                service.getPort(), threads);
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * The ShotThumbnails loads the first frame of a shot only when the shot list
+ * shows it, and keeps a bounded number of the loaded icons, and of the large
+ * icons of the last selected shots.
+ *
+ * Frames are taken from the ThumbnailStore when it kept them and decoded
+ * from the video otherwise, one at a time on a loader thread. The shots
+ * asked for last are loaded first and shots that were scrolled out of view
+ * before their turn are skipped, so scrolling through thousands of shots
+ * only loads the ones that stay on screen.
+ *
+ * @author Divya Kamath
+ */
+
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+public class ShotThumbnails {
+    // Shots around the visible ones that are still loaded, so they are ready
+    // when the list is scrolled a little
+    private static final int MARGIN = 8;
+    // Large icons kept, so selecting a recent shot again shows it at once
+    private static final int LARGE_CAPACITY = 16;
+    // Icon of a shot whose first frame cannot be read, it is only compared
+    public static final ImageIcon UNREADABLE = new ImageIcon();
+
+    private final String videoFile;
+    private final FrameIndex frameIndex;
+    private final ThumbnailStore thumbnailStore;
+    private final ThumbnailService thumbnailService;
+    private final List<int[]> shots;
+    // Icons of the shot list, least recently used first, only used on the
+    // event dispatch thread
+    private final LinkedHashMap<Integer, ImageIcon> icons;
+    // Large icons of the last selected shots, least recently used first,
+    // only used on the event dispatch thread
+    private final LinkedHashMap<Integer, ImageIcon> largeIcons;
+    private final Set<Integer> pending;
+    // Where to publish the large icon of every requested shot
+    private final Map<Integer, Consumer<ImageIcon>> largeRequests;
+    // {shot id, size} of every request, the latest first
+    private final LinkedBlockingDeque<int[]> requests;
+    private final Thread loader;
+    private IntConsumer listener;
+    private ProgressListener progressListener;
+    private volatile int firstVisible;
+    private volatile int lastVisible;
+
+    private FFmpegFrameGrabber frameGrabber;
+    private Java2DFrameConverter converter;
+    // Number of the frame the next grabImage call returns
+    private int position;
+    // Whether the last first frame came from the thumbnailStore
+    private boolean stored;
+
+    /**
+     * constructor
+     *
+     * pre: shots holds the first and the end frame of every shot, frameIndex and
+     * thumbnailStore may be null, capacity is at least the number of visible
+     * shots.
+     *
+     * post: starts the loader thread, it does not keep the application running.
+     */
+
+    ShotThumbnails(String videoFile, FrameIndex frameIndex, ThumbnailStore thumbnailStore,
+            ThumbnailService thumbnailService, List<int[]> shots, int capacity) {
+        this.videoFile = videoFile;
+        this.frameIndex = frameIndex;
+        this.thumbnailStore = thumbnailStore;
+        this.thumbnailService = thumbnailService;
+        this.shots = shots;
+        icons = new LinkedHashMap<Integer, ImageIcon>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ImageIcon> eldest) {
+                return size() > capacity;
+            }
+        };
+        largeIcons = new LinkedHashMap<Integer, ImageIcon>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, ImageIcon> eldest) {
+                return size() > LARGE_CAPACITY;
+            }
+        };
+        pending = ConcurrentHashMap.newKeySet();
+        largeRequests = new ConcurrentHashMap<>();
+        requests = new LinkedBlockingDeque<>();
+        lastVisible = Integer.MAX_VALUE;
+        loader = new Thread(this::load, "shot thumbnails");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * setListener method sets the listener told on the event dispatch thread
+     * when the icon of a shot is loaded.
+     *
+     * pre: none
+     *
+     * post: listener is called with the id of every loaded shot.
+     */
+    public void setListener(IntConsumer listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * setProgressListener method sets the listener told how long every first
+     * frame took to load and how many shots wait to be loaded.
+     *
+     * pre: none
+     *
+     * post: loaded shots are reported to progressListener.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * setVisibleRange method tells which shots the list shows, so the loader
+     * can skip the shots that were scrolled away.
+     *
+     * pre: first is at most last.
+     *
+     * post: shots outside first to last are no longer loaded.
+     */
+    public void setVisibleRange(int first, int last) {
+        firstVisible = first;
+        lastVisible = last;
+    }
+
+    /**
+     * get method returns the icon of a shot for the shot list, and asks the
+     * loader for it when it is not loaded yet.
+     *
+     * pre: called on the event dispatch thread.
+     *
+     * post: returns the ThumbnailService.SMALL icon, UNREADABLE if the first
+     * frame of the shot cannot be read, or null until it is loaded.
+     */
+    public ImageIcon get(int id) {
+        ImageIcon icon = icons.get(id);
+        if (icon == null && pending.add(id)) {
+            requests.addFirst(new int[] { id, ThumbnailService.SMALL });
+        }
+        return icon;
+    }
+
+    /**
+     * getLarge method returns the ThumbnailService.LARGE icon of a shot when it
+     * is kept, and loads it ahead of the icons of the shot list otherwise.
+     *
+     * pre: called on the event dispatch thread.
+     *
+     * post: publish is called on the event dispatch thread with the icon,
+     * straight away when it is kept, or with UNREADABLE if the first frame of
+     * the shot cannot be read.
+     */
+    public void getLarge(int id, Consumer<ImageIcon> publish) {
+        ImageIcon icon = largeIcons.get(id);
+        if (icon != null) {
+            publish.accept(icon);
+            return;
+        }
+        largeRequests.put(id, loaded -> {
+            if (loaded != UNREADABLE) {
+                largeIcons.put(id, loaded);
+            }
+            publish.accept(loaded);
+        });
+        requests.addFirst(new int[] { id, ThumbnailService.LARGE });
+    }
+
+    /**
+     * close method stops the loader thread and closes the video.
+     *
+     * pre: none
+     *
+     * post: no more icons are loaded.
+     */
+    public void close() {
+        loader.interrupt();
+    }
+
+    /**
+     * load method runs on the loader thread and loads the requested shots,
+     * the latest request first.
+     *
+     * pre: none
+     *
+     * post: runs until the loader thread is interrupted.
+     */
+    private void load() {
+        try {
+            while (true) {
+                int[] request = requests.takeFirst();
+                int id = request[0];
+                int size = request[1];
+                Consumer<ImageIcon> publish;
+                if (size == ThumbnailService.LARGE) {
+                    publish = largeRequests.remove(id);
+                    if (publish == null) {
+                        continue;
+                    }
+                } else if (id < firstVisible - MARGIN || id > lastVisible + MARGIN) {
+                    pending.remove(id);
+                    continue;
+                } else {
+                    publish = icon -> {
+                        icons.put(id, icon);
+                        pending.remove(id);
+                        if (listener != null) {
+                            listener.accept(id);
+                        }
+                    };
+                }
+                if (progressListener != null) {
+                    progressListener.queueDepth(ProgressListener.THUMBNAILS, requests.size());
+                }
+                long time = System.nanoTime();
+                BufferedImage image = firstFrame(shots.get(id)[0]);
+                // a shot that cannot be read gets the UNREADABLE icon, so it is
+                // drawn without its frame and not tried again on every repaint
+                if (image == null) {
+                    Consumer<ImageIcon> failed = publish;
+                    SwingUtilities.invokeLater(() -> failed.accept(UNREADABLE));
+                    continue;
+                }
+                if (progressListener != null) {
+                    progressListener.thumbnailLoaded(stored, System.nanoTime() - time);
+                }
+                thumbnailService.submit(image, size, publish);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } finally {
+            closeGrabber();
+        }
+    }
+
+    /**
+     * firstFrame method returns the image of a frame, from the thumbnailStore
+     * when it kept the frame and decoded from the video otherwise.
+     *
+     * pre: called on the loader thread.
+     *
+     * post: returns a new image of the frame, null if it could not be read.
+     */
+    private BufferedImage firstFrame(int frame) {
+        BufferedImage image = thumbnailStore == null ? null : thumbnailStore.get(frame);
+        stored = image != null;
+        if (image != null) {
+            return image;
+        }
+        try {
+            if (frameGrabber == null) {
+                frameGrabber = new FFmpegFrameGrabber(videoFile);
+                frameGrabber.start();
+                converter = new Java2DFrameConverter();
+                position = 0;
+            }
+            // the shots are asked for in any order, so seek back as well as
+            // ahead when the frame is not just after the current one
+            if (frameIndex != null && (frame < position || frameIndex.keyFrameAtOrBefore(frame) > position)) {
+                frameIndex.seek(frameGrabber, frame);
+                position = frame;
+            } else if (frame < position) {
+                frameGrabber.restart();
+                position = 0;
+            }
+            Frame tempFrame = frameGrabber.grabImage();
+            while (tempFrame != null && position < frame) {
+                tempFrame = frameGrabber.grabImage();
+                position++;
+            }
+            if (tempFrame == null) {
+                return null;
+            }
+            position++;
+            // the converter reuses its image, which is scaled later
+            return Java2DFrameConverter.cloneBufferedImage(converter.convert(tempFrame));
+        } catch (Exception e) {
+            e.printStackTrace();
+            closeGrabber();
+            return null;
+        }
+    }
+
+    private void closeGrabber() {
+        if (frameGrabber != null) {
+            try {
+                frameGrabber.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            converter.close();
+            frameGrabber = null;
+        }
+    }
+}
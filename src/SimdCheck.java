@@ -0,0 +1,240 @@
+/*
+ * The SimdCheck compares the histogram and frame distance kernels with the
+ * scalar formulas they replace, on random images and histogram rows.
+ *
+ * Running its main method with --add-modules jdk.incubator.vector checks
+ * the SimdKernels, and without the module (or with -Dvideoshot.simd=false)
+ * the scalar kernels. Every histogram is compared with one binned pixel by
+ * pixel with 0.299R + 0.587G + 0.114B, for interleaved byte buffers at
+ * pixel steps 1 to 4 and for the BufferedImage types the kernels read
+ * directly, where the bands a gray image lacks count as 0. Besides random
+ * pixels, gray pixels are used, whose intensity falls on a bin boundary
+ * every 10 levels.
+ *
+ * @author Divya Kamath
+ */
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class SimdCheck {
+    private static final int[] IMAGE_TYPES = { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_USHORT_GRAY };
+    private static final int MAX_STEP = 4;
+
+    private final SplittableRandom random;
+    private int checks;
+    private int failures;
+
+    /**
+     * constructor
+     *
+     * pre: none
+     *
+     * post: the random images are drawn from seed, so a failure can be
+     * repeated.
+     */
+
+    SimdCheck(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * checkBuffer method bins a random interleaved BGR or BGRA buffer at every
+     * pixel step and compares it with the reference histogram.
+     *
+     * pre: none
+     *
+     * post: every mismatch is printed and counted.
+     */
+    void checkBuffer(boolean gray) {
+        int width = 1 + random.nextInt(300);
+        int height = 1 + random.nextInt(40);
+        int channels = random.nextBoolean() ? 3 : 4;
+        int stride = width * channels + random.nextInt(64);
+        ByteBuffer data = random.nextBoolean() ? ByteBuffer.allocateDirect(stride * height)
+                : ByteBuffer.allocate(stride * height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int p = y * stride + x * channels;
+                int level = random.nextInt(256);
+                for (int c = 0; c < channels; c++) {
+                    data.put(p + c, (byte) (gray ? level : random.nextInt(256)));
+                }
+            }
+        }
+
+        int[] bins = new int[IntensityHistogram.COLUMNS];
+        for (int step = 1; step <= MAX_STEP; step++) {
+            int[] expected = new int[IntensityHistogram.COLUMNS];
+            for (int y = 0; y < height; y += step) {
+                for (int x = 0; x < width; x += step) {
+                    int p = y * stride + x * channels;
+                    expected[bin(data.get(p + 2) & 0xff, data.get(p + 1) & 0xff, data.get(p) & 0xff)]++;
+                }
+            }
+            IntensityHistogram.histogram(data, width, height, channels, stride, step, bins);
+            compare(String.format("%d channel buffer %dx%d, step %d", channels, width, height, step), expected,
+                    bins);
+        }
+    }
+
+    /**
+     * checkImage method bins a random image of every type in IMAGE_TYPES, and
+     * a sub image of it so the raster starts at an offset, and compares them
+     * with the reference histogram.
+     *
+     * pre: none
+     *
+     * post: every mismatch is printed and counted.
+     */
+    void checkImage(boolean gray) {
+        int width = 2 + random.nextInt(300);
+        int height = 2 + random.nextInt(40);
+        for (int type : IMAGE_TYPES) {
+            BufferedImage image = new BufferedImage(width, height, type);
+            WritableRaster raster = image.getRaster();
+            int[] pixel = new int[raster.getNumBands()];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int level = random.nextInt(256);
+                    for (int band = 0; band < pixel.length; band++) {
+                        pixel[band] = gray ? level : random.nextInt(256);
+                    }
+                    raster.setPixel(x, y, pixel);
+                }
+            }
+            int x = random.nextInt(width / 2);
+            int y = random.nextInt(height / 2);
+            compareImage(image, type, width, height);
+            compareImage(image.getSubimage(x, y, width - x, height - y), type, width - x, height - y);
+        }
+    }
+
+    /**
+     * checkDistances method compares the Manhattan distances of random
+     * histogram rows, between two rows and between the adjacent frames of a
+     * FeatureStore, with the sum of the absolute differences.
+     *
+     * pre: none
+     *
+     * post: every mismatch is printed and counted.
+     */
+    void checkDistances() {
+        int frames = 2 + random.nextInt(100);
+        FeatureStore features = new FeatureStore(frames);
+        int[][] rows = new int[frames][IntensityHistogram.COLUMNS];
+        for (int i = 0; i < frames; i++) {
+            for (int j = 1; j < IntensityHistogram.COLUMNS; j++) {
+                rows[i][j] = random.nextInt(100000);
+            }
+            features.setRow(i, rows[i]);
+        }
+        CalculateUtil.calculateManhattanDistance(features);
+        int[] expected = new int[frames - 1];
+        for (int i = 0; i < frames - 1; i++) {
+            for (int j = 1; j < IntensityHistogram.COLUMNS; j++) {
+                expected[i] += Math.abs(rows[i][j] - rows[i + 1][j]);
+            }
+            checks++;
+            int distance = CalculateUtil.calculateManhattanDistance(rows[i], rows[i + 1]);
+            if (distance != expected[i]) {
+                failures++;
+                System.out.printf("distance of rows %d and %d: expected %d, got %d%n", i, i + 1, expected[i],
+                        distance);
+            }
+        }
+        compare(String.format("distances of %d frames", frames), expected, features.distances());
+    }
+
+    int checks() {
+        return checks;
+    }
+
+    int failures() {
+        return failures;
+    }
+
+    private void compareImage(BufferedImage image, int type, int width, int height) {
+        int[] expected = new int[IntensityHistogram.COLUMNS];
+        // the missing bands of a gray image stay 0
+        int[] pixel = new int[Math.max(3, image.getRaster().getNumBands())];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.getRaster().getPixel(x, y, pixel);
+                expected[bin(pixel[0], pixel[1], pixel[2])]++;
+            }
+        }
+        int[] bins = new int[IntensityHistogram.COLUMNS];
+        IntensityHistogram.histogram(image, bins);
+        compare(String.format("image type %d %dx%d", type, width, height), expected, bins);
+    }
+
+    private void compare(String name, int[] expected, int[] actual) {
+        checks++;
+        if (!Arrays.equals(expected, actual)) {
+            failures++;
+            System.out.println(name + ": expected " + Arrays.toString(expected) + ", got "
+                    + Arrays.toString(actual));
+        }
+    }
+
+    /**
+     * bin method is the reference: the histogram column of a pixel from the
+     * intensity formula of the original per pixel implementation.
+     *
+     * pre: r, g and b are between 0 and 255.
+     *
+     * post: returns the column between 1 and 25.
+     */
+    private static int bin(int r, int g, int b) {
+        return IntensityHistogram.binOf((int) ((0.299 * r) + (0.587 * g) + (0.114 * b)));
+    }
+
+    /**
+     * main method runs the checks on random images and rows and prints every
+     * mismatch.
+     *
+     * pre: args are any of the options --rounds n (default 200) and --seed n
+     * (default 42).
+     *
+     * post: the exit status is 1 if any kernel differs from the reference.
+     */
+    public static void main(String[] args) {
+        if (args.length % 2 != 0) {
+            System.err.println("usage: SimdCheck [--rounds n] [--seed n]");
+            System.exit(2);
+        }
+        int rounds = 200;
+        long seed = 42;
+        for (int i = 0; i < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--rounds":
+                    rounds = Integer.parseInt(value);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        SimdCheck check = new SimdCheck(seed);
+        for (int round = 0; round < rounds; round++) {
+            check.checkBuffer(round % 2 == 1);
+            check.checkImage(round % 2 == 1);
+            check.checkDistances();
+        }
+        System.out.printf("%s kernels: %d of %d checks failed%n", SimdSupport.ENABLED ? "SIMD" : "scalar",
+                check.failures(), check.checks());
+        if (check.failures() > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * The SimdKernels class holds the jdk.incubator.vector versions of the
+ * intensity histogram and Manhattan distance kernels, which work on several
+ * pixels or histogram columns at a time.
+ *
+ * The intensity of a pixel is computed in integers as 299R + 587G + 114B,
+ * which is 1000 times the intensity of the scalar kernels, and its bin is
+ * taken with a multiply and shift instead of a division. The scalar kernels
+ * add doubles, which land just below the exact value for some pixels, so
+ * the few pixels whose intensity falls exactly on a bin boundary are binned
+ * again with the scalar formula and every histogram matches the scalar one.
+ *
+ * The bins of a row are written out a vector at a time and counted after
+ * the row, every lane into its own copy of the histogram, so pixels of the
+ * same bin next to each other do not wait for each other's increment.
+ *
+ * The class must only be used when SimdSupport.ENABLED is true, it cannot
+ * be loaded without the jdk.incubator.vector module.
+ *
+ * @author Divya Kamath
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+final class SimdKernels {
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    // Bytes of the same vector size, holding the channels of INTS.length()
+    // pixels of up to 4 bytes
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, INTS.vectorShape());
+    // Histogram rows fit 8 lanes a few times over
+    private static final VectorSpecies<Integer> COLUMNS = IntVector.SPECIES_256;
+    private static final int LANES = INTS.length();
+
+    // ((x >>> 4) * BIN_MULTIPLIER) >>> BIN_SHIFT is x / 10000 for every
+    // weighted sum x of 8 bit channels, as 10000 is 16 * 625
+    private static final int BIN_MULTIPLIER = 6711;
+    private static final int BIN_SHIFT = 22;
+    private static final int BIN_SIZE = 10000;
+    private static final int LAST_BIN = 25;
+
+    // Length of the histogram copy of every lane, and the start of each copy
+    private static final int COPY_LENGTH = 32;
+    private static final int[] COPY_OFFSETS = new int[LANES];
+
+    static {
+        for (int i = 0; i < LANES; i++) {
+            COPY_OFFSETS[i] = i * COPY_LENGTH;
+        }
+    }
+
+    private SimdKernels() {
+    }
+
+    /**
+     * isSupported method checks that the vectors of the platform are wide
+     * enough for the kernels.
+     *
+     * pre: none
+     *
+     * post: returns true if the kernels run faster than the scalar ones.
+     */
+    static boolean isSupported() {
+        return INTS.vectorBitSize() >= COLUMNS.vectorBitSize();
+    }
+
+    /**
+     * byteHistogram method adds the pixels of an interleaved 8 bit image to
+     * bins. Images of up to 4 bytes per pixel are read a vector at a time,
+     * wider pixels one at a time.
+     *
+     * pre: first is the index of the first pixel, rowStride the distance
+     * between rows and pixelStride between pixels, red, green and blue are the
+     * offsets of the channels within a pixel.
+     *
+     * post: bins[1] to bins[25] are incremented by the pixels of each bin.
+     */
+    static void byteHistogram(ByteBuffer data, int first, int width, int height, int rowStride, int pixelStride,
+            int red, int green, int blue, int[] bins) {
+        int[] counts = new int[LANES * COPY_LENGTH];
+        int[] index = new int[width];
+        int vectorWidth = -1;
+        VectorShuffle<Byte> packPixels = null;
+        // the channels of every pixel are moved into the blue, green and red
+        // byte of an int lane, which is then read like a packed pixel
+        if (pixelStride * (LANES - 1) + Math.max(red, Math.max(green, blue)) < BYTES.length()) {
+            int[] lanes = new int[BYTES.length()];
+            for (int i = 0; i < LANES; i++) {
+                lanes[4 * i] = i * pixelStride + blue;
+                lanes[4 * i + 1] = i * pixelStride + green;
+                lanes[4 * i + 2] = i * pixelStride + red;
+                lanes[4 * i + 3] = i * pixelStride + blue;
+            }
+            packPixels = VectorShuffle.fromArray(BYTES, lanes, 0);
+            vectorWidth = width - LANES;
+        }
+        int vectorStride = pixelStride * LANES;
+        for (int y = 0; y < height; y++) {
+            int p = first + y * rowStride;
+            int x = 0;
+            for (; x <= vectorWidth && p + BYTES.length() <= data.limit(); x += LANES) {
+                IntVector pixels = ByteVector.fromByteBuffer(BYTES, data, p, ByteOrder.LITTLE_ENDIAN)
+                        .rearrange(packPixels).reinterpretAsInts();
+                binLanes(pixels, 0xff0000, 16, 0xff00, 8, 0xff, 0, index, x, bins);
+                p += vectorStride;
+            }
+            countRow(index, x, counts);
+            for (; x < width; x++) {
+                bins[scalarBin(data.get(p + red) & 0xff, data.get(p + green) & 0xff, data.get(p + blue) & 0xff)]++;
+                p += pixelStride;
+            }
+        }
+        addCounts(counts, bins);
+    }
+
+    /**
+     * packedHistogram method adds the pixels of an image that packs every
+     * pixel in one int to bins.
+     *
+     * pre: first is the index of the first pixel and rowStride the distance
+     * between rows, the masks select 8 bit channels that the shifts move down
+     * to bit 0.
+     *
+     * post: bins[1] to bins[25] are incremented by the pixels of each bin.
+     */
+    static void packedHistogram(int[] data, int first, int width, int height, int rowStride, int redMask,
+            int redShift, int greenMask, int greenShift, int blueMask, int blueShift, int[] bins) {
+        int[] counts = new int[LANES * COPY_LENGTH];
+        int[] index = new int[width];
+        for (int y = 0; y < height; y++) {
+            int p = first + y * rowStride;
+            int x = 0;
+            for (; x <= width - LANES; x += LANES) {
+                IntVector pixels = IntVector.fromArray(INTS, data, p + x);
+                binLanes(pixels, redMask, redShift, greenMask, greenShift, blueMask, blueShift, index, x, bins);
+            }
+            countRow(index, x, counts);
+            for (; x < width; x++) {
+                int pixel = data[p + x];
+                bins[scalarBin((pixel & redMask) >>> redShift, (pixel & greenMask) >>> greenShift,
+                        (pixel & blueMask) >>> blueShift)]++;
+            }
+        }
+        addCounts(counts, bins);
+    }
+
+    /**
+     * manhattanDistance method returns the sum of |previous[j] - current[j]|
+     * over the columns 1 to length - 1.
+     *
+     * pre: both rows have length columns and the sum is below
+     * Integer.MAX_VALUE.
+     *
+     * post: returns the Manhattan distance of the two rows.
+     */
+    static int manhattanDistance(int[] previous, int[] current, int length) {
+        int j = 1;
+        int distance = 0;
+        if (length > COLUMNS.length()) {
+            IntVector sum = IntVector.zero(COLUMNS);
+            for (; j <= length - COLUMNS.length(); j += COLUMNS.length()) {
+                IntVector a = IntVector.fromArray(COLUMNS, previous, j);
+                IntVector b = IntVector.fromArray(COLUMNS, current, j);
+                sum = sum.add(a.sub(b).abs());
+            }
+            distance = sum.reduceLanes(VectorOperators.ADD);
+        }
+        for (; j < length; j++) {
+            distance += Math.abs(previous[j] - current[j]);
+        }
+        return distance;
+    }
+
+    /**
+     * addDistances method adds |column[i] - column[i + 1]| to distance[i] for
+     * the first count distances, where column and distance are int columns
+     * of data in native byte order.
+     *
+     * pre: column holds count + 1 values and the offsets are in bytes.
+     *
+     * post: the distances hold the difference of the column as well.
+     */
+    static void addDistances(ByteBuffer data, int column, int distance, int count) {
+        ByteOrder order = ByteOrder.nativeOrder();
+        int i = 0;
+        for (; i <= count - LANES; i += LANES) {
+            int offset = i * Integer.BYTES;
+            IntVector current = IntVector.fromByteBuffer(INTS, data, column + offset, order);
+            IntVector next = IntVector.fromByteBuffer(INTS, data, column + offset + Integer.BYTES, order);
+            IntVector.fromByteBuffer(INTS, data, distance + offset, order).add(current.sub(next).abs())
+                    .intoByteBuffer(data, distance + offset, order);
+        }
+        for (; i < count; i++) {
+            int offset = i * Integer.BYTES;
+            data.putInt(distance + offset, data.getInt(distance + offset)
+                    + Math.abs(data.getInt(column + offset) - data.getInt(column + offset + Integer.BYTES)));
+        }
+    }
+
+    /**
+     * binLanes method stores the entry of the counts of every packed pixel of
+     * a vector, in its lane's histogram copy, in index from x on. Pixels whose
+     * weighted sum lies on a bin boundary are binned with the scalar formula
+     * straight into bins instead.
+     *
+     * pre: index has room for LANES entries from x on.
+     *
+     * post: every pixel of the vector is counted once by bins or by
+     * countRow.
+     */
+    private static void binLanes(IntVector pixels, int redMask, int redShift, int greenMask, int greenShift,
+            int blueMask, int blueShift, int[] index, int x, int[] bins) {
+        IntVector r = pixels.and(redMask).lanewise(VectorOperators.LSHR, redShift);
+        IntVector g = pixels.and(greenMask).lanewise(VectorOperators.LSHR, greenShift);
+        IntVector b = pixels.and(blueMask).lanewise(VectorOperators.LSHR, blueShift);
+        IntVector weighted = r.mul(299).add(g.mul(587)).add(b.mul(114));
+        IntVector bin = weighted.lanewise(VectorOperators.LSHR, 4).mul(BIN_MULTIPLIER)
+                .lanewise(VectorOperators.LSHR, BIN_SHIFT);
+        VectorMask<Integer> boundary = weighted.compare(VectorOperators.EQ, bin.mul(BIN_SIZE));
+        bin.add(1).min(LAST_BIN).add(IntVector.fromArray(INTS, COPY_OFFSETS, 0)).intoArray(index, x);
+        if (boundary.anyTrue()) {
+            rebin(pixels.toArray(), boundary.toArray(), redMask, redShift, greenMask, greenShift, blueMask,
+                    blueShift, index, x, bins);
+        }
+    }
+
+    /**
+     * rebin method bins the pixels of a vector that lie on a bin boundary with
+     * the scalar formula.
+     *
+     * pre: index holds the counts entry of every lane.
+     *
+     * post: the boundary pixels are counted in bins and their lanes point at
+     * the unused column 0 of the first copy.
+     */
+    private static void rebin(int[] packed, boolean[] boundary, int redMask, int redShift, int greenMask,
+            int greenShift, int blueMask, int blueShift, int[] index, int x, int[] bins) {
+        for (int i = 0; i < LANES; i++) {
+            if (boundary[i]) {
+                index[x + i] = 0;
+                bins[scalarBin((packed[i] & redMask) >>> redShift, (packed[i] & greenMask) >>> greenShift,
+                        (packed[i] & blueMask) >>> blueShift)]++;
+            }
+        }
+    }
+
+    /**
+     * countRow method counts the first length entries of index.
+     *
+     * pre: index was filled by binLanes.
+     *
+     * post: counts is incremented once for each entry.
+     */
+    private static void countRow(int[] index, int length, int[] counts) {
+        for (int i = 0; i < length; i++) {
+            counts[index[i]]++;
+        }
+    }
+
+    /**
+     * addCounts method adds the histogram copies of all lanes to bins.
+     *
+     * pre: counts was filled by countRow.
+     *
+     * post: bins[1] to bins[25] hold the counts of every lane as well.
+     */
+    private static void addCounts(int[] counts, int[] bins) {
+        for (int i = 0; i < LANES; i++) {
+            for (int j = 1; j <= LAST_BIN; j++) {
+                bins[j] += counts[i * COPY_LENGTH + j];
+            }
+        }
+    }
+
+    private static int scalarBin(int r, int g, int b) {
+        return IntensityHistogram.binOf((int) ((0.299 * r) + (0.587 * g) + (0.114 * b)));
+    }
+}
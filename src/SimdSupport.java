@@ -0,0 +1,40 @@
+/*
+ * The SimdSupport class decides once whether the SimdKernels can be used.
+ *
+ * The kernels need the jdk.incubator.vector module, which is only resolved
+ * when the JVM is started with --add-modules jdk.incubator.vector, and
+ * vectors of at least 256 bits. Without them, or with -Dvideoshot.simd=false,
+ * the scalar kernels are used. Both give exactly the same results.
+ *
+ * @author Divya Kamath
+ */
+
+public final class SimdSupport {
+    // Whether IntensityHistogram and CalculateUtil use the SimdKernels
+    public static final boolean ENABLED = detect();
+
+    private SimdSupport() {
+    }
+
+    /**
+     * detect method checks the property, the module and the vector size, in
+     * this order, so SimdKernels is only loaded when the module is there.
+     *
+     * pre: none
+     *
+     * post: returns true if the SimdKernels can be used.
+     */
+    private static boolean detect() {
+        if (!Boolean.parseBoolean(System.getProperty("videoshot.simd", "true"))) {
+            return false;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return SimdKernels.isSupported();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * The StreamingShotDetector runs the twin comparison algorithm of ReadShots
+ * on a stream of frame distances, one distance at a time.
+ * 
+ * Instead of the average and standard deviation of the whole video it uses
+ * RunningStats over the distances seen so far (or over a sliding window), and
+ * reports every cut and gradual transition to a ShotListener as soon as it is
+ * confirmed. Its memory is bounded by the window, so it can follow live or
+ * hours long inputs.
+ * 
+ * @author Divya Kamath
+ */
+
+public class StreamingShotDetector {
+    // Number of distances used to settle the statistics before detecting
+    private static final int DEFAULT_WARM_UP = 30;
+
+    private final RunningStats stats;
+    private final ShotListener listener;
+    private final int startFrame;
+    private final int gtTor;
+    private double cutMultiplier;
+    private double gtMultiplier;
+    private int warmUp;
+
+    private int index;
+    private int transitionStart;
+    private long transitionSum;
+    private int quietCount;
+    private long quietSum;
+
+    /**
+     * constructor
+     * 
+     * pre: window is 0 to use every distance seen so far, or the number of
+     * recent distances the thresholds are calculated from.
+     * 
+     * post: sets up a detector with the thresholds of ReadShots, mean + 11 SD
+     * for cuts and 2 * mean for gradual transitions.
+     */
+
+    StreamingShotDetector(int startFrame, int gtTor, int window, ShotListener listener) {
+        this.startFrame = startFrame;
+        this.gtTor = Math.max(gtTor, 1);
+        this.listener = listener;
+        stats = new RunningStats(window);
+        cutMultiplier = 11;
+        gtMultiplier = 2;
+        warmUp = window > 0 ? Math.min(window, DEFAULT_WARM_UP) : DEFAULT_WARM_UP;
+        transitionStart = -1;
+    }
+
+    /**
+     * setMultipliers method changes the threshold formulas to
+     * mean + cutMultiplier * SD for cuts and gtMultiplier * mean for gradual
+     * transitions.
+     * 
+     * pre: called before the first distance
+     * 
+     * post: the multipliers are set.
+     */
+    public void setMultipliers(double cutMultiplier, double gtMultiplier) {
+        this.cutMultiplier = cutMultiplier;
+        this.gtMultiplier = gtMultiplier;
+    }
+
+    /**
+     * setWarmUp method sets how many distances only feed the statistics before
+     * shots are detected.
+     * 
+     * pre: called before the first distance
+     * 
+     * post: the warm up is set.
+     */
+    public void setWarmUp(int warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * openTransition method returns the first frame of the gradual transition
+     * that is open, which is reported with that first frame once it is
+     * confirmed.
+     * 
+     * pre: none
+     * 
+     * post: returns the frame, -1 if no transition is open.
+     */
+    public int openTransition() {
+        return transitionStart < 0 ? -1 : transitionStart + startFrame;
+    }
+
+    /**
+     * accept method takes the distance between the next two frames.
+     * 
+     * A distance at or above the cut threshold is a cut and closes any open
+     * transition. A distance between the two thresholds opens or extends a
+     * transition. A transition ends once gtTor distances in a row fall below
+     * the gradual transition threshold, and is reported if its distances add
+     * up to the cut threshold.
+     * 
+     * Cuts are left out of the statistics so one cut does not hide the cuts
+     * that follow it.
+     * 
+     * pre: distances are passed in frame order
+     * 
+     * post: the listener is told about every shot this distance confirms.
+     */
+    public void accept(int distance) {
+        if (stats.count() < warmUp) {
+            stats.add(distance);
+            index++;
+            return;
+        }
+        double cutThreshold = stats.average() + (stats.standardDeviation() * cutMultiplier);
+        double gtThreshold = stats.average() * gtMultiplier;
+
+        if (distance >= cutThreshold) {
+            endTransition(index - 1 - quietCount, cutThreshold);
+            listener.cutDetected(index + startFrame, index + startFrame + 1);
+        } else {
+            if (distance >= gtThreshold) {
+                if (transitionStart < 0) {
+                    transitionStart = index;
+                    transitionSum = distance;
+                } else {
+                    transitionSum += quietSum + distance;
+                }
+                quietCount = 0;
+                quietSum = 0;
+            } else if (transitionStart >= 0) {
+                quietCount++;
+                quietSum += distance;
+                if (quietCount >= gtTor) {
+                    endTransition(index - quietCount, cutThreshold);
+                }
+            }
+            stats.add(distance);
+        }
+        index++;
+    }
+
+    /**
+     * finish method closes a transition that is still open at the end of the
+     * stream.
+     * 
+     * pre: no more distances follow
+     * 
+     * post: the listener is told about the open transition if it is real.
+     */
+    public void finish() {
+        endTransition(index - 1 - quietCount, stats.average() + (stats.standardDeviation() * cutMultiplier));
+    }
+
+    /**
+     * endTransition method reports the open transition, which ends at
+     * transitionEnd, the last distance before the quiet run, if its sum
+     * reaches cutThreshold.
+     * 
+     * pre: none
+     * 
+     * post: no transition is open.
+     */
+    private void endTransition(int transitionEnd, double cutThreshold) {
+        if (transitionStart >= 0 && transitionSum >= cutThreshold) {
+            listener.gradualTransitionDetected(transitionStart + startFrame, transitionEnd + startFrame);
+        }
+        transitionStart = -1;
+        quietCount = 0;
+        quietSum = 0;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * The ThumbnailService scales the first frame of a shot to the icon size
+ * of the shot list or the size of the selected shot on a pool of
+ * background threads, and hands the icon to the GUI on the event dispatch
+ * thread.
+ *
+ * Frames are scaled down in steps of at most one half with bilinear
+ * interpolation, which looks as good as area averaging and is many times
+ * faster. Only the scaled image is kept, not the frame.
+ *
+ * @author Divya Kamath
+ */
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+
+public class ThumbnailService {
+    // Size of the shot icons in the shot list
+    public static final int SMALL = 100;
+    // Size of the selected shot
+    public static final int LARGE = 350;
+
+    private final ExecutorService pool;
+
+    /**
+     * constructor
+     *
+     * pre: threads is at least 1.
+     *
+     * post: starts the pool, its threads do not keep the application running.
+     */
+
+    ThumbnailService(int threads) {
+        pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "thumbnails");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * submit method scales an image to a square icon in the background.
+     *
+     * pre: image is not changed by the caller afterwards.
+     *
+     * post: publish is called on the event dispatch thread with the icon.
+     */
+    public void submit(BufferedImage image, int size, Consumer<ImageIcon> publish) {
+        pool.execute(() -> {
+            ImageIcon icon = new ImageIcon(scale(image, size, size));
+            SwingUtilities.invokeLater(() -> publish.accept(icon));
+        });
+    }
+
+    /**
+     * scale method resizes an image to width x height. When shrinking, the
+     * image is halved with bilinear interpolation until it is less than twice
+     * the target size, so every output pixel is blended from all the source
+     * pixels it covers.
+     *
+     * pre: width and height are at least 1.
+     *
+     * post: returns a new image of the given size.
+     */
+    public static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = currentWidth > width ? Math.max(width, currentWidth / 2) : width;
+            currentHeight = currentHeight > height ? Math.max(height, currentHeight / 2) : height;
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            graphics.dispose();
+            current = next;
+        } while (currentWidth != width || currentHeight != height);
+        return current;
+    }
+
+    /**
+     * shutdown method stops the pool once the submitted images are scaled.
+     *
+     * pre: none
+     *
+     * post: no more images are accepted.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * The ThumbnailStore keeps small images of the frames that start a shot
+ * while ReadFrames decodes the video, so the GUI can show the first frame
+ * of every shot without decoding the video a second time.
+ *
+ * Every run of frames ReadFrames decodes is handed to a Feed, which runs
+ * a StreamingShotDetector over its frame distances. The frame after every
+ * cut is kept when the cut is confirmed. A feed copies its last few frames
+ * into a small ring of reused buffers, so when a gradual transition opens
+ * the frames around its start, which ReadShots may pick as the start of the
+ * next shot, are taken from the ring and kept once it is confirmed. Before
+ * the detector has seen enough distances of its run, and in runs too short
+ * for it, a frame is kept when its distance is well above the average
+ * distance of all runs. The first frame of every run is always kept.
+ *
+ * The frame being fed is only read during the call. The kept frames are
+ * encoded as JPEG on a background thread, so decoding does not wait for
+ * them. The most
+ * recently used thumbnails are held in memory, and when the store has a
+ * directory every thumbnail is also written there, so a later run whose
+ * histograms are all cached finds them without decoding anything.
+ *
+ * @author Divya Kamath
+ */
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.Java2DFrameConverter;
+
+public class ThumbnailStore {
+    // Distance of a frame whose previous frame is not known
+    public static final int NO_DISTANCE = -1;
+    // Longest side of a thumbnail, the size of the selected shot in MainFrame
+    private static final int SIZE = 350;
+    // Distances a feed's detector sees before it detects anything
+    private static final int WARM_UP = 30;
+    // Distances of all feeds seen before a frame is compared with their average
+    private static final int MIN_DISTANCES = 5;
+    // Recent frames each feed holds, so the frames before a gradual
+    // transition opens are still there
+    private static final int RING = 6;
+    // gtTor of the detectors of the feeds
+    private static final int GT_TOR = 2;
+    // Prefix of thumbnails that are still being written
+    private static final String PARTIAL = "~";
+
+    private final int capacity;
+    private final File directory;
+    private final double multiplier;
+    // Distances of all feeds, for frames their own detector cannot judge yet
+    private final RunningStats stats;
+    // JPEG bytes of the most recently used thumbnails
+    private final LinkedHashMap<Integer, byte[]> thumbnails;
+    // Frames kept by any feed, including the ones still being encoded
+    private final Set<Integer> kept;
+    private final ExecutorService encoder;
+    private final Java2DFrameConverter converter;
+
+    /**
+     * constructor
+     *
+     * pre: capacity is at least 1.
+     *
+     * post: sets up an empty store that holds at most capacity thumbnails in
+     * memory and keeps nothing on disk.
+     */
+
+    ThumbnailStore(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * constructor
+     *
+     * pre: capacity is at least 1, directory may be null.
+     *
+     * post: sets up a store that holds at most capacity thumbnails in memory
+     * and writes every thumbnail to directory. Frames kept by the feeds of
+     * this store are compared with 1.5 times the running average, while the
+     * gradual transition threshold of ReadShots is 2 times the average.
+     */
+
+    ThumbnailStore(int capacity, File directory) {
+        this.capacity = capacity;
+        this.directory = directory;
+        multiplier = 1.5;
+        stats = new RunningStats(0);
+        thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+        kept = ConcurrentHashMap.newKeySet();
+        encoder = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        converter = new Java2DFrameConverter();
+        if (directory != null) {
+            directory.mkdirs();
+        }
+    }
+
+    /**
+     * open method returns a store whose thumbnails are written next to the
+     * histogram cache, in a directory named after the fingerprint of the
+     * video.
+     *
+     * pre: videoFile is readable.
+     *
+     * post: returns the store, which finds the thumbnails of earlier runs.
+     */
+    public static ThumbnailStore open(File cacheDirectory, String videoFile, int capacity) throws IOException {
+        return new ThumbnailStore(capacity,
+                new File(cacheDirectory, HistogramCache.fingerprint(videoFile) + ".thumbs"));
+    }
+
+    /**
+     * feed method starts a run of consecutive frames, which are passed to the
+     * returned Feed one after the other. Feeds of different runs may be used
+     * on different threads at the same time.
+     *
+     * pre: firstFrame is the first frame of the run.
+     *
+     * post: returns the feed of the run.
+     */
+    public Feed feed(int firstFrame) {
+        return new Feed(firstFrame);
+    }
+
+    /**
+     * flush method waits until every kept frame is encoded.
+     *
+     * pre: none
+     *
+     * post: get finds every frame kept so far, unless the thread was
+     * interrupted.
+     */
+    public void flush() {
+        try {
+            encoder.submit(() -> {
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * get method returns the thumbnail of a frame, from memory or from the
+     * directory of the store.
+     *
+     * pre: none
+     *
+     * post: returns a new image of the frame, or null if it was not kept.
+     */
+    public BufferedImage get(int frame) {
+        byte[] thumbnail;
+        synchronized (this) {
+            thumbnail = thumbnails.get(frame);
+        }
+        try {
+            if (thumbnail == null && directory != null) {
+                File file = new File(directory, frame + ".jpg");
+                if (!file.isFile()) {
+                    return null;
+                }
+                thumbnail = Files.readAllBytes(file.toPath());
+                remember(frame, thumbnail);
+            }
+            return thumbnail == null ? null : ImageIO.read(new ByteArrayInputStream(thumbnail));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * size method returns the number of thumbnails held in memory.
+     *
+     * pre: none
+     *
+     * post: returns the thumbnail count.
+     */
+    public synchronized int size() {
+        return thumbnails.size();
+    }
+
+    /**
+     * isCandidate method adds a distance to the statistics of all feeds and
+     * tells if it is well above their average.
+     *
+     * pre: distance is not NO_DISTANCE.
+     *
+     * post: returns true if the frame of the distance may start a shot.
+     */
+    private synchronized boolean isCandidate(int distance) {
+        stats.add(distance);
+        return stats.count() > MIN_DISTANCES && distance >= multiplier * stats.average();
+    }
+
+    /**
+     * keep method hands a copy of a frame to the encoder, unless the frame
+     * was kept already.
+     *
+     * pre: image is a copy the caller does not use any more.
+     *
+     * post: the thumbnail of the frame is encoded in the background and the
+     * copy is released.
+     */
+    private void keep(int frame, Frame image) {
+        if (!kept.add(frame)) {
+            image.close();
+            return;
+        }
+        encoder.execute(() -> {
+            try {
+                byte[] thumbnail = encode(converter.convert(image));
+                remember(frame, thumbnail);
+                if (directory != null) {
+                    File partial = new File(directory, PARTIAL + frame + ".jpg");
+                    Files.write(partial.toPath(), thumbnail);
+                    Files.move(partial.toPath(), new File(directory, frame + ".jpg").toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                image.close();
+            }
+        });
+    }
+
+    /**
+     * remember method holds a thumbnail in memory, dropping the least recently
+     * used one when capacity thumbnails are held.
+     *
+     * pre: none
+     *
+     * post: the thumbnail is the most recently used.
+     */
+    private synchronized void remember(int frame, byte[] thumbnail) {
+        thumbnails.put(frame, thumbnail);
+        if (thumbnails.size() > capacity) {
+            thumbnails.remove(thumbnails.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * encode method scales an image down to fit SIZE and compresses it as a
+     * JPEG, so many thumbnails fit in little memory.
+     *
+     * pre: image is not null.
+     *
+     * post: returns the JPEG bytes.
+     */
+    private static byte[] encode(BufferedImage image) throws IOException {
+        double scale = Math.min(1, (double) SIZE / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(ThumbnailService.scale(image, width, height), "jpg", jpeg);
+        return jpeg.toByteArray();
+    }
+
+    /**
+     * Feed follows one run of consecutive frames. It is used by one thread at
+     * a time.
+     */
+    public class Feed implements ShotListener {
+        private final StreamingShotDetector detector;
+        // Copies of the last RING frames, at the index frame % RING
+        private final Frame[] ring;
+        private final int[] ringFrames;
+        // Copies of the frames that may start the open gradual transition
+        private final Map<Integer, Frame> pinned;
+        private int distances;
+        private int currentFrame;
+        private Frame currentImage;
+
+        /**
+         * constructor
+         *
+         * pre: firstFrame is the first frame of the run.
+         *
+         * post: sets up the detector of the run.
+         */
+
+        Feed(int firstFrame) {
+            detector = new StreamingShotDetector(firstFrame, GT_TOR, 0, this);
+            detector.setWarmUp(WARM_UP);
+            ring = new Frame[RING];
+            ringFrames = new int[RING];
+            Arrays.fill(ringFrames, -1);
+            pinned = new HashMap<>();
+        }
+
+        /**
+         * frame method takes the next frame of the run and its distance to the
+         * frame before, and keeps the frame if it starts a shot. A frame
+         * whose distance is NO_DISTANCE, such as the first frame of the run,
+         * is always kept.
+         *
+         * pre: image holds the decoded frame, it is only read during the call.
+         *
+         * post: the frame is kept if it starts a confirmed shot, and copied
+         * if it may start a gradual transition that is still open.
+         */
+        public void frame(int frame, int distance, Frame image) {
+            int slot = frame % RING;
+            ring[slot] = copy(image, ring[slot]);
+            ringFrames[slot] = frame;
+            if (distance == NO_DISTANCE) {
+                keep(frame, image.clone());
+                return;
+            }
+            boolean candidate = isCandidate(distance);
+            if (distances < WARM_UP && candidate) {
+                keep(frame, image.clone());
+            }
+            currentFrame = frame;
+            currentImage = image;
+            detector.accept(distance);
+            distances++;
+            currentImage = null;
+
+            // ReadShots starts the shot after a gradual transition two frames
+            // after its first distance, which may lie a few frames before the
+            // one the detector opened the transition on
+            int transition = detector.openTransition();
+            if (transition < 0) {
+                unpin();
+                return;
+            }
+            for (int pin = transition - RING + 2; pin <= Math.min(frame, transition + 2); pin++) {
+                if (ringFrames[pin % RING] == pin && !pinned.containsKey(pin)) {
+                    pinned.put(pin, ring[pin % RING].clone());
+                }
+            }
+        }
+
+        /**
+         * finish method ends the run.
+         *
+         * pre: no more frames follow
+         *
+         * post: a gradual transition still open is kept if it is real.
+         */
+        public void finish() {
+            detector.finish();
+            unpin();
+            for (int i = 0; i < RING; i++) {
+                if (ring[i] != null) {
+                    ring[i].close();
+                    ring[i] = null;
+                }
+            }
+        }
+
+        public void cutDetected(int cutStart, int cutEnd) {
+            if (cutEnd == currentFrame && currentImage != null) {
+                keep(cutEnd, currentImage.clone());
+            }
+        }
+
+        public void gradualTransitionDetected(int transitionStart, int transitionEnd) {
+            for (Map.Entry<Integer, Frame> entry : pinned.entrySet()) {
+                keep(entry.getKey(), entry.getValue());
+            }
+            pinned.clear();
+        }
+
+        /**
+         * copy method copies the image of frame into reused, growing or
+         * replacing it only when frame does not fit.
+         *
+         * pre: frame holds an 8 bit image, reused may be null.
+         *
+         * post: returns the copy.
+         */
+        private Frame copy(Frame frame, Frame reused) {
+            if (reused == null || reused.imageWidth != frame.imageWidth || reused.imageHeight != frame.imageHeight
+                    || reused.imageChannels != frame.imageChannels) {
+                if (reused != null) {
+                    reused.close();
+                }
+                reused = new Frame(frame.imageWidth, frame.imageHeight, Frame.DEPTH_UBYTE, frame.imageChannels);
+            }
+            ByteBuffer to = (ByteBuffer) reused.image[0];
+            ByteBuffer from = ((ByteBuffer) frame.image[0]).duplicate();
+            int row = frame.imageWidth * frame.imageChannels;
+            for (int y = 0; y < frame.imageHeight; y++) {
+                from.limit(y * frame.imageStride + row).position(y * frame.imageStride);
+                to.position(y * reused.imageStride);
+                to.put(from);
+            }
+            to.clear();
+            return reused;
+        }
+
+        private void unpin() {
+            for (Frame image : pinned.values()) {
+                image.close();
+            }
+            pinned.clear();
+        }
+    }
+}